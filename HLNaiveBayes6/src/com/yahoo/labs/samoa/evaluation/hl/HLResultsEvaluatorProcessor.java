@@ -0,0 +1,83 @@
+package com.yahoo.labs.samoa.evaluation.hl;
+
+/*
+ * #%L
+ * SAMOA
+ * %%
+ * Copyright (C) 2013 Yahoo! Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+import com.yahoo.labs.samoa.core.Processor;
+import com.yahoo.labs.samoa.evaluation.EvaluatorProcessor;
+import com.yahoo.labs.samoa.learners.classifiers.hl.NBResultsContentEvent;
+
+/**
+ * Adapter in front of the EvaluatorProcessor.
+ * Unpacks the NBResultsContentEvent sent by NBModel into one ResultContentEvent
+ * per instance and passes them to the wrapped evaluator, in order.
+ * Any other event is passed to the evaluator unchanged, so it can be used
+ * with any learner.
+ *
+ * Topology
+ * resultStream -shuffle-> HLResultsEvaluatorProcessor(EvaluatorProcessor) --> result
+ *
+ * @author Li Huang
+ */
+public class HLResultsEvaluatorProcessor implements Processor {
+
+    private static final long serialVersionUID = -3125476430262151706L;
+
+    private final EvaluatorProcessor evaluator;
+
+    public HLResultsEvaluatorProcessor(EvaluatorProcessor evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    @Override
+    public boolean process(ContentEvent event) {
+        if (!(event instanceof NBResultsContentEvent)) {
+            return this.evaluator.process(event);
+        }
+
+        NBResultsContentEvent results = (NBResultsContentEvent) event;
+        boolean ret = true;
+        for (int i = 0; i < results.size(); i++) {
+            ret = this.evaluator.process(results.getResult(i)) && ret;
+        }
+        // an empty batch flagged last still ends the evaluation
+        if (results.size() == 0 && results.isLastEvent()) {
+            ret = this.evaluator.process(results.getEndResult()) && ret;
+        }
+        return ret;
+    }
+
+    @Override
+    public void onCreate(int id) {
+        this.evaluator.onCreate(id);
+    }
+
+    @Override
+    public Processor newProcessor(Processor p) {
+        HLResultsEvaluatorProcessor original = (HLResultsEvaluatorProcessor) p;
+        return new HLResultsEvaluatorProcessor(
+                (EvaluatorProcessor) original.evaluator.newProcessor(original.evaluator));
+    }
+
+    public EvaluatorProcessor getEvaluator() {
+        return this.evaluator;
+    }
+}
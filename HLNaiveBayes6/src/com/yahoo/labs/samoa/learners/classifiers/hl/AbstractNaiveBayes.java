@@ -0,0 +1,140 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import com.github.javacliparser.*;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.learners.Learner;
+
+/**
+ * @author hl
+ * Options shared by the NaiveBayes topologies (NaiveBayes, HorizontalNaiveBayes):
+ * the NBModel replicas and how NBDistributor batches and sends the instances to them.
+ * The options of the training processors are declared by each topology.
+ */
+public abstract class AbstractNaiveBayes implements Learner, Configurable{
+
+	private static final long serialVersionUID = -6193561287400137722L;
+
+	public IntOption nParallelModel = new IntOption(
+            "parallelModel",
+            'm',
+            "number of NBModel Processors",
+            1, 1, Integer.MAX_VALUE);
+
+	public MultiChoiceOption predictionModeOption = new MultiChoiceOption(
+			"predictionMode",
+			'p',
+			"how NBModel computes the votes of testing instances",
+			new String[]{"probability","logProbability","batchMatrix"},
+			new String[]{"multiply the probabilities P(Cj)*P(Xi|Cj), may underflow on wide instances",
+					"sum log-probabilities and normalize once, no underflow",
+					"logProbability, scoring a batch of testing instances with one matrix multiply"},
+			0);
+
+	public IntOption nScoringThreads = new IntOption(
+            "scoringThreads",
+            't',
+            "number of threads of each NBModel to score a batch of testing instances, 1 for no parallel scoring",
+            1, 1, Integer.MAX_VALUE);
+
+	public FlagOption batchResultsOption = new FlagOption(
+			"batchResults",
+			'r',
+			"NBModel sends the results of a testing batch in one NBResultsContentEvent, "
+			+ "the evaluator must unpack it (see HLResultsEvaluatorProcessor)");
+
+	public IntOption resultTopKOption = new IntOption(
+			"resultTopK",
+			'k',
+			"0 = results carry the instance and all votes, "
+			+ "k>0 = lean batched results with only the instance index, true class and the k best votes (1 = argmax)",
+			0, 0, Integer.MAX_VALUE);
+
+	public IntOption lingerMillisOption = new IntOption(
+            "lingerMillis",
+            'u',
+            "NBDistributor sends a batch when its oldest instance has waited u milliseconds, even if it is not full "
+            + "(checked when an event is received), 0 = only full batches",
+            0, 0, Integer.MAX_VALUE);
+
+	public IntOption latencyTargetMillisOption = new IntOption(
+            "latencyTargetMillis",
+            'v',
+            "NBDistributor tunes the train and test batch sizes at runtime to keep the 99th percentile of the time "
+            + "an instance waits in a batch under v milliseconds, as large as possible. 0 = fixed batchSize",
+            0, 0, Integer.MAX_VALUE);
+
+	public IntOption maxBatchSizeOption = new IntOption(
+            "maxBatchSize",
+            'z',
+            "with latencyTargetMillis>0, the largest train batch size (the test batches are twice as large), "
+            + "0 = batchSize",
+            0, 0, Integer.MAX_VALUE);
+
+	public IntOption maxInFlightBatchesOption = new IntOption(
+            "maxInFlightBatches",
+            'q',
+            "flow control: each downstream replica returns a credit to NBDistributor for every processed batch, "
+            + "NBDistributor sends at most q uncredited batches per replica and stream, "
+            + "and sheds the incoming instances when its buffer is also full. 0 = no flow control",
+            0, 0, Integer.MAX_VALUE);
+
+	public MultiChoiceOption testRoutingOption = new MultiChoiceOption(
+			"testRouting",
+			's',
+			"how NBDistributor sends the testing batches to the NBModel",
+			new String[]{"shuffle","leastLoaded"},
+			new String[]{"shuffle grouping, a busy NBModel receives as many batches as the others",
+					"key grouping to the NBModel with the fewest unacknowledged batches, "
+					+ "learned from the acknowledgements of the NBModels"},
+			0);
+
+	public FlagOption coalesceUpdatesOption = new FlagOption(
+			"coalesceUpdates",
+			'h',
+			"NBModel skips superseded updates (sequence numbers per partition) and compiles "
+			+ "the received updates once before scoring, instead of compiling every update, "
+			+ "ignored with predictionMode=probability");
+
+	public IntOption maxModelStalenessOption = new IntOption(
+            "maxModelStaleness",
+            'y',
+            "with coalesceUpdates, NBModel scores without compiling the received updates while at most "
+            + "y trained instances are not compiled, 0 = compile before every scoring",
+            0, 0, Integer.MAX_VALUE);
+
+	protected boolean isLeastLoadedTesting()
+	{
+		return this.testRoutingOption.getChosenIndex()==1;
+	}
+
+	protected boolean isFlowControlled()
+	{
+		return this.maxInFlightBatchesOption.getValue()>0;
+	}
+
+	/**
+	 * NBDistributor builder with the batching, flow control and testing options
+	 */
+	NBDistributor.Builder newDistributorBuilder(Instances dataset, int batchSize)
+	{
+		return new NBDistributor.Builder().batchSize(batchSize).dataset(dataset)
+				.lingerMillis(this.lingerMillisOption.getValue())
+				.latencyTargetMillis(this.latencyTargetMillisOption.getValue())
+				.maxBatchSize(this.maxBatchSizeOption.getValue())
+				.maxInFlightBatches(this.maxInFlightBatchesOption.getValue())
+				.p2(this.nParallelModel.getValue())
+				.leastLoadedTesting(isLeastLoadedTesting());
+	}
+
+	NBModelProcessor newModelProcessor(Instances dataset)
+	{
+		NBModelProcessor.PredictionMode predictionMode =
+				NBModelProcessor.PredictionMode.values()[this.predictionModeOption.getChosenIndex()];
+		return new NBModelProcessor.Builder().dataset(dataset).predictionMode(predictionMode)
+				.scoringThreads(this.nScoringThreads.getValue())
+				.batchResults(this.batchResultsOption.isSet())
+				.resultTopK(this.resultTopKOption.getValue())
+				.coalesceUpdates(this.coalesceUpdatesOption.isSet())
+				.maxModelStaleness(this.maxModelStalenessOption.getValue()).build();
+	}
+}
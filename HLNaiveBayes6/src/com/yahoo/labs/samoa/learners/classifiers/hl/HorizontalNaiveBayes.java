@@ -0,0 +1,187 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.javacliparser.*;
+import com.yahoo.labs.samoa.core.Processor;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.topology.Stream;
+import com.yahoo.labs.samoa.topology.TopologyBuilder;
+
+/**
+ * @author hl
+ * NaiveBayes Classifier for SAMOA
+ *
+ * Horizontal Parallel Naive Bayes algorithm, the training instances are
+ * partitioned instead of the attributes (see NaiveBayes for the vertical one).
+ * For narrow datasets with a high rate of instances: every NBAttributeStat of
+ * NaiveBayes receives every instance, every NBTrainer here receives 1/n of them.
+ * support numeric & nominal attributes
+ * The NBModel and NBDistributor options are shared with NaiveBayes (see AbstractNaiveBayes).
+ */
+public class HorizontalNaiveBayes extends AbstractNaiveBayes{
+
+	/*
+	 * Topology:
+	 *
+	 *                   |----------testStream(shuffle)-------------------------------------------------------------------|
+	 *                   |                                                                                                \/
+	 * inputStream-->[NBDistributor:1]--trainStream(shuffle)->[NBTrainer:n]-partialStream(key)->[NBAggregator:n/g]-...
+	 *                                          ...->[NBAggregator:1]-attStatStream(all)->[NBModel:p2]-->resultStream
+	 *
+	 * Each NBTrainer keeps the statistics of all the attributes for its part of the instances,
+	 * the increments are merged by a tree of NBAggregator levels of fan-in g,
+	 * the root keeps the statistics of all the instances and updates the NBModels
+	 *
+	 * The end of the training stream is sent to every NBTrainer (trainEndStream(all)),
+	 * the root sends the last update after the last statistics of all the NBTrainer's
+	 *
+	 * With maxInFlightBatches>0, NBTrainer and NBModel return credits to NBDistributor
+	 * (trainCreditStream, testCreditStream), see NBCreditEvent
+	 * With testRouting=leastLoaded, testStream is a key stream and testCreditStream
+	 * carries the acknowledgements of the testing batches, see NBTestRouter
+	 */
+
+	private static final long serialVersionUID = 4470651262914823197L;
+
+	private static Logger logger = LoggerFactory.getLogger(HorizontalNaiveBayes.class);
+
+	private NBDistributor nbDistributorP;
+	private NBTrainer nbTrainerP;
+	private List<NBAggregator> nbAggregatorP; //levels of the aggregation tree, the last is the root
+	private NBModelProcessor nbModelP;
+
+	private Stream trainStream;
+	private Stream trainEndStream;
+	private Stream testStream;
+	private Stream attStatStream;
+	private Stream trainCreditStream; //only created if maxInFlightBatches>0
+	private Stream testCreditStream; //only created if maxInFlightBatches>0 or testRouting=leastLoaded
+
+	private Stream resultStream; //the data of prediction result
+
+	public IntOption nParallelTrainer = new IntOption(
+            "parallelTrainer",
+            'a',
+            "number of NBTrainer Processors",
+            1, 1, Integer.MAX_VALUE);
+
+	public IntOption nBatchSize = new IntOption(
+            "batchSize",
+            'b',
+            "train and testing is group by group, batchSize is number of instances in a group, "
+            + "each NBTrainer pushes its statistics after training batchSize instances",
+            200, 1, Integer.MAX_VALUE);
+
+	public IntOption aggregationFanInOption = new IntOption(
+            "aggregationFanIn",
+            'g',
+            "number of children of an NBAggregator of the aggregation tree, "
+            + "an NBAggregator sends on the merged statistics after receiving this number of pushes",
+            4, 2, Integer.MAX_VALUE);
+
+	public MultiChoiceOption nominalObserverOption = new MultiChoiceOption(
+			"nominalObserver",
+			'n',
+			"how NBTrainer stores the statistics of nominal attributes",
+			new String[]{"autoExpand","dense"},
+			new String[]{"NominalAttributeClassObserver, one DoubleVector per class, grows with the observed values",
+					"DenseNominalAttributeClassObserver, one double[K*V] array sized from the dataset header"},
+			0);
+
+	@Override
+	public void init(TopologyBuilder builder, Instances dataset, int parallelism) {
+		logger.info("================================================");
+		logger.info("Begin init HorizontalNaiveBayes Classifier topology.");
+
+		int n = this.nParallelTrainer.getValue();
+		int p2 = this.nParallelModel.getValue();
+		int batchSize = this.nBatchSize.getValue();
+		int fanIn = this.aggregationFanInOption.getValue();
+		boolean leastLoadedTesting = isLeastLoadedTesting();
+
+		// Create Processors
+		this.nbDistributorP = newDistributorBuilder(dataset, batchSize)
+				.p1(n).shuffleTraining(true).build();
+		this.nbTrainerP = new NBTrainer.Builder().dataset(dataset).pushPeriod(batchSize).fanIn(fanIn)
+				.denseNominalObserver(this.nominalObserverOption.getChosenIndex()==1).build();
+		this.nbModelP = newModelProcessor(dataset);
+
+		builder.addProcessor(this.nbDistributorP,1);
+		builder.addProcessor(this.nbTrainerP,n);
+		builder.addProcessor(this.nbModelP,p2);
+
+		// Create Streams
+		this.trainStream = builder.createInputShuffleStream(nbTrainerP,nbDistributorP);
+		this.trainEndStream = builder.createInputAllStream(nbTrainerP,nbDistributorP);
+		if (leastLoadedTesting)
+			this.testStream = builder.createInputKeyStream(nbModelP,nbDistributorP);
+		else
+			this.testStream = builder.createInputShuffleStream(nbModelP,nbDistributorP);
+		this.resultStream = builder.createStream(this.nbModelP);
+
+		// aggregation tree, a level of width w has ceil(w/fanIn) NBAggregator, until the root
+		this.nbAggregatorP = new ArrayList<NBAggregator>();
+		int width = n;
+		Processor child = this.nbTrainerP;
+		NBAggregator root = null;
+		while (root==null)
+		{
+			int nextWidth = (width+fanIn-1)/fanIn;
+			NBAggregator level = new NBAggregator.Builder().dataset(dataset).fanIn(fanIn)
+					.flushCount(Math.min(fanIn, width)).root(nextWidth==1).numTrainers(n).build();
+			builder.addProcessor(level,nextWidth);
+			//child--merged increment, key=childId/fanIn-->level
+			Stream partialStream = builder.createInputKeyStream(level,child);
+			if (child==this.nbTrainerP)
+				this.nbTrainerP.setPartialStream(partialStream);
+			else
+				((NBAggregator)child).setPartialStream(partialStream);
+			this.nbAggregatorP.add(level);
+			logger.info("aggregation level {}: {} NBAggregator",this.nbAggregatorP.size(),nextWidth);
+
+			if (nextWidth==1)
+				root = level;
+			width = nextWidth;
+			child = level;
+		}
+		this.attStatStream = builder.createInputAllStream(nbModelP,root);
+
+		this.nbDistributorP.setTrainStream(trainStream);
+		this.nbDistributorP.setTrainEndStream(trainEndStream);
+		this.nbDistributorP.setTestStream(testStream);
+		root.setAttStatStream(attStatStream);
+		this.nbModelP.setResultStream(resultStream);
+
+		if (isFlowControlled())
+		{
+			//nbTrainer--credits-->nbDistributor
+			this.trainCreditStream = builder.createInputAllStream(nbDistributorP,nbTrainerP);
+			this.nbTrainerP.setCreditStream(trainCreditStream);
+		}
+		if (isFlowControlled() || leastLoadedTesting)
+		{
+			//nbModel--credits, acknowledgements-->nbDistributor
+			this.testCreditStream = builder.createInputAllStream(nbDistributorP,nbModelP);
+			this.nbModelP.setCreditStream(testCreditStream);
+		}
+
+		logger.info("Sucessfully initializing HorizontalNaiveBayes classifier topology.");
+
+		builder.build();
+	}
+
+	@Override
+	public Processor getInputProcessor() {
+		return this.nbDistributorP;
+	}
+
+	@Override
+	public Stream getResultStream() {
+		return this.resultStream;
+	}
+}
@@ -0,0 +1,228 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+import com.yahoo.labs.samoa.core.Processor;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+import com.yahoo.labs.samoa.topology.Stream;
+
+/**
+ * A level of the tree aggregating the partial statistics of the NBTrainer's
+ * (see HorizontalNaiveBayes).
+ *
+ * An inner NBAggregator merges the NBPartialStatEvent of its children, and sends
+ * the merged increment to the next level after every flushCount received events.
+ * The root NBAggregator (one replica) merges the increments into the statistics
+ * of all the instances trained, and updates the NBModels with all the observers
+ * (NBAttStatEvent of all the attributes) after every flushCount received events.
+ * An event with the last statistics of an NBTrainer is sent on at once, and the root sends
+ * the last update when it has received the last statistics of all the numTrainers NBTrainer's.
+ * The end of the stream does not depend on which replica a key is grouped to.
+ * @author hl
+ *
+ */
+public class NBAggregator implements Processor {
+
+	private static final long serialVersionUID = -3045581190736725183L;
+	private static Logger logger = LoggerFactory.getLogger(NBAggregator.class);
+
+	private int processorId;
+
+	private Instances dataset; //only use in builder
+	private InstancesHeader header; //attribute information
+
+	// number of children of an NBAggregator, the key of a flush is processorId/fanIn
+	private int fanIn;
+	// flush after receiving flushCount partial events
+	private int flushCount;
+	// the root updates NBModel with the statistics of all the instances
+	private boolean root;
+	// number of NBTrainer's, the root sends the last update when all of them have finished
+	private int numTrainers;
+
+	private Stream partialStream; //to the next level, only used by an inner NBAggregator
+	private Stream attStatStream; //to NBModel, only used by the root
+
+	// merged statistics, of the events received since the previous flush if inner,
+	// of all the events if root. null before the first event
+	private AttributeClassObserver[] attributeObservers;
+	private long nInstances=0;
+	private int nReceived=0; //events received since the previous flush
+	private int nFinished=0; //finished NBTrainer's, since the previous flush if inner, all if root
+	private long nUpdates=0; //updates sent by the root, the sequence of NBAttStatEvent
+
+	//private constructor based on Builder pattern
+	private NBAggregator(Builder builder){
+		this.dataset = builder.dataset;
+		this.header = new InstancesHeader(this.dataset);
+		this.fanIn = builder.fanIn;
+		this.flushCount = builder.flushCount;
+		this.root = builder.root;
+		this.numTrainers = builder.numTrainers;
+	}
+
+	@Override
+	public boolean process(ContentEvent event) {
+		if (!(event instanceof NBPartialStatEvent))
+			return false;
+
+		NBPartialStatEvent partial = (NBPartialStatEvent)event;
+		if (partial.getAttributeObservers()!=null)
+			merge(partial.getAttributeObservers());
+		this.nInstances += partial.getNumInstances();
+		this.nReceived++;
+		this.nFinished += partial.getNumFinished();
+
+		if (this.root)
+		{
+			boolean isLast = partial.getNumFinished()>0 && this.nFinished>=this.numTrainers;
+			if (this.nReceived >= this.flushCount || isLast)
+				flush(isLast);
+		}
+		else if (this.nReceived >= this.flushCount || partial.getNumFinished()>0)
+		{
+			//the last statistics of an NBTrainer are sent on at once
+			flush(false);
+		}
+		return true;
+	}
+
+	/**
+	 * Merge the observers of an event into the merged statistics,
+	 * the observers of the first event are kept without copy
+	 */
+	private void merge(AttributeClassObserver[] observers)
+	{
+		if (this.attributeObservers==null)
+		{
+			this.attributeObservers = observers;
+			return;
+		}
+		for (int i=0;i<observers.length;i++)
+		{
+			if (observers[i]==null)
+				continue;
+			if (this.attributeObservers[i]==null)
+				this.attributeObservers[i] = observers[i];
+			else
+				this.attributeObservers[i].merge(observers[i]);
+		}
+	}
+
+	private void flush(boolean isLast)
+	{
+		this.nReceived = 0;
+		if (!this.root)
+		{
+			if (this.attributeObservers==null && this.nFinished==0)
+				return;
+			NBPartialStatEvent partial = new NBPartialStatEvent(this.processorId/this.fanIn,
+					this.nInstances, this.attributeObservers);
+			partial.setNumFinished(this.nFinished);
+			this.partialStream.put(partial);
+			this.attributeObservers = null;
+			this.nInstances = 0;
+			this.nFinished = 0;
+			return;
+		}
+		if (this.attributeObservers==null)
+		{
+			if (isLast)
+				logger.info("NBAggregator(root) finished, no instance trained");
+			return;
+		}
+
+		//the observers are copied, NBModel must not see them change while the next increments are merged
+		AttributeClassObserver[] observers = new AttributeClassObserver[this.attributeObservers.length];
+		for (int i=0;i<observers.length;i++)
+		{
+			if (this.attributeObservers[i]!=null)
+				observers[i] = this.attributeObservers[i].copy();
+		}
+		NBAttStatEvent update = new NBAttStatEvent(observers, 0, this.header.numAttributes()-1, 0);
+		update.setProgress(0, ++this.nUpdates, this.nInstances);
+		update.setLast(isLast);
+		this.attStatStream.put(update);
+
+		if (isLast)
+			logger.info("NBAggregator(root) finished, nTrain={}",this.nInstances);
+	}
+
+	@Override
+	public void onCreate(int id) {
+		this.processorId = id;
+		logger.info("NBAggregator created, id={}, root={}, flushCount={}",id,this.root,this.flushCount);
+	}
+
+	@Override
+	public Processor newProcessor(Processor p) {
+		NBAggregator pp = (NBAggregator)p;
+		NBAggregator newP = new NBAggregator.Builder(pp).build();
+		newP.partialStream = pp.partialStream;
+		newP.attStatStream = pp.attStatStream;
+		return newP;
+	}
+
+	public void setPartialStream(Stream partialStream) {
+		this.partialStream = partialStream;
+	}
+
+	public void setAttStatStream(Stream attStatStream) {
+		this.attStatStream = attStatStream;
+	}
+
+	static class Builder
+	{
+		private Instances dataset; //store the attribute information
+		private int fanIn=4;
+		private int flushCount=4;
+		private boolean root=false;
+		private int numTrainers=1;
+
+		public Builder()
+		{}
+
+		public Builder(NBAggregator p)
+		{
+			this.dataset = p.dataset;
+			this.fanIn = p.fanIn;
+			this.flushCount = p.flushCount;
+			this.root = p.root;
+			this.numTrainers = p.numTrainers;
+		}
+
+		public Builder dataset(Instances val){
+			this.dataset = val;
+            return this;
+		}
+
+		public Builder fanIn(int val){
+			this.fanIn = val;
+            return this;
+		}
+
+		public Builder flushCount(int val){
+			this.flushCount = val;
+            return this;
+		}
+
+		public Builder root(boolean val){
+			this.root = val;
+            return this;
+		}
+
+		public Builder numTrainers(int val){
+			this.numTrainers = val;
+            return this;
+		}
+
+		NBAggregator build()
+		{
+			return new NBAggregator(this);
+		}
+	}
+}
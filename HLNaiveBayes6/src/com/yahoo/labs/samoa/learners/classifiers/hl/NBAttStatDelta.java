@@ -0,0 +1,206 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.DenseNominalAttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.GaussianNumericAttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.NominalAttributeClassObserver;
+
+/**
+ * Cells of the attribute observers iMin~iMax changed since the previous update,
+ * sent in NBAttStatEvent instead of the whole observers.
+ *   nominal cell (i,v,j): weight of Xi=v and Cj
+ *   numeric cell (i,j):   state of the gaussian estimator of Cj, see GaussianNumericAttributeClassObserver.STATE_SIZE
+ *   nominal attribute i:  total and missing weight
+ * The cells carry the new values, not the differences, so applying a delta
+ * twice is harmless. The deltas of a range must be applied in the order they were sent:
+ * an older delta applied after a newer one restores the stale values of its cells.
+ * NBModelProcessor requires the stream to deliver the events of one sender in order (FIFO per channel),
+ * with coalesceUpdates it also skips an update whose sequence is not after the last one of its partition.
+ *
+ * @author hl
+ */
+final class NBAttStatDelta implements Serializable {
+
+	private static final long serialVersionUID = -2035467318872560415L;
+
+	private final int iMin;
+	private final int iMax;
+
+	private int nNominal = 0;
+	private int[] nominalAtt = new int[16];
+	private int[] nominalValue = new int[16];
+	private int[] nominalClass = new int[16];
+	private double[] nominalWeight = new double[16];
+
+	private int nGaussian = 0;
+	private int[] gaussianAtt = new int[4];
+	private int[] gaussianClass = new int[4];
+	private double[] gaussianState = new double[4*GaussianNumericAttributeClassObserver.STATE_SIZE];
+
+	// total and missing weight of nominal attribute i at (i-iMin)*2, NaN if not sent
+	private final double[] observedWeights;
+
+	NBAttStatDelta(int iMin, int iMax)
+	{
+		this.iMin = iMin;
+		this.iMax = iMax;
+		this.observedWeights = new double[(iMax-iMin+1)*2];
+		Arrays.fill(this.observedWeights, Double.NaN);
+	}
+
+	/**
+	 * Write this delta as packed arrays, read by readFrom
+	 */
+	void writeTo(ObjectOutput out) throws IOException
+	{
+		out.writeInt(this.iMin);
+		out.writeInt(this.iMax);
+		out.writeInt(this.nNominal);
+		NBObserverCodec.writeInts(out, this.nominalAtt, 0, this.nNominal);
+		NBObserverCodec.writeInts(out, this.nominalValue, 0, this.nNominal);
+		NBObserverCodec.writeInts(out, this.nominalClass, 0, this.nNominal);
+		NBObserverCodec.writeDoubles(out, this.nominalWeight, 0, this.nNominal);
+		out.writeInt(this.nGaussian);
+		NBObserverCodec.writeInts(out, this.gaussianAtt, 0, this.nGaussian);
+		NBObserverCodec.writeInts(out, this.gaussianClass, 0, this.nGaussian);
+		NBObserverCodec.writeDoubles(out, this.gaussianState, 0, this.nGaussian*GaussianNumericAttributeClassObserver.STATE_SIZE);
+		NBObserverCodec.writeDoubles(out, this.observedWeights, 0, this.observedWeights.length);
+	}
+	
+	static NBAttStatDelta readFrom(ObjectInput in) throws IOException
+	{
+		NBAttStatDelta delta = new NBAttStatDelta(in.readInt(), in.readInt());
+		delta.nNominal = in.readInt();
+		delta.nominalAtt = NBObserverCodec.readInts(in, delta.nNominal);
+		delta.nominalValue = NBObserverCodec.readInts(in, delta.nNominal);
+		delta.nominalClass = NBObserverCodec.readInts(in, delta.nNominal);
+		delta.nominalWeight = NBObserverCodec.readDoubles(in, delta.nNominal);
+		delta.nGaussian = in.readInt();
+		delta.gaussianAtt = NBObserverCodec.readInts(in, delta.nGaussian);
+		delta.gaussianClass = NBObserverCodec.readInts(in, delta.nGaussian);
+		delta.gaussianState = NBObserverCodec.readDoubles(in, delta.nGaussian*GaussianNumericAttributeClassObserver.STATE_SIZE);
+		double[] observedWeights = NBObserverCodec.readDoubles(in, delta.observedWeights.length);
+		System.arraycopy(observedWeights, 0, delta.observedWeights, 0, observedWeights.length);
+		return delta;
+	}
+	
+	/**
+	 * Add the current value of cell (i,v,j) of a nominal observer
+	 */
+	void addNominal(int i, int v, int j, double weight)
+	{
+		if (this.nNominal==this.nominalAtt.length)
+		{
+			int capacity = Math.max(16, this.nNominal*2);
+			this.nominalAtt = Arrays.copyOf(this.nominalAtt, capacity);
+			this.nominalValue = Arrays.copyOf(this.nominalValue, capacity);
+			this.nominalClass = Arrays.copyOf(this.nominalClass, capacity);
+			this.nominalWeight = Arrays.copyOf(this.nominalWeight, capacity);
+		}
+		this.nominalAtt[this.nNominal] = i;
+		this.nominalValue[this.nNominal] = v;
+		this.nominalClass[this.nNominal] = j;
+		this.nominalWeight[this.nNominal] = weight;
+		this.nNominal++;
+	}
+
+	/**
+	 * Add the current state of the estimator of class j of a gaussian observer
+	 */
+	void addGaussian(int i, int j, GaussianNumericAttributeClassObserver obs)
+	{
+		int size = GaussianNumericAttributeClassObserver.STATE_SIZE;
+		if (this.nGaussian==this.gaussianAtt.length)
+		{
+			int capacity = Math.max(4, this.nGaussian*2);
+			this.gaussianAtt = Arrays.copyOf(this.gaussianAtt, capacity);
+			this.gaussianClass = Arrays.copyOf(this.gaussianClass, capacity);
+			this.gaussianState = Arrays.copyOf(this.gaussianState, capacity*size);
+		}
+		if (!obs.getEstimatorState(j, this.gaussianState, this.nGaussian*size))
+			return; //class j not observed, nothing changed
+		this.gaussianAtt[this.nGaussian] = i;
+		this.gaussianClass[this.nGaussian] = j;
+		this.nGaussian++;
+	}
+
+	/**
+	 * Add the total and missing weight of nominal attribute i
+	 */
+	void setObservedWeights(int i, double totalWeight, double missingWeight)
+	{
+		this.observedWeights[(i-this.iMin)*2] = totalWeight;
+		this.observedWeights[(i-this.iMin)*2+1] = missingWeight;
+	}
+
+	/**
+	 * Number of changed cells
+	 */
+	int size()
+	{
+		return this.nNominal+this.nGaussian;
+	}
+
+	/**
+	 * Write the cells into the observers.
+	 * @param observers observers of attributes iMin~iMax, at i-iMin
+	 * @return observers changed by this delta at i-iMin, null if attribute i is not changed
+	 */
+	AttributeClassObserver[] applyTo(AttributeClassObserver[] observers)
+	{
+		AttributeClassObserver[] changed = new AttributeClassObserver[this.iMax-this.iMin+1];
+		for (int n=0;n<this.nNominal;n++)
+		{
+			int ii = this.nominalAtt[n]-this.iMin;
+			AttributeClassObserver obs = observers[ii];
+			if (obs instanceof NominalAttributeClassObserver)
+			{
+				((NominalAttributeClassObserver)obs).setWeight(this.nominalValue[n], this.nominalClass[n], this.nominalWeight[n]);
+			}
+			else if (obs instanceof DenseNominalAttributeClassObserver)
+			{
+				((DenseNominalAttributeClassObserver)obs).setWeight(this.nominalValue[n], this.nominalClass[n], this.nominalWeight[n]);
+			}
+			else
+			{
+				continue; //unknown observer, wait for the next full update
+			}
+			changed[ii] = obs;
+		}
+
+		int size = GaussianNumericAttributeClassObserver.STATE_SIZE;
+		for (int n=0;n<this.nGaussian;n++)
+		{
+			int ii = this.gaussianAtt[n]-this.iMin;
+			AttributeClassObserver obs = observers[ii];
+			if (!(obs instanceof GaussianNumericAttributeClassObserver))
+				continue;
+			((GaussianNumericAttributeClassObserver)obs).setEstimatorState(this.gaussianClass[n], this.gaussianState, n*size);
+			changed[ii] = obs;
+		}
+
+		for (int ii=0;ii<changed.length;ii++)
+		{
+			double totalWeight = this.observedWeights[ii*2];
+			if (Double.isNaN(totalWeight))
+				continue;
+			double missingWeight = this.observedWeights[ii*2+1];
+			AttributeClassObserver obs = observers[ii];
+			if (obs instanceof NominalAttributeClassObserver)
+			{
+				((NominalAttributeClassObserver)obs).setObservedWeights(totalWeight, missingWeight);
+			}
+			else if (obs instanceof DenseNominalAttributeClassObserver)
+			{
+				((DenseNominalAttributeClassObserver)obs).setObservedWeights(totalWeight, missingWeight);
+			}
+		}
+		return changed;
+	}
+}
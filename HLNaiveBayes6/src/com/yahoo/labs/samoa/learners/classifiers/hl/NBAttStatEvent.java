@@ -1,5 +1,10 @@
 package com.yahoo.labs.samoa.learners.classifiers.hl;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 import com.yahoo.labs.samoa.core.ContentEvent;
 import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
 
@@ -9,10 +14,24 @@ import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.Attr
  * and i=iMin..iMax
  * this information is sent from NBAttributeStat after training, and 
  * sent to NBModel to update it
+ * 
+ * A delta event carries only the cells changed since the previous update
+ * (see NBAttStatDelta), getAttributeObservers() is null then.
+ * 
+ * The epoch is the epoch of the NBAttributePartitioning the range belongs to,
+ * NBModel ignores the update of an attribute owned by a partition of a later epoch.
+ * 
+ * The sequence numbers the updates of a partition in its epoch, and nTrained is
+ * the number of instances trained into the partition in its epoch when the update was sent,
+ * NBModel skips superseded updates and bounds its staleness with them (see NBUpdateCoalescer).
+ * 
+ * Serialized with its own binary format (see NBObserverCodec) instead of the
+ * Java serialization of the observer objects:
+ *   version, isLast, key, iMin, iMax, epoch, partition, sequence, nTrained, isDelta, then the delta or the observers
  * @author hl
  *
  */
-public class NBAttStatEvent implements ContentEvent {
+public class NBAttStatEvent implements ContentEvent, Externalizable {
 
 	//private static final long serialVersionUID = ???;
 
@@ -21,20 +40,38 @@ public class NBAttStatEvent implements ContentEvent {
 	 */
 	private static final long serialVersionUID = 3255308513313788188L;
 	
+	// version of the binary format written by writeExternal
+	private static final byte FORMAT_VERSION = 4;
+	
 	private boolean isLast = false;
 	private long key = 0;
 	private AttributeClassObserver[] attributeObservers;
 	private int iMin; //range of attributes' index
 	private int iMax;
+	private NBAttStatDelta delta; //null for a full update
+	private int epoch; //see NBAttributePartitioning.getEpoch
+	private int partition = 0; //see NBAttributePartition.getPartition
+	private long sequence = 0; //number of the update of the partition in its epoch
+	private long nTrained = 0; //instances trained into the partition in its epoch
 	
-	NBAttStatEvent()
+	// public for Externalizable
+	public NBAttStatEvent()
 	{}
 	
-	NBAttStatEvent(AttributeClassObserver[] attributeObservers,int iMin,int iMax)
+	NBAttStatEvent(AttributeClassObserver[] attributeObservers,int iMin,int iMax,int epoch)
 	{
 		this.attributeObservers= attributeObservers;
 		this.iMin=iMin;
 		this.iMax=iMax;
+		this.epoch=epoch;
+	}
+	
+	NBAttStatEvent(NBAttStatDelta delta,int iMin,int iMax,int epoch)
+	{
+		this.delta = delta;
+		this.iMin=iMin;
+		this.iMax=iMax;
+		this.epoch=epoch;
 	}
 	
 	@Override
@@ -56,6 +93,65 @@ public class NBAttStatEvent implements ContentEvent {
 		this.isLast = isLast;
 	}
 
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeByte(FORMAT_VERSION);
+		out.writeBoolean(this.isLast);
+		out.writeLong(this.key);
+		out.writeInt(this.iMin);
+		out.writeInt(this.iMax);
+		out.writeInt(this.epoch);
+		out.writeInt(this.partition);
+		out.writeLong(this.sequence);
+		out.writeLong(this.nTrained);
+		out.writeBoolean(this.delta!=null);
+		if (this.delta!=null)
+		{
+			this.delta.writeTo(out);
+			return;
+		}
+		
+		if (this.attributeObservers==null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(this.attributeObservers.length);
+		for (int i=0;i<this.attributeObservers.length;i++)
+		{
+			NBObserverCodec.write(out, this.attributeObservers[i]);
+		}
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		byte version = in.readByte();
+		if (version!=FORMAT_VERSION)
+			throw new IOException("unknown NBAttStatEvent format version "+version);
+		this.isLast = in.readBoolean();
+		this.key = in.readLong();
+		this.iMin = in.readInt();
+		this.iMax = in.readInt();
+		this.epoch = in.readInt();
+		this.partition = in.readInt();
+		this.sequence = in.readLong();
+		this.nTrained = in.readLong();
+		if (in.readBoolean())
+		{
+			this.delta = NBAttStatDelta.readFrom(in);
+			return;
+		}
+		
+		int n = in.readInt();
+		if (n<0)
+			return;
+		this.attributeObservers = new AttributeClassObserver[n];
+		for (int i=0;i<n;i++)
+		{
+			this.attributeObservers[i] = NBObserverCodec.read(in);
+		}
+	}
+	
 	public AttributeClassObserver[] getAttributeObservers()
 	{
 		return this.attributeObservers;
@@ -65,6 +161,43 @@ public class NBAttStatEvent implements ContentEvent {
 		this.attributeObservers = attributeObservers;
 	}
 	
+	public boolean isDelta()
+	{
+		return this.delta!=null;
+	}
+	
+	NBAttStatDelta getDelta()
+	{
+		return this.delta;
+	}
+	
+	public int getEpoch()
+	{
+		return this.epoch;
+	}
+	
+	public int getPartition()
+	{
+		return this.partition;
+	}
+	
+	public long getSequence()
+	{
+		return this.sequence;
+	}
+	
+	public long getNumTrained()
+	{
+		return this.nTrained;
+	}
+	
+	void setProgress(int partition, long sequence, long nTrained)
+	{
+		this.partition = partition;
+		this.sequence = sequence;
+		this.nTrained = nTrained;
+	}
+	
 	public int getIMin()
 	{
 		return this.iMin;
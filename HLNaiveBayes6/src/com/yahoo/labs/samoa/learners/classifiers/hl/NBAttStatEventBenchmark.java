@@ -0,0 +1,149 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.DenseNominalAttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.GaussianNumericAttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.NominalAttributeClassObserver;
+
+/**
+ * Round-trip benchmark of NBAttStatEvent: bytes and time to write and read a full update,
+ * with its binary format (NBObserverCodec) and with the Java serialization of
+ * the observer objects it replaced. Also checks that the read observers give the
+ * same probabilities as the written ones, exits with status 1 if not.
+ *
+ * Usage: java com.yahoo.labs.samoa.learners.classifiers.hl.NBAttStatEventBenchmark
+ *            [numAttributes] [numValues] [numClasses] [rounds]
+ * a third of the attributes are nominal, a third dense nominal, a third numeric
+ * @author hl
+ *
+ */
+public final class NBAttStatEventBenchmark {
+
+	private NBAttStatEventBenchmark()
+	{}
+
+	public static void main(String[] args) throws Exception
+	{
+		int A = args.length>0 ? Integer.parseInt(args[0]) : 300;
+		int V = args.length>1 ? Integer.parseInt(args[1]) : 10;
+		int K = args.length>2 ? Integer.parseInt(args[2]) : 5;
+		int rounds = args.length>3 ? Integer.parseInt(args[3]) : 200;
+
+		AttributeClassObserver[] observers = newObservers(A, V, K, new Random(1));
+		NBAttStatEvent event = new NBAttStatEvent(observers, 0, A-1, 0);
+
+		// warm up, then measure
+		for (int pass=0;pass<2;pass++)
+		{
+			long codecBytes = 0, javaBytes = 0;
+			long codecNanos = 0, javaNanos = 0;
+			for (int r=0;r<rounds;r++)
+			{
+				long start = System.nanoTime();
+				byte[] b = write(event);
+				read(b);
+				codecNanos += System.nanoTime()-start;
+				codecBytes = b.length;
+
+				start = System.nanoTime();
+				b = write(observers);
+				read(b);
+				javaNanos += System.nanoTime()-start;
+				javaBytes = b.length;
+			}
+			if (pass==1)
+			{
+				System.out.println("A="+A+" V="+V+" K="+K+", per full update round trip:");
+				System.out.println("  NBAttStatEvent format  "+codecBytes+" bytes, "+codecNanos/rounds/1000+" us");
+				System.out.println("  Java serialization     "+javaBytes+" bytes, "+javaNanos/rounds/1000+" us");
+			}
+		}
+
+		NBAttStatEvent copy = (NBAttStatEvent)read(write(event));
+		double diff = maxDifference(observers, copy.getAttributeObservers(), V, K);
+		System.out.println("  max difference of the read probabilities "+diff);
+		if (diff!=0.0)
+			System.exit(1);
+	}
+
+	private static AttributeClassObserver[] newObservers(int A, int V, int K, Random random)
+	{
+		AttributeClassObserver[] observers = new AttributeClassObserver[A];
+		for (int i=0;i<A;i++)
+		{
+			switch (i%3)
+			{
+			case 0:
+				observers[i] = new NominalAttributeClassObserver();
+				break;
+			case 1:
+				observers[i] = new DenseNominalAttributeClassObserver(V, K);
+				break;
+			default:
+				observers[i] = new GaussianNumericAttributeClassObserver();
+			}
+		}
+		for (int n=0;n<1000;n++)
+		{
+			int c = random.nextInt(K);
+			for (int i=0;i<A;i++)
+			{
+				double value = i%3==2 ? random.nextGaussian()+c : random.nextInt(V);
+				observers[i].observeAttributeClass(value, c, 1.0);
+			}
+		}
+		return observers;
+	}
+
+	private static byte[] write(Object o) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(o);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object read(byte[] b) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(b));
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static double maxDifference(AttributeClassObserver[] x, AttributeClassObserver[] y, int V, int K)
+	{
+		double max = 0.0;
+		for (int i=0;i<x.length;i++)
+		{
+			for (int c=0;c<K;c++)
+			{
+				if (i%3==2)
+				{
+					for (double value=-3;value<K+3;value+=0.25)
+					{
+						max = Math.max(max, Math.abs(x[i].probabilityOfAttributeValueGivenClass(value, c)
+								- y[i].probabilityOfAttributeValueGivenClass(value, c)));
+					}
+					continue;
+				}
+				for (int v=0;v<V;v++)
+				{
+					max = Math.max(max, Math.abs(x[i].probabilityOfAttributeValueGivenClass(v, c)
+							- y[i].probabilityOfAttributeValueGivenClass(v, c)));
+				}
+			}
+		}
+		return max;
+	}
+}
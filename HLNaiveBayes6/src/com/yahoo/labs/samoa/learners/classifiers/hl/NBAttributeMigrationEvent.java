@@ -0,0 +1,92 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+
+/**
+ * Observers of the attributes iMin~iMax moved to another partition by a rebalance,
+ *   attributeObservers[i-iMin], null if the attribute was not trained
+ * sent from the NBAttributeStat of the previous partition to NBDistributor,
+ * which forwards it through trainStream to the new partition, keyed as its slices.
+ * The new partition has trained these attributes since the rebalance,
+ * the observers are merged into its own.
+ * @author hl
+ *
+ */
+public class NBAttributeMigrationEvent implements ContentEvent {
+
+	private static final long serialVersionUID = 2387016637418004518L;
+
+	private boolean isLast = false;
+	private int partition; //the new partition
+	private int routingKey; //key of the replica of the partition, see NBPartitionRouter
+	private int epoch; //epoch of the rebalance
+	private int iMin; //range of attributes' index
+	private int iMax;
+	private AttributeClassObserver[] attributeObservers;
+
+	NBAttributeMigrationEvent()
+	{}
+
+	NBAttributeMigrationEvent(int partition, int epoch, int iMin, int iMax, AttributeClassObserver[] attributeObservers)
+	{
+		this.partition = partition;
+		this.routingKey = partition;
+		this.epoch = epoch;
+		this.iMin = iMin;
+		this.iMax = iMax;
+		this.attributeObservers = attributeObservers;
+	}
+
+	@Override
+	public String getKey() {
+		return Integer.toString(this.routingKey);
+	}
+
+	@Override
+	public void setKey(String key) {
+		this.routingKey = Integer.parseInt(key);
+	}
+
+	/**
+	 * Key of the replica training the partition, the partition by default
+	 */
+	void setRoutingKey(int routingKey)
+	{
+		this.routingKey = routingKey;
+	}
+
+	@Override
+	public boolean isLastEvent() {
+		return isLast;
+	}
+
+	public void setLast(boolean isLast) {
+		this.isLast = isLast;
+	}
+
+	public int getPartition()
+	{
+		return this.partition;
+	}
+
+	public int getEpoch()
+	{
+		return this.epoch;
+	}
+
+	public int getIMin()
+	{
+		return this.iMin;
+	}
+
+	public int getIMax()
+	{
+		return this.iMax;
+	}
+
+	public AttributeClassObserver[] getAttributeObservers()
+	{
+		return this.attributeObservers;
+	}
+}
@@ -0,0 +1,1062 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.DenseNominalAttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.GaussianNumericAttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.NominalAttributeClassObserver;
+import com.yahoo.labs.samoa.moa.core.DoubleVector;
+import com.yahoo.labs.samoa.moa.core.Utils;
+
+/**
+ * Statistics P(Xi|Cj) of the attributes iMin~iMax, trained by NBAttributeStat
+ * and sent to NBModel in NBAttStatEvent.
+ * A NBAttributeStat trains its own partition, or with projected training
+ * the partitions of the slices it receives (see NBAttributeSliceEvent).
+ * The ranges of the partitions are given by NBAttributePartitioning.
+ * A rebalance replaces a partition by repartition, the attributes it gains are
+ * pending until their observers are received from their previous partition.
+ * When the partition is sent to NBModel, and which attributes, is given by NBUpdatePolicy.
+ * @author hl
+ *
+ */
+final class NBAttributePartition implements Serializable {
+
+	private static final long serialVersionUID = -5526127081359567045L;
+	private static Logger logger = LoggerFactory.getLogger(NBAttributePartition.class);
+
+	private final int partition; //id of the partition
+	private final int epoch; //epoch of the NBAttributePartitioning of the range
+
+	// range of attribute index, iMin<=i<=iMax
+	private final int iMin;
+	private final int iMax;
+	private final int iRange;
+
+	private final InstancesHeader header;
+	private final int K; //number of classes of dataset
+	private final boolean denseNominalObserver;
+
+	/**
+	 * Store P(Xi|Cj) for attributes from iMin to iMax, at i-iMin
+	 */
+	private final AttributeClassObserver[] attributeObservers;
+
+	private int nTrainedInstancesBeforeUpdate=0; //num of trained instance in current training cycle
+	private long nTrained=0; //num of trained instance
+
+	// when and what is sent to NBModel
+	private final NBUpdatePolicy policy;
+	private int nUpdates=0; //num of updates sent
+	private long sequence=0; //sequence of the last update sent, not reset by a migration
+
+	// cells changed since the previous update, only tracked if fullUpdatePeriod>1 or adaptive
+	// cell of attribute ii: nominal v*nClasses(ii)+j, numeric j
+	private boolean[][] dirty;
+	private int[] dirtyAtt;
+	private int[] dirtyCell;
+	private int nDirty=0;
+	private int nCells=0; //total number of cells
+	private int[] nDirtyOfAttribute;
+
+	// only used by the adaptive schedule:
+	// state of the changed cells at the previous update, see getCellState
+	private static final int CELL_STATE_SIZE = 3;
+	private double[] dirtyOld;
+	// weight of class j of nominal attribute ii at the previous update, at classOffset[ii]+j (-1 for numeric)
+	private int[] classOffset;
+	private double[] sentClassWeight;
+	// nTrained and time when attribute ii was sent
+	private long[] sentAtInstance;
+	private long[] sentAtNanos;
+	private int nTrainedAtCheck=0; //nTrainedInstancesBeforeUpdate at the previous divergence check
+	private boolean[] sendAttributes; //attributes of the next update chosen by isUpdateDue, null = all
+	private final double[] gaussianState = new double[GaussianNumericAttributeClassObserver.STATE_SIZE];
+
+	// only set while trainOnInstances runs: the cells changed by chunk c are recorded
+	// in chunkLogs[c], the chunks of attributes ii/chunkSize
+	private transient DirtyLog[] chunkLogs;
+	private int chunkSize;
+
+	// attributes gained by a rebalance, waiting for the observers of their previous partition
+	private final boolean[] pending;
+	private int nPending=0;
+
+	// training time since the previous load event
+	private long trainNanos=0;
+	private long nTrainedSinceLoad=0;
+
+	NBAttributePartition(int partition, int epoch, int iMin, int iMax, InstancesHeader header,
+			boolean denseNominalObserver, NBUpdatePolicy policy)
+	{
+		this.partition = partition;
+		this.epoch = epoch;
+		this.iMin = iMin;
+		this.iMax = iMax;
+		this.iRange = iMax-iMin+1;
+		this.header = header;
+		this.K = header.numClasses();
+		this.denseNominalObserver = denseNominalObserver;
+		this.policy = policy;
+
+		this.pending = new boolean[iRange];
+		this.attributeObservers = new AttributeClassObserver[iRange];
+		for (int i=0;i<iRange;i++)
+		{
+			Attribute att = this.header.attribute(this.iMin+i);
+			AttributeClassObserver obs=
+					att.isNominal() ? newNominalClassObserver(this.iMin+i, att)
+	                        : newNumericClassObserver();
+	       this.attributeObservers[i]=obs;
+		}
+
+		if (this.policy.getFullUpdatePeriod()>1 || this.policy.isAdaptive())
+		{
+			this.dirty = new boolean[iRange][];
+			for (int i=0;i<iRange;i++)
+			{
+				Attribute att = this.header.attribute(this.iMin+i);
+				int n = att.isNominal() ? att.numValues()*nClassesOfAttribute(this.iMin+i) : this.K;
+				this.dirty[i] = new boolean[n];
+				this.nCells += n;
+			}
+			this.dirtyAtt = new int[64];
+			this.dirtyCell = new int[64];
+			this.nDirtyOfAttribute = new int[iRange];
+		}
+
+		if (this.policy.isAdaptive())
+		{
+			this.dirtyOld = new double[64*CELL_STATE_SIZE];
+			this.classOffset = new int[iRange];
+			int nClassWeights = 0;
+			for (int i=0;i<iRange;i++)
+			{
+				if (this.header.attribute(this.iMin+i).isNominal())
+				{
+					this.classOffset[i] = nClassWeights;
+					nClassWeights += nClassesOfAttribute(this.iMin+i);
+				}
+				else
+				{
+					this.classOffset[i] = -1;
+				}
+			}
+			this.sentClassWeight = new double[nClassWeights];
+			this.sentAtInstance = new long[iRange];
+			this.sentAtNanos = new long[iRange];
+			Arrays.fill(this.sentAtNanos, System.nanoTime());
+		}
+	}
+
+	int getPartition()
+	{
+		return this.partition;
+	}
+
+	int getIMin()
+	{
+		return this.iMin;
+	}
+
+	int getIMax()
+	{
+		return this.iMax;
+	}
+
+	int getEpoch()
+	{
+		return this.epoch;
+	}
+
+	int getNumTrainedBeforeUpdate()
+	{
+		return this.nTrainedInstancesBeforeUpdate;
+	}
+
+	/**
+	 * Partition of the range iMin~iMax of the next epoch.
+	 * Keeps the observers of the attributes of both ranges, the other attributes are pending.
+	 */
+	NBAttributePartition repartition(int epoch, int iMin, int iMax)
+	{
+		NBAttributePartition next = new NBAttributePartition(this.partition, epoch, iMin, iMax,
+				this.header, this.denseNominalObserver, this.policy);
+		for (int i=iMin;i<=iMax;i++)
+		{
+			if (this.iMin<=i && i<=this.iMax)
+			{
+				next.attributeObservers[i-iMin] = this.attributeObservers[i-this.iMin];
+			}
+			else
+			{
+				next.pending[i-iMin] = true;
+				next.nPending++;
+			}
+		}
+		next.nTrainedInstancesBeforeUpdate = this.nTrainedInstancesBeforeUpdate;
+		return next;
+	}
+
+	/**
+	 * Observers of the attributes from~to, not copied: this partition must be
+	 * replaced by its repartition without these attributes
+	 */
+	AttributeClassObserver[] getObservers(int from, int to)
+	{
+		AttributeClassObserver[] observers = new AttributeClassObserver[to-from+1];
+		System.arraycopy(this.attributeObservers, from-this.iMin, observers, 0, observers.length);
+		return observers;
+	}
+
+	/**
+	 * Merge the observers of the attributes received from their previous partition
+	 * into the observers trained since the rebalance.
+	 * The next update is a full update.
+	 */
+	void mergeMigration(NBAttributeMigrationEvent migration)
+	{
+		if (migration.getEpoch()!=this.epoch)
+		{
+			logger.error("partition {} of epoch {} ignores a migration of epoch {}",
+					this.partition,this.epoch,migration.getEpoch());
+			return;
+		}
+		AttributeClassObserver[] observers = migration.getAttributeObservers();
+		for (int i=migration.getIMin();i<=migration.getIMax();i++)
+		{
+			int ii = i-this.iMin;
+			if (ii<0 || ii>=this.iRange || !this.pending[ii])
+			{
+				logger.error("partition {} ignores the migration of attribute {}",this.partition,i);
+				continue;
+			}
+			AttributeClassObserver migrated = observers[i-migration.getIMin()];
+			if (migrated!=null)
+			{
+				// the observations trained here while pending are added to the migrated ones
+				if (this.attributeObservers[ii]!=null)
+					migrated.merge(this.attributeObservers[ii]);
+				this.attributeObservers[ii] = migrated;
+			}
+			this.pending[ii] = false;
+			this.nPending--;
+		}
+		this.nUpdates = 0; //the first update is full
+	}
+
+	/**
+	 * Waiting for the observers of some attributes, the partition is trained
+	 * but must not update NBModel
+	 */
+	boolean isMigrating()
+	{
+		return this.nPending>0;
+	}
+
+	/**
+	 * Record the time spent to train n instances
+	 */
+	void addTrainTime(long nanos, int n)
+	{
+		this.trainNanos += nanos;
+		this.nTrainedSinceLoad += n;
+	}
+
+	/**
+	 * Training time since the previous load event
+	 */
+	NBPartitionLoadEvent newLoadEvent()
+	{
+		NBPartitionLoadEvent event = new NBPartitionLoadEvent(this.partition, this.epoch,
+				this.trainNanos, this.nTrainedSinceLoad);
+		this.trainNanos = 0;
+		this.nTrainedSinceLoad = 0;
+		return event;
+	}
+
+	private AttributeClassObserver newNominalClassObserver(int i, Attribute att) {
+		if (this.denseNominalObserver)
+		{
+			return new DenseNominalAttributeClassObserver(att.numValues(), nClassesOfAttribute(i));
+		}
+		return new NominalAttributeClassObserver();
+	}
+
+	// P(Cj) of the class attribute is stored as P( X[iClass]=j | C0 ), only 1 class is observed
+	private int nClassesOfAttribute(int i) {
+		return (i==this.header.classIndex()) ? 1 : this.K;
+	}
+
+	private AttributeClassObserver newNumericClassObserver() {
+		return new GaussianNumericAttributeClassObserver();
+	}
+
+	void trainOnInstance(Instance inst) {
+		this.nTrainedInstancesBeforeUpdate++;
+		this.nTrained++;
+
+		int Cj = (int)inst.classValue();
+        for (int ii = 0; ii < this.iRange; ii++) {
+        	if (!observe(ii, inst.value(this.iMin + ii), Cj, inst.weight()))
+        	{
+        		logger.error("Record:[{}]",inst.toString());
+        		return;//stop train this instance
+        	}
+        }
+    }
+
+	/**
+	 * Train a columnar batch of n instances, attribute by attribute.
+	 * Same result as trainOnInstance for each instance: an instance with an invalid
+	 * nominal value is only trained on the attributes before it.
+	 * @param columns values of attribute i at columns[i-iMin+colOffset], null for the class attribute
+	 */
+	void trainOnColumns(double[][] columns, int colOffset, double[] classValues, double[] weights, int n) {
+		this.nTrainedInstancesBeforeUpdate += n;
+		this.nTrained += n;
+
+		int[] classes = new int[n];
+		for (int r=0;r<n;r++)
+		{
+			classes[r] = (int)classValues[r];
+		}
+		int[] limit = invalidValueLimits(columns, colOffset, n);
+
+        for (int ii = 0; ii < this.iRange; ii++) {
+        	int i = this.iMin + ii;
+        	AttributeClassObserver obs = this.attributeObservers[ii];
+        	double[] column = columns[ii+colOffset];
+
+        	if ( i==this.header.classIndex() )
+        	{
+        		// P(Cj) in the store space of P( X[iClass] | C0 ), see observe
+        		for (int r=0;r<n;r++)
+        		{
+        			if (limit!=null && ii>=limit[r])
+        				continue;
+        			markDirty(ii, classes[r]);
+        			obs.observeAttributeClass(classes[r], 0, weights[r]);
+        		}
+        		continue;
+        	}
+
+        	// the type of the observer is checked once per column, not per cell
+        	boolean nominal = this.header.attribute(i).isNominal();
+        	if (obs instanceof DenseNominalAttributeClassObserver)
+        	{
+        		DenseNominalAttributeClassObserver denseObs = (DenseNominalAttributeClassObserver)obs;
+        		for (int r=0;r<n;r++)
+        		{
+        			if (limit!=null && ii>=limit[r])
+        				continue;
+        			double v = column[r];
+        			if (!Utils.isMissingValue(v))
+        				markDirty(ii, (int)v*this.K+classes[r]);
+        			denseObs.observeAttributeClass(v, classes[r], weights[r]);
+        		}
+        	}
+        	else if (obs instanceof GaussianNumericAttributeClassObserver)
+        	{
+        		GaussianNumericAttributeClassObserver gaussianObs = (GaussianNumericAttributeClassObserver)obs;
+        		for (int r=0;r<n;r++)
+        		{
+        			if (limit!=null && ii>=limit[r])
+        				continue;
+        			double v = column[r];
+        			if (!Utils.isMissingValue(v))
+        				markDirty(ii, classes[r]);
+        			gaussianObs.observeAttributeClass(v, classes[r], weights[r]);
+        		}
+        	}
+        	else
+        	{
+        		for (int r=0;r<n;r++)
+        		{
+        			if (limit!=null && ii>=limit[r])
+        				continue;
+        			double v = column[r];
+        			if (!Utils.isMissingValue(v))
+        				markDirty(ii, nominal ? (int)v*this.K+classes[r] : classes[r]);
+        			obs.observeAttributeClass(v, classes[r], weights[r]);
+        		}
+        	}
+        }
+    }
+
+	/**
+	 * Add the pre-aggregated weights of a batch of a nominal-only dataset,
+	 * same result as trainOnInstance for each instance of the batch.
+	 * @param counts the range of the counts includes the range of this partition
+	 */
+	void trainOnCounts(NBCountEvent counts) {
+		this.nTrainedInstancesBeforeUpdate += counts.size();
+		this.nTrained += counts.size();
+
+		int[] attStart = counts.getAttStart();
+		int[] values = counts.getValues();
+		int[] classes = counts.getClasses();
+		double[] weights = counts.getWeights();
+		int offset = this.iMin-counts.getIMin();
+        for (int ii = 0; ii < this.iRange; ii++) {
+        	int i = this.iMin + ii;
+        	AttributeClassObserver obs = this.attributeObservers[ii];
+        	for (int c=attStart[ii+offset];c<attStart[ii+offset+1];c++)
+        	{
+        		int v = values[c];
+        		if ( i==this.header.classIndex() )
+        		{
+        			// P(Cj) in the store space of P( X[iClass] | C0 ), see observe
+        			markDirty(ii, v);
+        			obs.observeAttributeClass(v, 0, weights[c]);
+        		}
+        		else if (v==NBCountEvent.MISSING)
+        		{
+        			obs.observeAttributeClass(Double.NaN, classes[c], weights[c]);
+        		}
+        		else
+        		{
+        			markDirty(ii, v*this.K+classes[c]);
+        			obs.observeAttributeClass(v, classes[c], weights[c]);
+        		}
+        	}
+        }
+    }
+
+	/**
+	 * Find the invalid nominal values of a columnar batch
+	 * @return limit[r] = ii of the first invalid value of instance r (iRange if none),
+	 *         null if there is no invalid value
+	 */
+	private int[] invalidValueLimits(double[][] columns, int colOffset, int n) {
+		int[] limit = null;
+        for (int ii = 0; ii < this.iRange; ii++) {
+        	int i = this.iMin + ii;
+        	Attribute att = this.header.attribute(i);
+        	if ( i==this.header.classIndex() || !att.isNominal() )
+        		continue;
+        	double[] column = columns[ii+colOffset];
+        	int numValues = att.numValues();
+        	for (int r=0;r<n;r++)
+        	{
+        		double v = column[r];
+        		if (v>=numValues || v<0)
+        		{
+        			if (limit==null)
+        			{
+        				limit = new int[n];
+        				Arrays.fill(limit, this.iRange);
+        			}
+        			if (ii<limit[r])
+        			{
+        				//invalid data, ignore it
+        				logger.error("invalid data [{}] at attribute [{}].",v,i);
+        				limit[r] = ii;
+        			}
+        		}
+        	}
+        }
+        return limit;
+	}
+
+	/**
+	 * Train a batch of instances on chunks of the attributes concurrently,
+	 * same result as trainOnInstance for each instance.
+	 * Each chunk only changes the observers of its own attributes, so no lock is needed:
+	 * the invalid values are found first (an instance is not trained after its first
+	 * invalid value, in any chunk), then the chunks are trained. The cells changed
+	 * by a chunk are recorded in its own DirtyLog, appended in chunk order after the join.
+	 * @param nChunks number of chunks, the chunks have at least MIN_TRAINING_CHUNK attributes
+	 */
+	void trainOnInstances(Instance[] insts, ForkJoinPool pool, int nChunks) {
+		int n = insts.length;
+		this.nTrainedInstancesBeforeUpdate += n;
+		this.nTrained += n;
+
+		this.chunkSize = Math.max(MIN_TRAINING_CHUNK, (this.iRange+nChunks-1)/nChunks);
+		int chunks = (this.iRange+this.chunkSize-1)/this.chunkSize;
+		int[][] invalid = new int[chunks][];
+		pool.invoke(new TrainingTask(this, insts, invalid, null, 0, chunks));
+
+		int[] limit = null;
+		for (int c=0;c<chunks;c++)
+		{
+			if (invalid[c]==null)
+				continue;
+			if (limit==null)
+			{
+				limit = new int[n];
+				Arrays.fill(limit, this.iRange);
+			}
+			for (int r=0;r<n;r++)
+			{
+				if (invalid[c][r]<limit[r])
+				{
+					limit[r] = invalid[c][r];
+					int i = this.iMin+limit[r];
+					logger.error("invalid data [{}] at attribute [{}].",insts[r].value(i),i);
+					logger.error("Record:[{}]",insts[r].toString());
+				}
+			}
+		}
+
+		if (this.dirty!=null)
+		{
+			this.chunkLogs = new DirtyLog[chunks];
+			for (int c=0;c<chunks;c++)
+			{
+				this.chunkLogs[c] = new DirtyLog(this.dirtyOld!=null);
+			}
+		}
+		try
+		{
+			pool.invoke(new TrainingTask(this, insts, null, limit, 0, chunks));
+		}
+		finally
+		{
+			DirtyLog[] logs = this.chunkLogs;
+			this.chunkLogs = null;
+			if (logs!=null)
+			{
+				for (DirtyLog log : logs)
+				{
+					for (int k=0;k<log.n;k++)
+					{
+						appendDirty(log.att[k], log.cell[k], log.old, k*CELL_STATE_SIZE);
+					}
+				}
+			}
+		}
+	}
+
+	// smallest chunk of attributes trained by one task
+	static final int MIN_TRAINING_CHUNK = 16;
+
+	/**
+	 * Chunk c of the attributes: first invalid value of each instance (invalid[c], null if none),
+	 * or training of the instances up to limit
+	 */
+	private void trainChunk(int c, Instance[] insts, int[][] invalid, int[] limit)
+	{
+		int from = c*this.chunkSize;
+		int to = Math.min(this.iRange, from+this.chunkSize);
+		if (invalid!=null)
+		{
+			for (int ii=from;ii<to;ii++)
+			{
+				int i = this.iMin + ii;
+				Attribute att = this.header.attribute(i);
+				if ( i==this.header.classIndex() || !att.isNominal() )
+					continue;
+				for (int r=0;r<insts.length;r++)
+				{
+					double v = insts[r].value(i);
+					if ( v>=att.numValues() || v<0 )
+					{
+						if (invalid[c]==null)
+						{
+							invalid[c] = new int[insts.length];
+							Arrays.fill(invalid[c], this.iRange);
+						}
+						invalid[c][r] = Math.min(invalid[c][r], ii);
+					}
+				}
+			}
+			return;
+		}
+
+		for (int r=0;r<insts.length;r++)
+		{
+			Instance inst = insts[r];
+			int Cj = (int)inst.classValue();
+			int end = limit!=null ? Math.min(to, limit[r]) : to;
+			for (int ii=from;ii<end;ii++)
+			{
+				observeValid(ii, inst.value(this.iMin+ii), Cj, inst.weight());
+			}
+		}
+	}
+
+	/**
+	 * Splits the chunks fromChunk~toChunk-1 in halves until one chunk per task
+	 */
+	private static class TrainingTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1839546750731582316L;
+
+		private final NBAttributePartition partition;
+		private final Instance[] insts;
+		private final int[][] invalid; //not null to find the invalid values
+		private final int[] limit;
+		private final int fromChunk;
+		private final int toChunk;
+
+		TrainingTask(NBAttributePartition partition, Instance[] insts, int[][] invalid, int[] limit,
+				int fromChunk, int toChunk)
+		{
+			this.partition = partition;
+			this.insts = insts;
+			this.invalid = invalid;
+			this.limit = limit;
+			this.fromChunk = fromChunk;
+			this.toChunk = toChunk;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (this.toChunk-this.fromChunk==1)
+			{
+				this.partition.trainChunk(this.fromChunk, this.insts, this.invalid, this.limit);
+				return;
+			}
+			int mid = (this.fromChunk+this.toChunk)>>>1;
+			invokeAll(new TrainingTask(this.partition, this.insts, this.invalid, this.limit, this.fromChunk, mid),
+					new TrainingTask(this.partition, this.insts, this.invalid, this.limit, mid, this.toChunk));
+		}
+	}
+
+	/**
+	 * Cells changed by a chunk of a parallel training, with their state before the change
+	 * if the schedule is adaptive
+	 */
+	private static final class DirtyLog
+	{
+		int[] att = new int[16];
+		int[] cell = new int[16];
+		double[] old;
+		final double[] scratch = new double[GaussianNumericAttributeClassObserver.STATE_SIZE];
+		int n = 0;
+
+		DirtyLog(boolean withState)
+		{
+			if (withState)
+				this.old = new double[16*CELL_STATE_SIZE];
+		}
+	}
+
+	/**
+	 * Observe value v of attribute iMin+ii
+	 * @return false if v is invalid, then the rest of the instance must not be trained
+	 */
+	private boolean observe(int ii, double v, int Cj, double weight) {
+		int i = this.iMin + ii;
+		Attribute att = this.header.attribute(i);
+		// error detect and ingorance
+		if ( i!=this.header.classIndex() && (v>=att.numValues() || v<0) && att.isNominal())
+		{
+			//invalid data, ignore it
+			logger.error("invalid data [{}] at attribute [{}].",v,i);
+			return false;
+		}
+		observeValid(ii, v, Cj, weight);
+		return true;
+	}
+
+	/**
+	 * Observe value v of attribute iMin+ii, v is not an invalid nominal value
+	 */
+	private void observeValid(int ii, double v, int Cj, double weight) {
+		int i = this.iMin + ii;
+		AttributeClassObserver obs = this.attributeObservers[ii];
+
+		if ( i==this.header.classIndex() )
+		{
+			//special case:
+			// P(Cj) is also recorded in this processor
+			// so just record it P(Cj) in the store space of P( X[iClass] | C0 )
+			markDirty(ii, Cj);
+			obs.observeAttributeClass(Cj, 0, weight);
+			return;
+		}
+
+		if (!Utils.isMissingValue(v))
+			markDirty(ii, this.header.attribute(i).isNominal() ? (int)v*this.K+Cj : Cj);
+		obs.observeAttributeClass(v, Cj, weight);
+	}
+
+	// record that a cell will be changed since the previous update, called before the cell is changed
+	private void markDirty(int ii, int cell)
+	{
+		if (this.dirty==null || this.dirty[ii][cell])
+			return;
+		this.dirty[ii][cell] = true;
+		this.nDirtyOfAttribute[ii]++;
+		if (this.chunkLogs!=null)
+		{
+			// parallel training, only the log of the chunk of ii is written by this thread
+			DirtyLog log = this.chunkLogs[ii/this.chunkSize];
+			if (log.n==log.att.length)
+			{
+				log.att = Arrays.copyOf(log.att, log.n*2);
+				log.cell = Arrays.copyOf(log.cell, log.n*2);
+				if (log.old!=null)
+					log.old = Arrays.copyOf(log.old, log.n*2*CELL_STATE_SIZE);
+			}
+			log.att[log.n] = ii;
+			log.cell[log.n] = cell;
+			if (log.old!=null)
+				getCellState(ii, cell, log.old, log.n*CELL_STATE_SIZE, log.scratch);
+			log.n++;
+			return;
+		}
+		if (this.dirtyOld!=null)
+			getCellState(ii, cell, this.gaussianState, 0, this.gaussianState);
+		appendDirty(ii, cell, this.gaussianState, 0);
+	}
+
+	// append a changed cell and its state before the change (state[offset~], only read if adaptive)
+	private void appendDirty(int ii, int cell, double[] state, int offset)
+	{
+		if (this.nDirty==this.dirtyAtt.length)
+		{
+			this.dirtyAtt = Arrays.copyOf(this.dirtyAtt, this.nDirty*2);
+			this.dirtyCell = Arrays.copyOf(this.dirtyCell, this.nDirty*2);
+			if (this.dirtyOld!=null)
+				this.dirtyOld = Arrays.copyOf(this.dirtyOld, this.nDirty*2*CELL_STATE_SIZE);
+		}
+		this.dirtyAtt[this.nDirty] = ii;
+		this.dirtyCell[this.nDirty] = cell;
+		if (this.dirtyOld!=null)
+			System.arraycopy(state, offset, this.dirtyOld, this.nDirty*CELL_STATE_SIZE, CELL_STATE_SIZE);
+		this.nDirty++;
+	}
+
+	/**
+	 * State of a cell, CELL_STATE_SIZE values from offset
+	 *   nominal: weight, 0, 0
+	 *   numeric: weight, mean, variance sum of the gaussian estimator, 0 if not observed
+	 */
+	private void getCellState(int ii, int cell, double[] state, int offset)
+	{
+		getCellState(ii, cell, state, offset, this.gaussianState);
+	}
+
+	// scratch: STATE_SIZE values, may be state if offset is 0
+	private void getCellState(int ii, int cell, double[] state, int offset, double[] scratch)
+	{
+		AttributeClassObserver obs = this.attributeObservers[ii];
+		if (obs instanceof GaussianNumericAttributeClassObserver)
+		{
+			if (((GaussianNumericAttributeClassObserver)obs).getEstimatorState(cell, scratch, 0))
+			{
+				double weight = scratch[GaussianNumericAttributeClassObserver.STATE_WEIGHT];
+				double mean = scratch[GaussianNumericAttributeClassObserver.STATE_MEAN];
+				double varianceSum = scratch[GaussianNumericAttributeClassObserver.STATE_VARIANCE_SUM];
+				state[offset] = weight;
+				state[offset+1] = mean;
+				state[offset+2] = varianceSum;
+			}
+			else
+			{
+				state[offset] = 0;
+				state[offset+1] = 0;
+				state[offset+2] = 0;
+			}
+			return;
+		}
+		int nClasses = nClassesOfAttribute(this.iMin+ii);
+		state[offset] = cellWeight(obs, cell/nClasses, cell%nClasses);
+		state[offset+1] = 0;
+		state[offset+2] = 0;
+	}
+
+	private static double cellWeight(AttributeClassObserver obs, int v, int j)
+	{
+		if (obs instanceof NominalAttributeClassObserver)
+			return ((NominalAttributeClassObserver)obs).getWeight(v, j);
+		if (obs instanceof DenseNominalAttributeClassObserver)
+			return ((DenseNominalAttributeClassObserver)obs).getWeight(v, j);
+		return 0;
+	}
+
+	// weight of class j observed by a nominal observer, missing values excluded
+	private static double classWeight(AttributeClassObserver obs, int j)
+	{
+		if (obs instanceof NominalAttributeClassObserver)
+		{
+			DoubleVector valDist = ((NominalAttributeClassObserver)obs).attValDistPerClass.get(j);
+			return valDist!=null ? valDist.sumOfValues() : 0;
+		}
+		if (obs instanceof DenseNominalAttributeClassObserver)
+			return ((DenseNominalAttributeClassObserver)obs).getClassTotal(j);
+		return 0;
+	}
+
+	/**
+	 * If the partition should update NBModel now, see NBUpdatePolicy.
+	 * With the adaptive schedule, the attributes to send are chosen here.
+	 */
+	boolean isUpdateDue()
+	{
+		int n = this.nTrainedInstancesBeforeUpdate;
+		if (!this.policy.isAdaptive())
+			return n >= this.policy.getUpdateFrequency();
+		if (n==0 || this.nDirty==0)
+			return false;
+
+		double[] divergence = null;
+		if (n-this.nTrainedAtCheck >= this.policy.getUpdateFrequency())
+		{
+			this.nTrainedAtCheck = n;
+			divergence = attributeDivergences();
+		}
+
+		long now = System.nanoTime();
+		boolean[] send = new boolean[this.iRange];
+		boolean due = false;
+		for (int ii=0;ii<this.iRange;ii++)
+		{
+			if (this.nDirtyOfAttribute[ii]==0)
+				continue;
+			boolean stale = (this.policy.getMaxStaleInstances()>0
+						&& this.nTrained-this.sentAtInstance[ii] >= this.policy.getMaxStaleInstances())
+					|| (this.policy.getMaxStaleMillis()>0
+						&& now-this.sentAtNanos[ii] >= this.policy.getMaxStaleMillis()*1000000L);
+			if (stale || (divergence!=null && divergence[ii]>this.policy.getDivergenceThreshold()))
+			{
+				send[ii] = true;
+				due = true;
+			}
+		}
+		this.sendAttributes = due ? send : null;
+		return due;
+	}
+
+	/**
+	 * Divergence between the distributions P(Xi|Cj) of the previous update and
+	 * the current ones of each attribute, the max over the classes j of
+	 *   nominal: total variation distance
+	 *   numeric: Hellinger distance of the gaussian estimators
+	 * both in [0,1], 0 if the attribute was not changed.
+	 * Only the changed cells and the class weights of the previous update are read.
+	 */
+	private double[] attributeDivergences()
+	{
+		double[] divergence = new double[this.iRange];
+		double[] cur = new double[CELL_STATE_SIZE];
+
+		// nominal: change of the class weights, then sum of |P(v|j)-P'(v|j)| over the changed cells
+		double[] deltaClassWeight = new double[this.sentClassWeight.length];
+		double[] sumOld = new double[this.sentClassWeight.length];
+		double[] sumDiff = new double[this.sentClassWeight.length];
+		double[] curWeight = new double[this.nDirty];
+		for (int n=0;n<this.nDirty;n++)
+		{
+			int ii = this.dirtyAtt[n];
+			if (this.classOffset[ii]<0)
+				continue;
+			int cell = this.dirtyCell[n];
+			getCellState(ii, cell, cur, 0);
+			curWeight[n] = cur[0];
+			int k = this.classOffset[ii] + cell%nClassesOfAttribute(this.iMin+ii);
+			deltaClassWeight[k] += cur[0]-this.dirtyOld[n*CELL_STATE_SIZE];
+		}
+		for (int n=0;n<this.nDirty;n++)
+		{
+			int ii = this.dirtyAtt[n];
+			int cell = this.dirtyCell[n];
+			int o = n*CELL_STATE_SIZE;
+			if (this.classOffset[ii]<0)
+			{
+				getCellState(ii, cell, cur, 0);
+				divergence[ii] = Math.max(divergence[ii], hellinger(this.dirtyOld[o], this.dirtyOld[o+1], this.dirtyOld[o+2],
+						cur[0], cur[1], cur[2]));
+				continue;
+			}
+			int k = this.classOffset[ii] + cell%nClassesOfAttribute(this.iMin+ii);
+			double oldTotal = this.sentClassWeight[k];
+			double total = oldTotal+deltaClassWeight[k];
+			sumOld[k] += this.dirtyOld[o];
+			if (oldTotal>0 && total>0)
+				sumDiff[k] += Math.abs(curWeight[n]/total - this.dirtyOld[o]/oldTotal);
+		}
+		for (int ii=0;ii<this.iRange;ii++)
+		{
+			if (this.classOffset[ii]<0 || this.nDirtyOfAttribute[ii]==0)
+				continue;
+			int nClasses = nClassesOfAttribute(this.iMin+ii);
+			for (int j=0;j<nClasses;j++)
+			{
+				int k = this.classOffset[ii]+j;
+				double oldTotal = this.sentClassWeight[k];
+				double total = oldTotal+deltaClassWeight[k];
+				double tv;
+				if (oldTotal<=0)
+					tv = total>0 ? 1 : 0; //class j not sent yet
+				else // the unchanged cells are only rescaled
+					tv = 0.5*(sumDiff[k] + (oldTotal-sumOld[k])*Math.abs(1/total - 1/oldTotal));
+				divergence[ii] = Math.max(divergence[ii], tv);
+			}
+		}
+		return divergence;
+	}
+
+	/**
+	 * Hellinger distance of two gaussian estimators (weight, mean, variance sum),
+	 * 1 if only one is observed
+	 */
+	private static double hellinger(double w0, double mean0, double varianceSum0,
+			double w1, double mean1, double varianceSum1)
+	{
+		if (w0<=0 || w1<=0)
+			return (w0<=0 && w1<=0) ? 0 : 1;
+		// same variance as GaussianEstimator.getVariance
+		double var0 = w0>1 ? varianceSum0/(w0-1) : 0;
+		double var1 = w1>1 ? varianceSum1/(w1-1) : 0;
+		double sum = var0+var1;
+		if (sum<=0)
+			return mean0==mean1 ? 0 : 1;
+		double diff = mean0-mean1;
+		double h2 = 1 - Math.sqrt(2*Math.sqrt(var0*var1)/sum) * Math.exp(-diff*diff/(4*sum));
+		return Math.sqrt(Math.max(0, h2));
+	}
+
+	/**
+	 * Event to update NBModel with the statistics trained since the previous update,
+	 * a new training cycle is started.
+	 * A delta only has the attributes chosen by isUpdateDue, the changed cells
+	 * of the other attributes are kept for a later update.
+	 */
+	NBAttStatEvent newUpdateEvent()
+	{
+		this.nTrainedInstancesBeforeUpdate=0; //restart a batch of train
+		this.nTrainedAtCheck=0;
+		boolean[] send = this.sendAttributes;
+		this.sendAttributes = null;
+
+		// the first update is full, so NBModel has all the observers the deltas apply to.
+		// a delta with more than half of the cells is not smaller than the full observers
+		boolean full = this.policy.isFullUpdateDue(this.nUpdates) || this.nDirty*2>this.nCells;
+		this.nUpdates++;
+		this.sequence++;
+		if (!full)
+		{
+			NBAttStatEvent update = new NBAttStatEvent(newDelta(send), this.iMin,this.iMax,this.epoch);
+			update.setProgress(this.partition, this.sequence, this.nTrained);
+			return update;
+		}
+		clearDirty();
+
+		//send attribute observers to attStatStream, with iMin and iMax
+		//the observers are copied, NBModel must not see them change while this partition keeps training
+		AttributeClassObserver[] observers = new AttributeClassObserver[this.attributeObservers.length];
+		for (int i=0;i<observers.length;i++)
+		{
+			if (this.attributeObservers[i]!=null)
+				observers[i] = this.attributeObservers[i].copy();
+		}
+		if (this.policy.isAdaptive())
+		{
+			for (int ii=0;ii<this.iRange;ii++)
+			{
+				setSent(ii);
+				if (this.classOffset[ii]<0)
+					continue;
+				for (int j=0;j<nClassesOfAttribute(this.iMin+ii);j++)
+				{
+					this.sentClassWeight[this.classOffset[ii]+j] = classWeight(this.attributeObservers[ii], j);
+				}
+			}
+		}
+		NBAttStatEvent update = new NBAttStatEvent(observers, this.iMin,this.iMax,this.epoch);
+		update.setProgress(this.partition, this.sequence, this.nTrained);
+		return update;
+	}
+
+	// attribute ii is sent now
+	private void setSent(int ii)
+	{
+		this.sentAtInstance[ii] = this.nTrained;
+		this.sentAtNanos[ii] = System.nanoTime();
+	}
+
+	/**
+	 * Current values of the changed cells of the attributes to send (all if send is null),
+	 * these cells are cleared
+	 */
+	private NBAttStatDelta newDelta(boolean[] send)
+	{
+		NBAttStatDelta delta = new NBAttStatDelta(this.iMin, this.iMax);
+		int nKept = 0;
+		for (int n=0;n<this.nDirty;n++)
+		{
+			int ii = this.dirtyAtt[n];
+			int cell = this.dirtyCell[n];
+			if (send!=null && !send[ii])
+			{
+				// kept for a later update
+				this.dirtyAtt[nKept] = ii;
+				this.dirtyCell[nKept] = cell;
+				if (this.dirtyOld!=null)
+					System.arraycopy(this.dirtyOld, n*CELL_STATE_SIZE, this.dirtyOld, nKept*CELL_STATE_SIZE, CELL_STATE_SIZE);
+				nKept++;
+				continue;
+			}
+			this.dirty[ii][cell] = false;
+			this.nDirtyOfAttribute[ii]--;
+
+			int i = this.iMin+ii;
+			AttributeClassObserver obs = this.attributeObservers[ii];
+			if (obs instanceof GaussianNumericAttributeClassObserver)
+			{
+				delta.addGaussian(i, cell, (GaussianNumericAttributeClassObserver)obs);
+				continue;
+			}
+
+			int nClasses = nClassesOfAttribute(i);
+			int v = cell/nClasses;
+			int j = cell%nClasses;
+			double weight = cellWeight(obs, v, j);
+			if (obs instanceof NominalAttributeClassObserver || obs instanceof DenseNominalAttributeClassObserver)
+			{
+				delta.addNominal(i, v, j, weight);
+			}
+			if (this.dirtyOld!=null && this.classOffset[ii]>=0)
+			{
+				this.sentClassWeight[this.classOffset[ii]+j] += weight-this.dirtyOld[n*CELL_STATE_SIZE];
+			}
+		}
+		this.nDirty = nKept;
+
+		for (int ii=0;ii<this.iRange;ii++)
+		{
+			if (send!=null && !send[ii])
+				continue;
+			if (this.policy.isAdaptive())
+				setSent(ii);
+			AttributeClassObserver obs = this.attributeObservers[ii];
+			if (obs instanceof NominalAttributeClassObserver)
+			{
+				NominalAttributeClassObserver nominalObs = (NominalAttributeClassObserver)obs;
+				delta.setObservedWeights(this.iMin+ii, nominalObs.totalWeightOfClassObservations(), nominalObs.weightOfObservedMissingValues());
+			}
+			else if (obs instanceof DenseNominalAttributeClassObserver)
+			{
+				DenseNominalAttributeClassObserver denseObs = (DenseNominalAttributeClassObserver)obs;
+				delta.setObservedWeights(this.iMin+ii, denseObs.totalWeightOfClassObservations(), denseObs.weightOfObservedMissingValues());
+			}
+		}
+		return delta;
+	}
+
+	private void clearDirty()
+	{
+		for (int n=0;n<this.nDirty;n++)
+		{
+			this.dirty[this.dirtyAtt[n]][this.dirtyCell[n]] = false;
+			this.nDirtyOfAttribute[this.dirtyAtt[n]] = 0;
+		}
+		this.nDirty = 0;
+	}
+}
@@ -0,0 +1,287 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.io.Serializable;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.GaussianNumericAttributeClassObserver;
+
+/**
+ * Assignment of the attributes to the p1 NBAttributeStat's,
+ * partition q has the attributes iMin(q)~iMax(q), iMax(q)<iMin(q) if it has no attribute.
+ *
+ * EVEN:  split the attributes evenly by index
+ * COST:  split the attributes in contiguous ranges of balanced estimated cost,
+ *        the cost of an attribute is the training cost of one instance plus
+ *        its share of the update cost (number of cells sent to NBModel / update frequency)
+ *
+ * The same assignment is used by NBDistributor to slice the batches and by
+ * NBAttributeStat to choose its own partition.
+ *
+ * An assignment is replaced at runtime by rebalance, with the measured training
+ * cost of the partitions, each new assignment has the next epoch.
+ * @author hl
+ *
+ */
+public final class NBAttributePartitioning implements Serializable {
+
+	private static final long serialVersionUID = 3315690624163413728L;
+
+	public enum Strategy
+	{
+		EVEN,
+		COST
+	}
+
+	// relative training cost of one instance for one attribute
+	static final double NOMINAL_TRAIN_COST = 1;
+	static final double NUMERIC_TRAIN_COST = 4; //gaussian estimator: mean, variance, min, max
+	// relative cost of copying and sending one cell of the statistics
+	static final double CELL_UPDATE_COST = 1;
+
+	private final Strategy strategy;
+	private final int epoch; //0 for the assignment of onCreate, +1 by each rebalance
+	private final double[] attCost; //estimated cost of each attribute
+	private final int[] iMin;
+	private final int[] iMax;
+	private final double[] cost; //estimated cost of each partition
+
+	private NBAttributePartitioning(Strategy strategy, int epoch, double[] attCost, int[] iMin, int[] iMax)
+	{
+		this.strategy = strategy;
+		this.epoch = epoch;
+		this.attCost = attCost;
+		this.iMin = iMin;
+		this.iMax = iMax;
+		this.cost = partitionCosts(attCost, iMin, iMax);
+	}
+
+	/**
+	 * @param updateFrequency number of trained instances between two updates of NBModel
+	 */
+	public static NBAttributePartitioning create(Strategy strategy, InstancesHeader header, int p1, int updateFrequency)
+	{
+		int M = header.numAttributes();
+		double[] attCost = new double[M];
+		for (int i=0;i<M;i++)
+		{
+			attCost[i] = attributeCost(header, i, updateFrequency);
+		}
+		return strategy==Strategy.COST ? balanced(attCost, p1, 0) : even(attCost, p1);
+	}
+
+	/**
+	 * Next assignment balanced with the measured cost of the partitions.
+	 * The estimated cost of the attributes of partition q is scaled by measured[q]/getCost(q),
+	 * so the costs of the next assignment are in the unit of measured.
+	 * @param measuredCost measured cost of each partition, NaN or <=0 if not measured
+	 */
+	public NBAttributePartitioning rebalance(double[] measuredCost)
+	{
+		double[] scaled = new double[this.attCost.length];
+		for (int q=0;q<this.iMin.length;q++)
+		{
+			double measured = measuredCost[q];
+			double ratio = (measured>0 && this.cost[q]>0) ? measured/this.cost[q] : 1;
+			for (int i=this.iMin[q];i<=this.iMax[q];i++)
+			{
+				scaled[i] = this.attCost[i]*ratio;
+			}
+		}
+		return balanced(scaled, this.iMin.length, this.epoch+1);
+	}
+
+	/**
+	 * Estimated cost of attribute i per trained instance
+	 */
+	static double attributeCost(InstancesHeader header, int i, int updateFrequency)
+	{
+		int K = header.numClasses();
+		Attribute att = header.attribute(i);
+		double trainCost;
+		double nCells;
+		if (i==header.classIndex())
+		{
+			// P(Cj) is stored as P( X[iClass]=j | C0 )
+			trainCost = NOMINAL_TRAIN_COST;
+			nCells = att.numValues();
+		}
+		else if (att.isNominal())
+		{
+			trainCost = NOMINAL_TRAIN_COST;
+			nCells = (double)att.numValues()*K;
+		}
+		else
+		{
+			trainCost = NUMERIC_TRAIN_COST;
+			nCells = (double)K*GaussianNumericAttributeClassObserver.STATE_SIZE;
+		}
+		return trainCost + nCells*CELL_UPDATE_COST/Math.max(1, updateFrequency);
+	}
+
+	/**
+	 * Split the M attributes evenly into p1 partitions
+	 *   iMin=q*( floor(M/p1) )
+	 *   iMax=iMin+floor(M/p1)-1
+	 * the last partition also has the remaining attributes, iMax=M-1
+	 */
+	private static NBAttributePartitioning even(double[] attCost, int p1)
+	{
+		int M = attCost.length;
+		int[] iMin = new int[p1];
+		int[] iMax = new int[p1];
+		for (int q=0;q<p1;q++)
+		{
+			iMin[q] = q*(int)(Math.floor(M/p1));
+			iMax[q] = iMin[q]+ (int)Math.floor(M/p1) -1;
+			if (q==p1-1) //the last partition
+			{
+				iMax[q]=M-1;
+			}
+		}
+		return new NBAttributePartitioning(Strategy.EVEN, 0, attCost, iMin, iMax);
+	}
+
+	/**
+	 * Split the attributes into p1 contiguous ranges minimizing the cost of the most expensive range.
+	 * Binary search of the smallest feasible bound, then greedy fill under that bound.
+	 */
+	private static NBAttributePartitioning balanced(double[] attCost, int p1, int epoch)
+	{
+		double lo = 0;
+		double hi = 0;
+		for (double c : attCost)
+		{
+			lo = Math.max(lo, c);
+			hi += c;
+		}
+		// at hi every attribute fits into one partition
+		for (int n=0;n<100 && hi-lo>1e-9*hi;n++)
+		{
+			double mid = (lo+hi)/2;
+			if (fill(attCost, p1, mid, null, null))
+				hi = mid;
+			else
+				lo = mid;
+		}
+
+		int[] iMin = new int[p1];
+		int[] iMax = new int[p1];
+		fill(attCost, p1, hi, iMin, iMax);
+		return new NBAttributePartitioning(Strategy.COST, epoch, attCost, iMin, iMax);
+	}
+
+	/**
+	 * Greedy fill of the partitions with consecutive attributes, each under bound.
+	 * A partition is also closed when the remaining attributes are no more than the
+	 * remaining partitions, so no replica is left idle if it can have an attribute.
+	 * @param iMin,iMax the ranges are written here if not null
+	 * @return if all the attributes fit into p1 partitions
+	 */
+	private static boolean fill(double[] attCost, int p1, double bound, int[] iMin, int[] iMax)
+	{
+		int M = attCost.length;
+		int i = 0;
+		for (int q=0;q<p1;q++)
+		{
+			int first = i;
+			double sum = 0;
+			while (i<M && sum+attCost[i]<=bound)
+			{
+				if (i>first && M-i<=p1-1-q)
+					break; //leave one attribute to each of the next partitions
+				sum += attCost[i];
+				i++;
+			}
+			if (iMin!=null)
+			{
+				iMin[q] = first;
+				iMax[q] = i-1;
+			}
+		}
+		return i==M;
+	}
+
+	private static double[] partitionCosts(double[] attCost, int[] iMin, int[] iMax)
+	{
+		double[] cost = new double[iMin.length];
+		for (int q=0;q<iMin.length;q++)
+		{
+			for (int i=iMin[q];i<=iMax[q];i++)
+			{
+				cost[q] += attCost[i];
+			}
+		}
+		return cost;
+	}
+
+	public Strategy getStrategy()
+	{
+		return this.strategy;
+	}
+
+	public int getEpoch()
+	{
+		return this.epoch;
+	}
+
+	public int numPartitions()
+	{
+		return this.iMin.length;
+	}
+
+	public int getIMin(int q)
+	{
+		return this.iMin[q];
+	}
+
+	public int getIMax(int q)
+	{
+		return this.iMax[q];
+	}
+
+	/**
+	 * Estimated cost of partition q per trained instance
+	 */
+	public double getCost(int q)
+	{
+		return this.cost[q];
+	}
+
+	/**
+	 * Estimated cost of the most expensive partition
+	 */
+	public double getMaxCost()
+	{
+		double max = 0;
+		for (double c : this.cost)
+		{
+			max = Math.max(max, c);
+		}
+		return max;
+	}
+
+	/**
+	 * @return the partition of attribute i, -1 if no partition has it
+	 */
+	public int partitionOf(int i)
+	{
+		for (int q=0;q<this.iMin.length;q++)
+		{
+			if (this.iMin[q]<=i && i<=this.iMax[q])
+				return q;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder(this.strategy+" epoch="+this.epoch);
+		for (int q=0;q<this.iMin.length;q++)
+		{
+			sb.append(String.format(" |%d:[%d~%d] cost=%.2f", q, this.iMin[q], this.iMax[q], this.cost[q]));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,174 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Carry a batch of training instances in columns of primitive values,
+ * for the attributes iMin~iMax, plus the class and weight of each instance.
+ *   columns[i-iMin][r] = value of attribute i of instance r, null for the class attribute
+ * With projected training, a slice has the attributes of one partition and
+ * is sent from NBDistributor to the NBAttributeStat owning the partition,
+ * the key is the routing key of the partition (see NBPartitionRouter), so all
+ * the slices of a partition are sent to the same NBAttributeStat, and the slices
+ * of different partitions to different NBAttributeStat's.
+ * With columnar training, a batch has all the attributes (partition ALL_ATTRIBUTES)
+ * and is sent to all NBAttributeStat's instead of an InstancesContentEvent.
+ * The schema is the header fingerprint of the sender (see schemaId),
+ * the receiver checks it against its own header.
+ * @author hl
+ *
+ */
+public class NBAttributeSliceEvent implements ContentEvent {
+
+	private static final long serialVersionUID = -8836218547043125012L;
+
+	// partition of a batch with all the attributes
+	static final int ALL_ATTRIBUTES = -1;
+
+	private boolean isLast = false;
+	private int partition;
+	private int routingKey; //key of the replica of the partition, see NBPartitionRouter
+	private long schema; //schemaId of the header of the columns
+	private int iMin; //range of attributes' index
+	private int iMax;
+
+	private int size = 0; //number of instances
+	private double[][] columns;
+	private double[] classValues;
+	private double[] weights;
+
+	NBAttributeSliceEvent()
+	{}
+
+	/**
+	 * @param capacity number of instances of the batch
+	 */
+	NBAttributeSliceEvent(int partition, int iMin, int iMax, InstancesHeader header, int capacity)
+	{
+		this.partition = partition;
+		this.routingKey = partition;
+		this.iMin = iMin;
+		this.iMax = iMax;
+		this.schema = schemaId(header);
+		this.columns = new double[iMax-iMin+1][];
+		for (int i=iMin;i<=iMax;i++)
+		{
+			if (i!=header.classIndex())
+				this.columns[i-iMin] = new double[capacity];
+		}
+		this.classValues = new double[capacity];
+		this.weights = new double[capacity];
+	}
+
+	/**
+	 * Add the values of the attributes of this partition of an instance
+	 */
+	void add(Instance inst)
+	{
+		for (int ii=0;ii<this.columns.length;ii++)
+		{
+			if (this.columns[ii]!=null)
+				this.columns[ii][this.size] = inst.value(this.iMin+ii);
+		}
+		this.classValues[this.size] = inst.classValue();
+		this.weights[this.size] = inst.weight();
+		this.size++;
+	}
+
+	/**
+	 * Fingerprint of the layout of the attributes of a header:
+	 * number of attributes, class index, type and number of values of each attribute
+	 */
+	static long schemaId(InstancesHeader header)
+	{
+		long id = 17;
+		id = id*31 + header.numAttributes();
+		id = id*31 + header.classIndex();
+		for (int i=0;i<header.numAttributes();i++)
+		{
+			Attribute att = header.attribute(i);
+			id = id*31 + (att.isNominal() ? att.numValues()+1 : 0);
+		}
+		return id;
+	}
+
+	@Override
+	public String getKey() {
+		return Integer.toString(this.routingKey);
+	}
+
+	@Override
+	public void setKey(String key) {
+		this.routingKey = Integer.parseInt(key);
+	}
+
+	/**
+	 * Key of the replica training the partition, the partition by default
+	 */
+	void setRoutingKey(int routingKey)
+	{
+		this.routingKey = routingKey;
+	}
+
+	@Override
+	public boolean isLastEvent() {
+		return isLast;
+	}
+
+	public void setLast(boolean isLast) {
+		this.isLast = isLast;
+	}
+
+	public int getPartition()
+	{
+		return this.partition;
+	}
+
+	public long getSchema()
+	{
+		return this.schema;
+	}
+
+	public int getIMin()
+	{
+		return this.iMin;
+	}
+
+	public int getIMax()
+	{
+		return this.iMax;
+	}
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	double[][] getColumns()
+	{
+		return this.columns;
+	}
+
+	double[] getClassValues()
+	{
+		return this.classValues;
+	}
+
+	double[] getWeights()
+	{
+		return this.weights;
+	}
+
+	public double getClassValue(int r)
+	{
+		return this.classValues[r];
+	}
+
+	public double getWeight(int r)
+	{
+		return this.weights[r];
+	}
+}
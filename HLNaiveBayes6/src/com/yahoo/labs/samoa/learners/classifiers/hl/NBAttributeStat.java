@@ -1,5 +1,9 @@
 package com.yahoo.labs.samoa.learners.classifiers.hl;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,9 +14,6 @@ import com.yahoo.labs.samoa.instances.Instances;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 import com.yahoo.labs.samoa.learners.InstanceContentEvent;
 import com.yahoo.labs.samoa.learners.InstancesContentEvent;
-import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
-import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.GaussianNumericAttributeClassObserver;
-import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.NominalAttributeClassObserver;
 import com.yahoo.labs.samoa.topology.Stream;
 
 /**
@@ -33,6 +34,31 @@ import com.yahoo.labs.samoa.topology.Stream;
  * 2014.4.16
  * edit 2014.4.18 change topology, the testing task is moved to NBModel
  * after training, also need to update the NBModel
+ * 
+ * The statistics of a range of attributes are kept in a NBAttributePartition.
+ * Without projected training, this processor trains its own partition on the
+ * full instances. With projected training, it receives NBAttributeSliceEvent
+ * by key grouping and trains the partition of each slice, a processor may
+ * own several partitions or none, depending on how the engine maps the keys.
+ * NBDistributor chooses the key of each partition so they go to distinct processors
+ * (see NBPartitionRouter), a processor acknowledges the probes of the keys (NBRoutingProbeEvent).
+ * If the probes did not find enough processors, partitions sharing a processor
+ * are trained one after the other (a warning is logged when it happens).
+ * With columnar training, the full instances are received as NBAttributeSliceEvent
+ * of all the attributes, and the own partition is trained column by column.
+ * With combined training, the batches are received pre-aggregated (NBCountEvent),
+ * projected or with all the attributes, and the weights are added to the partition.
+ * 
+ * With trainingThreads>1, a batch of instances is trained on chunks of the attributes
+ * of the own partition concurrently (see NBAttributePartition.trainOnInstances).
+ * 
+ * With rebalancing, the training time of each partition is sent to NBDistributor
+ * with each update of NBModel. When NBDistributor changes the assignment of the
+ * attributes (NBRebalanceEvent), the observers of the attributes a partition loses
+ * are sent to their new partition through NBDistributor (NBAttributeMigrationEvent).
+ * 
+ * With flow control, a credit is returned to NBDistributor for each received
+ * training batch (NBCreditEvent).
  */
 public class NBAttributeStat implements Processor {
 
@@ -44,10 +70,6 @@ public class NBAttributeStat implements Processor {
 	
 	private int processorId;
 	
-	// range of attribute index, iMin<=i<=iMax
-	private int iMin=0;
-	private int iMax=0;
-	private int iRange=0;//iRange=iMax-iMin+1
 	private int K=0; //number of classes of dataset
 	
 	private int[] nTrain_j; //totall number of train instances that is class j
@@ -59,26 +81,61 @@ public class NBAttributeStat implements Processor {
 	// number of NBAttributeStat processors in whole topology
 	private int p1=1;
 	
+	// store nominal attributes in DenseNominalAttributeClassObserver
+	// instead of NominalAttributeClassObserver
+	private boolean denseNominalObserver=false;
+	
 	// update NBModel after training every F instances
 	private int updateFrequency;
-	private int nTrainedInstancesBeforeUpdate; //num of trained instance in current training cycle
 	
+	// send all observers every fullUpdatePeriod-th update, only the changed cells in between.
+	// 1 = always send all observers
+	private int fullUpdatePeriod=1;
+	
+	// adaptive schedule of the updates, see NBUpdatePolicy. 0 = update every updateFrequency instances
+	private double updateDivergence=0;
+	private int maxStaleInstances=0;
+	private int maxStaleMillis=0;
+	private NBUpdatePolicy updatePolicy;
+	
+	// number of threads to train a batch of instances, 1 = no parallel training
+	private int trainingThreads=1;
+	// a batch is split into this number of chunks of attributes per thread, for load balancing
+	private static final int TRAINING_CHUNKS_PER_THREAD = 4;
+	// only created if trainingThreads>1, shut down by the last event
+	private transient ForkJoinPool trainingPool;
+	
+	// train on NBAttributeSliceEvent instead of full instances
+	private boolean projectedTraining=false;
+	
+	// assignment of the attributes to the NBAttributeStat's
+	private NBAttributePartitioning partitioning;
+	
+	// send the training time of the partitions to NBDistributor, see NBPartitionLoadEvent
+	private boolean rebalance=false;
 	
 	//required parameters
 	private final Instances dataset; //only use in builder
 	private InstancesHeader header; //attribute information
+	private long schemaId; //see NBAttributeSliceEvent.schemaId
 
 	//private Stream trainStream;
 	//private Stream testStream;
 	private Stream attStatStream;
+	private Stream rebalanceStream; //to NBDistributor, only used by rebalance
+	private Stream creditStream; //to NBDistributor, used by flow control and projected training
 		
 	/**
 	 * Assume there are total K classes, M attribute, each attributes has V(M) values
 	 * number of occurrence of (class,attributeIndex,a) 
 	 * number of (k, a, v)
 	 * Store P(Xi|Cj) for attributes from iMin to iMax
+	 * null if this processor has no attribute or projectedTraining
 	 */
-	private AttributeClassObserver[] attributeObservers;
+	private NBAttributePartition ownPartition;
+	
+	// partitions of the received slices, by partition id, only used by projectedTraining
+	private Map<Integer,NBAttributePartition> slicePartitions;
 	
 	
 	//private constructor based on Builder pattern
@@ -86,22 +143,152 @@ public class NBAttributeStat implements Processor {
 		this.dataset = builder.dataset;
 		this.p1 = builder.p1;
 		this.header = new InstancesHeader(dataset);
+		this.schemaId = NBAttributeSliceEvent.schemaId(this.header);
 		this.updateFrequency = builder.updateFrequency;
+		this.denseNominalObserver = builder.denseNominalObserver;
+		this.fullUpdatePeriod = builder.fullUpdatePeriod;
+		this.projectedTraining = builder.projectedTraining;
+		this.rebalance = builder.rebalance;
+		this.updateDivergence = builder.updateDivergence;
+		this.maxStaleInstances = builder.maxStaleInstances;
+		this.maxStaleMillis = builder.maxStaleMillis;
+		this.trainingThreads = builder.trainingThreads;
+		this.updatePolicy = new NBUpdatePolicy(this.updateFrequency, this.fullUpdatePeriod,
+				this.updateDivergence, this.maxStaleInstances, this.maxStaleMillis);
+		this.partitioning = builder.partitioning!=null ? builder.partitioning 
+				: NBAttributePartitioning.create(NBAttributePartitioning.Strategy.EVEN, this.header, 
+						this.p1, this.updateFrequency);
 	}
 		
 	@Override
 	public boolean process(ContentEvent event) {
+		if (event instanceof NBRoutingProbeEvent)
+		{
+			// NBDistributor learns the replica of the key, see NBPartitionRouter
+			if (this.creditStream!=null)
+				this.creditStream.put(new NBCreditEvent(NBCreditEvent.PROBE, this.processorId,
+						((NBRoutingProbeEvent)event).getRoutingKey()));
+			return true;
+		}
+		boolean bSucess = processEvent(event);
+		if (this.creditStream!=null && isTrainingBatch(event))
+		{
+			this.creditStream.put(new NBCreditEvent(NBCreditEvent.TRAIN, creditedReplica(event)));
+		}
+		return bSucess;
+	}
+	
+	/**
+	 * A projected batch is credited to its partition, NBDistributor counts the credits per partition
+	 */
+	private int creditedReplica(ContentEvent event)
+	{
+		int q = NBAttributeSliceEvent.ALL_ATTRIBUTES;
+		if (event instanceof NBAttributeSliceEvent)
+			q = ((NBAttributeSliceEvent)event).getPartition();
+		else if (event instanceof NBCountEvent)
+			q = ((NBCountEvent)event).getPartition();
+		return q!=NBAttributeSliceEvent.ALL_ATTRIBUTES ? q : this.processorId;
+	}
+	
+	/**
+	 * The training batches sent by NBDistributor, each takes a credit
+	 */
+	private static boolean isTrainingBatch(ContentEvent event)
+	{
+		return event instanceof NBAttributeSliceEvent || event instanceof NBCountEvent
+				|| (event instanceof InstancesContentEvent && ((InstancesContentEvent)event).isTraining());
+	}
+	
+	private boolean processEvent(ContentEvent event) {
 		
 		//logger.info("begin process. id={}",this.processorId);//|!|debug
 		
-		if (iRange<=0)
+		boolean bSucess = false; // if event is supported event
+		
+		// -------------- train a columnar batch, projected or with all attributes ------------------
+		if (event instanceof NBAttributeSliceEvent)
+		{
+			NBAttributeSliceEvent slice = (NBAttributeSliceEvent)event;
+			if (slice.getSchema()!=this.schemaId)
+			{
+				logger.error("NBAttributeStat id={} ignores a batch of another schema",this.processorId);
+				return false;
+			}
+			NBAttributePartition partition = 
+					slice.getPartition()==NBAttributeSliceEvent.ALL_ATTRIBUTES ? this.ownPartition 
+							: getSlicePartition(slice.getPartition(), slice.getIMin(), slice.getIMax());
+			if (partition==null)
+				return false; //iMax<iMin, this processor should be useless.
+			for (int r=0;r<slice.size();r++)
+			{
+				countInstance(slice.getClassValue(r));
+			}
+			long start = System.nanoTime();
+			partition.trainOnColumns(slice.getColumns(), partition.getIMin()-slice.getIMin(),
+					slice.getClassValues(), slice.getWeights(), slice.size());
+			partition.addTrainTime(System.nanoTime()-start, slice.size());
+			if (slice.isLastEvent())
+				showFinalStat();
+			if (partition.isUpdateDue())
+			{
+				updateModel(partition);
+			}
+			return true;
+		}
+		
+		// -------------- add the pre-aggregated counts of a batch, projected or with all attributes ------------------
+		if (event instanceof NBCountEvent)
+		{
+			NBCountEvent counts = (NBCountEvent)event;
+			if (counts.getSchema()!=this.schemaId)
+			{
+				logger.error("NBAttributeStat id={} ignores a batch of another schema",this.processorId);
+				return false;
+			}
+			NBAttributePartition partition = 
+					counts.getPartition()==NBAttributeSliceEvent.ALL_ATTRIBUTES ? this.ownPartition 
+							: getSlicePartition(counts.getPartition(), counts.getIMin(), counts.getIMax());
+			if (partition==null)
+				return false; //iMax<iMin, this processor should be useless.
+			for (int j=0;j<counts.getNumClasses();j++)
+			{
+				this.nTrain_j[j] += counts.getClassCount(j);
+			}
+			this.nTrain += counts.size();
+			long start = System.nanoTime();
+			partition.trainOnCounts(counts);
+			partition.addTrainTime(System.nanoTime()-start, counts.size());
+			if (counts.isLastEvent())
+				showFinalStat();
+			if (partition.isUpdateDue())
+			{
+				updateModel(partition);
+			}
+			return true;
+		}
+		
+		// -------------- change of the assignment of the attributes ------------------
+		if (event instanceof NBRebalanceEvent)
+		{
+			rebalance((NBRebalanceEvent)event);
+			return true;
+		}
+		
+		if (event instanceof NBAttributeMigrationEvent)
+		{
+			receiveMigration((NBAttributeMigrationEvent)event);
+			return true;
+		}
+		
+		if (this.ownPartition==null)
 		{
 			logger.info("iRange<=0");//|!|debug
+			if (event.isLastEvent())
+				shutdownTraining();
 			return false; //iMax<iMin, this processor should be useless.
 		}
 		
-		boolean bSucess = false; // if event is supported event
-		
 		// -------------- train or test a single instance ------------------
 		if (event instanceof InstanceContentEvent)
 		{
@@ -110,7 +297,9 @@ public class NBAttributeStat implements Processor {
 			{
 				// -------- Training phase -----------
 				Instance inst = ice.getInstance();
+				long start = System.nanoTime();
 				trainOnInstance(inst);
+				this.ownPartition.addTrainTime(System.nanoTime()-start, 1);
 
 				//logger.info("instance trained.");//|!|debug
 				
@@ -129,11 +318,26 @@ public class NBAttributeStat implements Processor {
 			{
 				// -------- Training phase -----------
 				Instance[] insts = ice.getInstances();
-				for (int i=0;i<insts.length;i++)
+				long start = System.nanoTime();
+				if (this.trainingPool!=null && this.ownPartition.getIMax()-this.ownPartition.getIMin()+1 
+						>= 2*NBAttributePartition.MIN_TRAINING_CHUNK)
 				{
-					Instance inst = insts[i];
-					trainOnInstance(inst);
+					for (int i=0;i<insts.length;i++)
+					{
+						countInstance(insts[i].classValue());
+					}
+					this.ownPartition.trainOnInstances(insts, this.trainingPool, 
+							this.trainingThreads*TRAINING_CHUNKS_PER_THREAD);
 				}
+				else
+				{
+					for (int i=0;i<insts.length;i++)
+					{
+						Instance inst = insts[i];
+						trainOnInstance(inst);
+					}
+				}
+				this.ownPartition.addTrainTime(System.nanoTime()-start, insts.length);
 
 				//logger.info("instances trained.");//|!|debug
 			}
@@ -145,24 +349,46 @@ public class NBAttributeStat implements Processor {
 		
 		//TODO: del this debug code later
 		if (event.isLastEvent())
+		{
 			showFinalStat();
+			shutdownTraining();
+		}
 			
-		//update nbmodel through attStatStream after every F instances were trained.
-		if (this.nTrainedInstancesBeforeUpdate >= this.updateFrequency)
+		//update nbmodel through attStatStream after every F instances were trained,
+		//or when the distributions changed enough with the adaptive schedule
+		if (this.ownPartition!=null && this.ownPartition.isUpdateDue())
 		{
-			updateModel();
-			this.nTrainedInstancesBeforeUpdate=0; //restart a batch of train
+			updateModel(this.ownPartition);
 		}
 		return bSucess;
 	}
 
+	/**
+	 * No processor is removed, the last event is the end of the training pool.
+	 * A later batch is trained by this thread.
+	 */
+	private void shutdownTraining() {
+		if (this.trainingPool!=null)
+		{
+			this.trainingPool.shutdown();
+			this.trainingPool = null;
+		}
+	}
+
 	/**
 	 * show final statistic, for debug
 	 * @param event
 	 */
 	private void showFinalStat() {
 			logger.info(" ------- NBAttributeStat(id={}) finished training",this.processorId);
-			logger.info("K={},iMin={},iMax={}",this.K,this.iMin,this.iMax);
+			if (this.ownPartition!=null)
+			{
+				logger.info("K={},iMin={},iMax={}",this.K,this.ownPartition.getIMin(),this.ownPartition.getIMax());
+			}
+			else if (this.slicePartitions!=null)
+			{
+				logger.info("K={},slice partitions={}",this.K,this.slicePartitions.keySet());
+			}
 			
 			//N - totally number of training instances
 			logger.info("nTrain={}",this.nTrain);
@@ -181,42 +407,36 @@ public class NBAttributeStat implements Processor {
 	public void onCreate(int id) {
 		// In OnCreate(id) function, need to set the range of attribute of P(Xi|Cj)
 		// this processor records. iMin<=i<=iMax
-		// iMin=id*( floor(m/P1) )
-		// iMax=iMin+floor(m/p1)-1
+		// see NBAttributePartitioning
 		// Assume id starts from 0, m is the total number of attributes, including
 		// the class attribute.
-		// When id=p1-1, iMax=m-1
 
 		this.processorId = id;
-		int M = this.header.numAttributes();
-		this.iMin = id*(int)(Math.floor(M/p1));
-		this.iMax = this.iMin+ (int)Math.floor(M/p1) -1;
-		if (id==p1-1) //the last NBAttributeStat
-		{
-			iMax=M-1;
-		}
-		this.iRange = this.iMax-this.iMin+1;
-		if (iRange<=0) //iMax<iMin
-			return;
-		
-		this.attributeObservers = new AttributeClassObserver[iRange];
 		
 		//Nj for each class j
 		this.K = this.header.numClasses();
 		this.nTrain_j = new int[this.K];
 		
-		for (int i=0;i<iRange;i++)
+		if (this.projectedTraining)
 		{
-			AttributeClassObserver obs=
-					this.header.attribute(i).isNominal() ? newNominalClassObserver()
-	                        : newNumericClassObserver();
-	       this.attributeObservers[i]=obs;
+			// the partitions are created when their first slice is received
+			this.slicePartitions = new HashMap<Integer,NBAttributePartition>();
+			logger.info("NBAttributeStat created, id={}, projected training",id);
+			return;
 		}
 		
-		//reset train cycle
-		nTrainedInstancesBeforeUpdate = 0;
+		// a rebalance may give attributes to a processor without any
+		if (this.trainingThreads>1)
+			this.trainingPool = new ForkJoinPool(this.trainingThreads);
+		
+		int iMin = this.partitioning.getIMin(id);
+		int iMax = this.partitioning.getIMax(id);
+		if (iMax<iMin)
+			return;
+		this.ownPartition = newPartition(id, iMin, iMax);
 		
-		logger.info("NBAttributeStat created, id={}, iMin={}, iMax={}",id,iMin,iMax);
+		logger.info("NBAttributeStat created, id={}, iMin={}, iMax={}, cost={}",
+				id,iMin,iMax,this.partitioning.getCost(id));
 	}
 
 	@Override
@@ -227,6 +447,8 @@ public class NBAttributeStat implements Processor {
 		//newP.trainStream = pp.trainStream;
 		//newP.testStream = pp.testStream;
 		newP.attStatStream = pp.attStatStream;
+		newP.rebalanceStream = pp.rebalanceStream;
+		newP.creditStream = pp.creditStream;
 		
 		return newP;
 	}
@@ -245,69 +467,127 @@ public class NBAttributeStat implements Processor {
 		this.attStatStream=attStatStream;
 	}
 
-	private AttributeClassObserver newNominalClassObserver() {
-		return new NominalAttributeClassObserver();
+	public void setRebalanceStream(Stream rebalanceStream) {
+		this.rebalanceStream=rebalanceStream;
 	}
 
-	private AttributeClassObserver newNumericClassObserver() {
-		return new GaussianNumericAttributeClassObserver();
+	public void setCreditStream(Stream creditStream) {
+		this.creditStream=creditStream;
 	}
 
+	private NBAttributePartition newPartition(int partition, int iMin, int iMax) {
+		return new NBAttributePartition(partition, this.partitioning.getEpoch(), iMin, iMax, this.header,
+				this.denseNominalObserver, this.updatePolicy);
+	}
+	
+	private NBAttributePartition getSlicePartition(int q, int iMin, int iMax) {
+		NBAttributePartition partition = this.slicePartitions.get(q);
+		if (partition==null)
+		{
+			partition = newPartition(q, iMin, iMax);
+			this.slicePartitions.put(q, partition);
+			logger.info("NBAttributeStat id={} trains partition {}, iMin={}, iMax={}",
+					this.processorId,q,iMin,iMax);
+			if (this.slicePartitions.size()>1)
+				logger.warn("NBAttributeStat id={} trains {} partitions {}, their keys were mapped to one replica",
+						this.processorId,this.slicePartitions.size(),this.slicePartitions.keySet());
+		}
+		return partition;
+	}
+	
+	// record N, and Nj, P(Cj)=Nj/N
+	private void countInstance(double classValue) {
+		this.nTrain_j[(int)classValue]++;
+		this.nTrain++;
+	}
 	
 	private void trainOnInstance(Instance inst) {
         //this.nClass.addToValue((int) inst.classValue(), inst.weight());
 		
-		// record N, and Nj, P(Cj)=Nj/N
-		int Cj = (int)inst.classValue();
-		this.nTrain_j[Cj]++;
-		this.nTrain++;
-		this.nTrainedInstancesBeforeUpdate++;
-		
-        for (int ii = 0; ii < this.iRange; ii++) {
-        	int i = this.iMin + ii;
-            AttributeClassObserver obs = this.attributeObservers[ii];
-            
-        	if ( i==inst.classIndex() )
-        	{
-        		//special case:
-        		// P(Cj) is also recorded in this processor
-        		// so just record it P(Cj) in the store space of P( X[iClass] | C0 )
-        		obs.observeAttributeClass(inst.classValue(), 0, inst.weight());
-        		continue;
-        	}
-        	
-              
-           	// no need {{ 
-//            if (obs == null) {
-//                obs = inst.attribute(i).isNominal() ? newNominalClassObserver()
-//                        : newNumericClassObserver();
-//                this.attributeObservers[i]=obs;
-//            }
-        	//}} no need
-            
-            // error detect and ingorance
-            double v = inst.value(i);
-            if ( (v>=inst.attribute(i).numValues() || v<0) && inst.attribute(i).isNominal())
-            {
-            	//invalid data, ignore it
-            	logger.error("invalid data [{}] at attribute [{}].\nRecord:[{}]",v,i,inst.toString());
-            	//debugInstanceValues(inst);
-            	return;//stop train this instance
-            }
-            else
-            {
-            	obs.observeAttributeClass(v, (int) inst.classValue(), inst.weight());
-            }
-        }
-		
+		countInstance(inst.classValue());
+		this.ownPartition.trainOnInstance(inst);
     }
 	
 	//update NBModel
-	private void updateModel()
+	private void updateModel(NBAttributePartition partition)
+	{
+		if (partition.isMigrating())
+			return; //NBModel would lose the observations of the previous partition
+		this.attStatStream.put(partition.newUpdateEvent());
+		if (this.rebalance)
+			this.rebalanceStream.put(partition.newLoadEvent());
+	}
+	
+	/**
+	 * Replace the partition of the event by its range in the next assignment,
+	 * send the observers of the attributes it loses to their new partitions.
+	 */
+	private void rebalance(NBRebalanceEvent event)
+	{
+		NBAttributePartitioning previous = event.getPrevious();
+		NBAttributePartitioning next = event.getNext();
+		int q = this.projectedTraining ? event.getPartition() : this.processorId;
+		
+		NBAttributePartition partition = this.projectedTraining ? this.slicePartitions.get(q) : this.ownPartition;
+		if (partition==null)
+		{
+			// no attribute or no slice received yet, nothing was trained
+			partition = newPartition(q, previous.getIMin(q), previous.getIMax(q));
+		}
+		this.partitioning = next;
+		
+		// observers of the attributes moved from q to q2
+		for (int q2=0;q2<next.numPartitions();q2++)
+		{
+			if (q2==q)
+				continue;
+			int from = Math.max(partition.getIMin(), next.getIMin(q2));
+			int to = Math.min(partition.getIMax(), next.getIMax(q2));
+			if (from>to)
+				continue;
+			this.rebalanceStream.put(new NBAttributeMigrationEvent(q2, next.getEpoch(), from, to, 
+					partition.getObservers(from, to)));
+		}
+		
+		int iMin = next.getIMin(q);
+		int iMax = next.getIMax(q);
+		NBAttributePartition nextPartition = iMin<=iMax ? partition.repartition(next.getEpoch(), iMin, iMax) : null;
+		if (this.projectedTraining)
+		{
+			if (nextPartition!=null)
+				this.slicePartitions.put(q, nextPartition);
+			else
+				this.slicePartitions.remove(q);
+		}
+		else
+		{
+			this.ownPartition = nextPartition;
+		}
+		logger.info("NBAttributeStat id={} rebalanced partition {} to epoch {}, iMin={}, iMax={}",
+				this.processorId,q,next.getEpoch(),iMin,iMax);
+		
+		if (nextPartition!=null && !nextPartition.isMigrating())
+			updateModel(nextPartition); //NBModel learns the new owner of the attributes
+	}
+	
+	/**
+	 * Merge the observers moved to a partition of this processor
+	 */
+	private void receiveMigration(NBAttributeMigrationEvent migration)
 	{
-		//send attribute observers to attStatStream, with iMin and iMax
-		NBAttStatEvent attStatEvt = new NBAttStatEvent(this.attributeObservers, this.iMin,this.iMax);
-		this.attStatStream.put(attStatEvt);
+		int q = migration.getPartition();
+		if (!this.projectedTraining && q!=this.processorId)
+			return; //sent to all NBAttributeStat's, for another partition
+		NBAttributePartition partition = this.projectedTraining ? this.slicePartitions.get(q) : this.ownPartition;
+		if (partition==null)
+		{
+			logger.error("NBAttributeStat id={} has no partition {} to migrate attributes {}~{}",
+					this.processorId,q,migration.getIMin(),migration.getIMax());
+			return;
+		}
+		partition.mergeMigration(migration);
+		if (!partition.isMigrating())
+			updateModel(partition);
 	}
 	
 	
@@ -317,6 +597,15 @@ public class NBAttributeStat implements Processor {
 		private Instances dataset; //store the attribute information
 		private int p1; //parallel number of NBAttributeStat (see NaiveBayes.nParallelAttributeStat)
 		private int updateFrequency=200; // update NBModel every F instances
+		private boolean denseNominalObserver=false;
+		private int fullUpdatePeriod=1;
+		private boolean projectedTraining=false;
+		private NBAttributePartitioning partitioning; //null = EVEN
+		private boolean rebalance=false;
+		private double updateDivergence=0;
+		private int maxStaleInstances=0;
+		private int maxStaleMillis=0;
+		private int trainingThreads=1;
 		
 		public Builder()
 		{}
@@ -326,6 +615,15 @@ public class NBAttributeStat implements Processor {
 			this.dataset = p.dataset;
 			this.p1 = p.p1;
 			this.updateFrequency = p.updateFrequency;
+			this.denseNominalObserver = p.denseNominalObserver;
+			this.fullUpdatePeriod = p.fullUpdatePeriod;
+			this.projectedTraining = p.projectedTraining;
+			this.partitioning = p.partitioning;
+			this.rebalance = p.rebalance;
+			this.updateDivergence = p.updateDivergence;
+			this.maxStaleInstances = p.maxStaleInstances;
+			this.maxStaleMillis = p.maxStaleMillis;
+			this.trainingThreads = p.trainingThreads;
 		}
 		
 		public Builder updateFrequency(int val){
@@ -347,5 +645,50 @@ public class NBAttributeStat implements Processor {
 			this.p1 = val;
             return this;
 		}
+		
+		public Builder denseNominalObserver(boolean val){
+			this.denseNominalObserver = val;
+            return this;
+		}
+		
+		public Builder fullUpdatePeriod(int val){
+			this.fullUpdatePeriod = val;
+            return this;
+		}
+		
+		public Builder projectedTraining(boolean val){
+			this.projectedTraining = val;
+            return this;
+		}
+		
+		public Builder partitioning(NBAttributePartitioning val){
+			this.partitioning = val;
+            return this;
+		}
+		
+		public Builder rebalance(boolean val){
+			this.rebalance = val;
+            return this;
+		}
+		
+		public Builder updateDivergence(double val){
+			this.updateDivergence = val;
+            return this;
+		}
+		
+		public Builder maxStaleInstances(int val){
+			this.maxStaleInstances = val;
+            return this;
+		}
+		
+		public Builder maxStaleMillis(int val){
+			this.maxStaleMillis = val;
+            return this;
+		}
+		
+		public Builder trainingThreads(int val){
+			this.trainingThreads = val;
+            return this;
+		}
 	}
 }
@@ -0,0 +1,110 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+/**
+ * Size of the batches of a buffer of NBDistributor, tuned at runtime to keep
+ * the 99th percentile of the buffering delay under a target latency.
+ *
+ * The delay of an instance is the time from its arrival in the buffer to the flush
+ * of its batch, the part of the prediction latency added by batching.
+ * After every WINDOW_FLUSHES flushes (and at least MIN_WINDOW_INSTANCES instances):
+ *   more than 1% of the instances late      - the batch size is halved
+ *   no instance late, most batches were full - the batch size grows by at most 1/4,
+ *                                              and so that the longest delay stays under the target
+ * so the batches are as large as the traffic allows. Batches flushed by the linger
+ * time or the last event are not full, the size does not grow on a low traffic.
+ * Without target latency the batch size is fixed.
+ * @author hl
+ *
+ */
+final class NBBatchController {
+
+	private static final double LATE_FRACTION = 0.01; //p99
+	private static final int WINDOW_FLUSHES = 20;
+	private static final int MIN_WINDOW_INSTANCES = 100; //to estimate the 99th percentile
+
+	private final int minBatchSize;
+	private final int maxBatchSize;
+	private final long targetNanos; //0 = fixed batch size
+	private int batchSize;
+
+	// since the end of the previous window
+	private int nFlushes = 0;
+	private int nFullFlushes = 0;
+	private long nInstances = 0;
+	private long nLate = 0;
+	private long maxWaitNanos = 0;
+
+	/**
+	 * @param batchSize initial batch size
+	 * @param maxBatchSize the batch size never grows over it
+	 * @param targetNanos target of the 99th percentile of the delay, 0 for a fixed batchSize
+	 */
+	NBBatchController(int batchSize, int maxBatchSize, long targetNanos)
+	{
+		this.minBatchSize = 1;
+		this.maxBatchSize = Math.max(batchSize, maxBatchSize);
+		this.targetNanos = targetNanos;
+		this.batchSize = batchSize;
+	}
+
+	boolean isAdaptive()
+	{
+		return this.targetNanos>0;
+	}
+
+	int getBatchSize()
+	{
+		return this.batchSize;
+	}
+
+	int getMaxBatchSize()
+	{
+		return this.maxBatchSize;
+	}
+
+	long getTargetNanos()
+	{
+		return this.targetNanos;
+	}
+
+	/**
+	 * Record a flushed batch
+	 * @param nSent number of instances of the batch
+	 * @param nLate number of them buffered longer than the target
+	 * @param waitNanos delay of the oldest instance of the batch
+	 * @return true if the batch size is changed
+	 */
+	boolean onFlush(int nSent, int nLate, long waitNanos)
+	{
+		if (!isAdaptive() || nSent==0)
+			return false;
+		this.nFlushes++;
+		if (nSent>=this.batchSize)
+			this.nFullFlushes++;
+		this.nInstances += nSent;
+		this.nLate += nLate;
+		this.maxWaitNanos = Math.max(this.maxWaitNanos, waitNanos);
+		if (this.nFlushes<WINDOW_FLUSHES || this.nInstances<MIN_WINDOW_INSTANCES)
+			return false;
+
+		int previous = this.batchSize;
+		if (this.nLate > this.nInstances*LATE_FRACTION)
+		{
+			this.batchSize = Math.max(this.minBatchSize, this.batchSize/2);
+		}
+		else if (this.nLate==0 && this.nFullFlushes*2>=this.nFlushes)
+		{
+			// the delay grows with the batch size at a steady rate
+			long grown = this.batchSize + Math.max(1, this.batchSize/4);
+			if (this.maxWaitNanos>0)
+				grown = Math.min(grown, (long)(this.batchSize*(double)this.targetNanos/this.maxWaitNanos));
+			this.batchSize = (int)Math.max(this.batchSize, Math.min(this.maxBatchSize, grown));
+		}
+		this.nFlushes = 0;
+		this.nFullFlushes = 0;
+		this.nInstances = 0;
+		this.nLate = 0;
+		this.maxWaitNanos = 0;
+		return this.batchSize!=previous;
+	}
+}
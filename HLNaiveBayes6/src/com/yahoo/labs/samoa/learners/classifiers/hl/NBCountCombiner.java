@@ -0,0 +1,176 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.moa.core.Utils;
+
+/**
+ * Collapse the training batches of a nominal-only dataset into NBCountEvent,
+ * used by NBDistributor with combined training.
+ *
+ * The weights are summed in a dense array of all the cells of the dataset,
+ *   cell (i,v,j) at attOffset[i] + (v+1)*K + j, v=-1 for the missing values
+ * only the touched cells are read back and cleared, a cell touched by instances of
+ * weight 0 is also sent, the observer would create the class of the cell.
+ * @author hl
+ *
+ */
+final class NBCountCombiner {
+
+	private static Logger logger = LoggerFactory.getLogger(NBCountCombiner.class);
+
+	private final InstancesHeader header;
+	private final long schema;
+	private final int K; //number of classes
+	private final int[] attOffset;
+	private final double[] sum;
+	private final boolean[] isTouched;
+	private int[] touched; //cells of the current attribute
+	private int nTouched;
+
+	NBCountCombiner(InstancesHeader header)
+	{
+		this.header = header;
+		this.schema = NBAttributeSliceEvent.schemaId(header);
+		this.K = header.numClasses();
+		int M = header.numAttributes();
+		this.attOffset = new int[M+1];
+		for (int i=0;i<M;i++)
+		{
+			this.attOffset[i+1] = this.attOffset[i] + (header.attribute(i).numValues()+1)*this.K;
+		}
+		this.sum = new double[this.attOffset[M]];
+		this.isTouched = new boolean[this.attOffset[M]];
+		this.touched = new int[64];
+	}
+
+	/**
+	 * The combiner only supports nominal attributes
+	 */
+	static boolean supports(InstancesHeader header)
+	{
+		for (int i=0;i<header.numAttributes();i++)
+		{
+			if (!header.attribute(i).isNominal())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Counts of the attributes iMin~iMax of a batch.
+	 * @param partitioning an instance with an invalid value is not counted on the next attributes
+	 *        of the same partition
+	 */
+	NBCountEvent combine(int partition, int iMin, int iMax, List<Instance> batch,
+			NBAttributePartitioning partitioning)
+	{
+		int n = batch.size();
+		int iClass = this.header.classIndex();
+		int[] classOf = new int[n];
+		int[] classCounts = new int[this.K];
+		for (int r=0;r<n;r++)
+		{
+			classOf[r] = (int)batch.get(r).classValue();
+			classCounts[classOf[r]]++;
+		}
+
+		int[] attStart = new int[iMax-iMin+2];
+		int[] values = new int[64];
+		int[] classes = new int[64];
+		double[] weights = new double[64];
+		int nCells = 0;
+
+		boolean[] blocked = null; //instances with an invalid value in the current partition
+		int q = -1;
+		for (int i=iMin;i<=iMax;i++)
+		{
+			int qi = partitioning.partitionOf(i);
+			if (qi!=q && blocked!=null)
+				Arrays.fill(blocked, false);
+			q = qi;
+
+			Attribute att = this.header.attribute(i);
+			int numValues = att.numValues();
+			int offset = this.attOffset[i];
+			for (int r=0;r<n;r++)
+			{
+				if (blocked!=null && blocked[r])
+					continue;
+				Instance inst = batch.get(r);
+				int j = classOf[r];
+				int v;
+				if (i==iClass)
+				{
+					v = j;
+				}
+				else
+				{
+					double value = inst.value(i);
+					if (Utils.isMissingValue(value))
+					{
+						v = NBCountEvent.MISSING;
+					}
+					else if (value>=numValues || value<0)
+					{
+						//invalid data, ignore it
+						logger.error("invalid data [{}] at attribute [{}].",value,i);
+						if (blocked==null)
+							blocked = new boolean[n];
+						blocked[r] = true;
+						continue;
+					}
+					else
+					{
+						v = (int)value;
+					}
+				}
+				add(offset + (v+1)*this.K + j, inst.weight());
+			}
+
+			// read back the touched cells of the attribute
+			attStart[i-iMin] = nCells;
+			if (nCells+this.nTouched > values.length)
+			{
+				int capacity = Math.max(values.length*2, nCells+this.nTouched);
+				values = Arrays.copyOf(values, capacity);
+				classes = Arrays.copyOf(classes, capacity);
+				weights = Arrays.copyOf(weights, capacity);
+			}
+			for (int t=0;t<this.nTouched;t++)
+			{
+				int cell = this.touched[t]-offset;
+				values[nCells] = cell/this.K - 1;
+				classes[nCells] = cell%this.K;
+				weights[nCells] = this.sum[this.touched[t]];
+				this.sum[this.touched[t]] = 0;
+				this.isTouched[this.touched[t]] = false;
+				nCells++;
+			}
+			this.nTouched = 0;
+		}
+		attStart[iMax-iMin+1] = nCells;
+
+		return new NBCountEvent(partition, this.schema, iMin, iMax, n, classCounts, attStart,
+				Arrays.copyOf(values, nCells), Arrays.copyOf(classes, nCells), Arrays.copyOf(weights, nCells));
+	}
+
+	private void add(int cell, double weight)
+	{
+		if (!this.isTouched[cell])
+		{
+			this.isTouched[cell] = true;
+			if (this.nTouched==this.touched.length)
+				this.touched = Arrays.copyOf(this.touched, this.nTouched*2);
+			this.touched[this.nTouched++] = cell;
+		}
+		this.sum[cell] += weight;
+	}
+}
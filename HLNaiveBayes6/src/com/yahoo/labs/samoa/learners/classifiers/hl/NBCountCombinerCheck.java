@@ -0,0 +1,197 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+
+/**
+ * Runnable check of combined training: NBCountCombiner.combine then
+ * NBAttributePartition.trainOnCounts give the statistics of trainOnInstance
+ * for each instance of the batch, on a nominal-only stream with missing values,
+ * invalid values (an instance is not trained on the next attributes of the same
+ * partition) and zero weights:
+ * <ul>
+ * <li>with projectedTraining, one count event per partition</li>
+ * <li>without, one count event over all the attributes, trained by every partition</li>
+ * </ul>
+ * for both nominal observers. The statistics are compared as received by NBModel,
+ * through full and delta updates. Prints the number of cells sent per instance.
+ * Exits with status 1 if a probability differs by more than TOLERANCE.
+ *
+ * Usage: java com.yahoo.labs.samoa.learners.classifiers.hl.NBCountCombinerCheck [batches] [batchSize] [seed]
+ * @author hl
+ *
+ */
+public final class NBCountCombinerCheck {
+
+	// number of values of each attribute, the class is attribute CLASS_INDEX
+	private static final int[] NUM_VALUES = {3,5,4,2,6,3,4,5};
+	private static final int CLASS_INDEX = 3;
+	private static final int NUM_PARTITIONS = 3;
+
+	private static final double TOLERANCE = 1.0e-9;
+
+	private NBCountCombinerCheck()
+	{}
+
+	public static void main(String[] args)
+	{
+		int nBatches = args.length>0 ? Integer.parseInt(args[0]) : 80;
+		int batchSize = args.length>1 ? Integer.parseInt(args[1]) : 200;
+		long seed = args.length>2 ? Long.parseLong(args[2]) : 7;
+
+		InstancesHeader header = newHeader();
+		boolean ok = true;
+		for (boolean dense : new boolean[]{false, true})
+		{
+			for (boolean projected : new boolean[]{true, false})
+			{
+				ok &= check(header, dense, projected, nBatches, batchSize, new Random(seed));
+			}
+		}
+		if (!ok)
+			System.exit(1);
+	}
+
+	private static boolean check(InstancesHeader header, boolean dense, boolean projected,
+			int nBatches, int batchSize, Random random)
+	{
+		NBAttributePartitioning partitioning = NBAttributePartitioning.create(
+				NBAttributePartitioning.Strategy.EVEN, header, NUM_PARTITIONS, 1);
+		NBAttributePartition[] trained = new NBAttributePartition[NUM_PARTITIONS]; //per instance
+		NBAttributePartition[] combined = new NBAttributePartition[NUM_PARTITIONS];
+		AttributeClassObserver[][] receivedTrained = new AttributeClassObserver[NUM_PARTITIONS][];
+		AttributeClassObserver[][] receivedCombined = new AttributeClassObserver[NUM_PARTITIONS][];
+		for (int q=0;q<NUM_PARTITIONS;q++)
+		{
+			// a full update every 4th update, deltas in between
+			trained[q] = new NBAttributePartition(q, 0, partitioning.getIMin(q), partitioning.getIMax(q),
+					header, dense, new NBUpdatePolicy(1, 4));
+			combined[q] = new NBAttributePartition(q, 0, partitioning.getIMin(q), partitioning.getIMax(q),
+					header, dense, new NBUpdatePolicy(1, 4));
+		}
+
+		NBCountCombiner combiner = new NBCountCombiner(header);
+		long nInstances = 0, nCells = 0;
+		for (int b=0;b<nBatches;b++)
+		{
+			List<Instance> batch = new ArrayList<Instance>(batchSize);
+			for (int r=0;r<batchSize;r++)
+			{
+				Instance inst = newInstance(header, random);
+				batch.add(inst);
+				for (NBAttributePartition partition : trained)
+				{
+					partition.trainOnInstance(inst);
+				}
+			}
+			nInstances += batch.size();
+
+			if (projected)
+			{
+				for (int q=0;q<NUM_PARTITIONS;q++)
+				{
+					NBCountEvent counts = combiner.combine(q, partitioning.getIMin(q), partitioning.getIMax(q),
+							batch, partitioning);
+					nCells += counts.numCells();
+					combined[q].trainOnCounts(counts);
+				}
+			}
+			else
+			{
+				NBCountEvent counts = combiner.combine(NBAttributeSliceEvent.ALL_ATTRIBUTES, 0,
+						header.numAttributes()-1, batch, partitioning);
+				nCells += counts.numCells();
+				for (NBAttributePartition partition : combined)
+				{
+					partition.trainOnCounts(counts);
+				}
+			}
+
+			for (int q=0;q<NUM_PARTITIONS;q++)
+			{
+				receivedTrained[q] = receive(trained[q].newUpdateEvent(), receivedTrained[q]);
+				receivedCombined[q] = receive(combined[q].newUpdateEvent(), receivedCombined[q]);
+			}
+		}
+
+		double maxDiff = 0;
+		for (int q=0;q<NUM_PARTITIONS;q++)
+		{
+			for (int i=partitioning.getIMin(q);i<=partitioning.getIMax(q);i++)
+			{
+				AttributeClassObserver x = receivedTrained[q][i-partitioning.getIMin(q)];
+				AttributeClassObserver y = receivedCombined[q][i-partitioning.getIMin(q)];
+				// P(Cj) is stored with class 0
+				for (int j=0;j<(i==CLASS_INDEX ? 1 : header.numClasses());j++)
+				{
+					for (int v=0;v<NUM_VALUES[i];v++)
+					{
+						maxDiff = Math.max(maxDiff, Math.abs(x.probabilityOfAttributeValueGivenClass(v, j)
+								-y.probabilityOfAttributeValueGivenClass(v, j)));
+					}
+				}
+			}
+		}
+
+		boolean ok = maxDiff<=TOLERANCE;
+		System.out.println((dense ? "dense   " : "sparse  ")+(projected ? "projected " : "all       ")
+				+nInstances+" instances, "+(double)nCells/nInstances+" cells sent per instance, "
+				+"combined vs per instance "+maxDiff+(ok ? " OK" : " FAILED"));
+		return ok;
+	}
+
+	/**
+	 * Observers of a partition received by NBModel after an update
+	 */
+	private static AttributeClassObserver[] receive(NBAttStatEvent update, AttributeClassObserver[] received)
+	{
+		if (!update.isDelta())
+			return update.getAttributeObservers();
+		update.getDelta().applyTo(received);
+		return received;
+	}
+
+	private static Instance newInstance(InstancesHeader header, Random random)
+	{
+		double[] values = new double[NUM_VALUES.length];
+		for (int i=0;i<values.length;i++)
+		{
+			// few values are used, so the cells repeat within a batch
+			values[i] = random.nextInt(Math.min(NUM_VALUES[i], 2));
+			if (i==CLASS_INDEX)
+				continue;
+			if (random.nextInt(30)==0)
+				values[i] = Double.NaN; //missing
+			else if (random.nextInt(100)==0)
+				values[i] = NUM_VALUES[i]+1; //invalid
+		}
+		Instance inst = new DenseInstance(random.nextInt(10)==0 ? 0 : 0.5+random.nextDouble(), values);
+		inst.setDataset(header);
+		return inst;
+	}
+
+	private static InstancesHeader newHeader()
+	{
+		List<Attribute> attributes = new ArrayList<Attribute>(NUM_VALUES.length);
+		for (int i=0;i<NUM_VALUES.length;i++)
+		{
+			List<String> labels = new ArrayList<String>(NUM_VALUES[i]);
+			for (int v=0;v<NUM_VALUES[i];v++)
+			{
+				labels.add(Integer.toString(v));
+			}
+			attributes.add(new Attribute("a"+i, labels));
+		}
+		Instances dataset = new Instances("check", attributes, 0);
+		dataset.setClassIndex(CLASS_INDEX);
+		return new InstancesHeader(dataset);
+	}
+}
@@ -0,0 +1,152 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+
+/**
+ * Carry a batch of training instances of a nominal-only dataset pre-aggregated
+ * into the weights of the cells (i,v,j) of the attributes iMin~iMax:
+ *   the cells of attribute i are at attStart[i-iMin] ~ attStart[i-iMin+1]-1,
+ *   cell c has the value values[c] (MISSING for a missing value), the class classes[c]
+ *   and the summed weight of the instances weights[c]
+ * For the class attribute, the value of a cell is the class.
+ * An instance with an invalid value is only counted on the attributes before it
+ * in its partition, as NBAttributePartition.trainOnInstance.
+ * Built by NBCountCombiner in NBDistributor, sent and keyed as NBAttributeSliceEvent
+ * (partition ALL_ATTRIBUTES for all the attributes), NBAttributeStat adds the weights
+ * instead of training the instances one by one.
+ * @author hl
+ *
+ */
+public class NBCountEvent implements ContentEvent {
+
+	private static final long serialVersionUID = 6079236384728190574L;
+
+	// value of a cell of the missing values
+	static final int MISSING = -1;
+
+	private boolean isLast = false;
+	private int partition;
+	private int routingKey; //key of the replica of the partition, see NBPartitionRouter
+	private long schema; //schemaId of the header of the counts
+	private int iMin; //range of attributes' index
+	private int iMax;
+
+	private int size; //number of instances
+	private int[] classCounts; //number of instances of each class
+	private int[] attStart;
+	private int[] values;
+	private int[] classes;
+	private double[] weights;
+
+	NBCountEvent()
+	{}
+
+	NBCountEvent(int partition, long schema, int iMin, int iMax, int size, int[] classCounts,
+			int[] attStart, int[] values, int[] classes, double[] weights)
+	{
+		this.partition = partition;
+		this.routingKey = partition;
+		this.schema = schema;
+		this.iMin = iMin;
+		this.iMax = iMax;
+		this.size = size;
+		this.classCounts = classCounts;
+		this.attStart = attStart;
+		this.values = values;
+		this.classes = classes;
+		this.weights = weights;
+	}
+
+	@Override
+	public String getKey() {
+		return Integer.toString(this.routingKey);
+	}
+
+	@Override
+	public void setKey(String key) {
+		this.routingKey = Integer.parseInt(key);
+	}
+
+	/**
+	 * Key of the replica training the partition, the partition by default
+	 */
+	void setRoutingKey(int routingKey)
+	{
+		this.routingKey = routingKey;
+	}
+
+	@Override
+	public boolean isLastEvent() {
+		return isLast;
+	}
+
+	public void setLast(boolean isLast) {
+		this.isLast = isLast;
+	}
+
+	public int getPartition()
+	{
+		return this.partition;
+	}
+
+	public long getSchema()
+	{
+		return this.schema;
+	}
+
+	public int getIMin()
+	{
+		return this.iMin;
+	}
+
+	public int getIMax()
+	{
+		return this.iMax;
+	}
+
+	/**
+	 * Number of instances of the batch
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Number of cells
+	 */
+	public int numCells()
+	{
+		return this.values.length;
+	}
+
+	public int getClassCount(int j)
+	{
+		return this.classCounts[j];
+	}
+
+	int getNumClasses()
+	{
+		return this.classCounts.length;
+	}
+
+	int[] getAttStart()
+	{
+		return this.attStart;
+	}
+
+	int[] getValues()
+	{
+		return this.values;
+	}
+
+	int[] getClasses()
+	{
+		return this.classes;
+	}
+
+	double[] getWeights()
+	{
+		return this.weights;
+	}
+}
@@ -0,0 +1,78 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+
+/**
+ * Credit returned to NBDistributor by a downstream processor after it has processed
+ * a batch: by NBAttributeStat or NBTrainer for a training batch (TRAIN), by NBModelProcessor
+ * for a testing batch (TEST). NBDistributor stops sending on a stream when all its
+ * credits are in flight (see NBDistributor, maxInFlightBatches).
+ * The credit of a routed testing batch (NBTestBatchEvent) carries its routing key,
+ * it is also the acknowledgement of least-loaded routing (see NBTestRouter).
+ * A PROBE credit is the acknowledgement of a NBRoutingProbeEvent by an NBAttributeStat,
+ * with the probed key and the id of the processor (see NBPartitionRouter), it is not a credit.
+ * @author hl
+ *
+ */
+public class NBCreditEvent implements ContentEvent {
+
+	private static final long serialVersionUID = -2215987001948532603L;
+
+	static final int TRAIN = 0;
+	static final int TEST = 1;
+	static final int PROBE = 2;
+
+	private boolean isLast = false;
+	private int stream; //TRAIN, TEST or PROBE
+	private int replica; //id of the processor returning the credit, partition of a projected training batch
+	private int routingKey = -1; //key of the routed testing batch or of the probe, -1 if not routed
+
+	NBCreditEvent()
+	{}
+
+	NBCreditEvent(int stream, int replica)
+	{
+		this.stream = stream;
+		this.replica = replica;
+	}
+
+	NBCreditEvent(int stream, int replica, int routingKey)
+	{
+		this(stream, replica);
+		this.routingKey = routingKey;
+	}
+
+	@Override
+	public String getKey() {
+		return Integer.toString(this.replica);
+	}
+
+	@Override
+	public void setKey(String key) {
+		this.replica = Integer.parseInt(key);
+	}
+
+	@Override
+	public boolean isLastEvent() {
+		return isLast;
+	}
+
+	public void setLast(boolean isLast) {
+		this.isLast = isLast;
+	}
+
+	public int getStream()
+	{
+		return this.stream;
+	}
+
+	public int getReplica()
+	{
+		return this.replica;
+	}
+
+	public int getRoutingKey()
+	{
+		return this.routingKey;
+	}
+}
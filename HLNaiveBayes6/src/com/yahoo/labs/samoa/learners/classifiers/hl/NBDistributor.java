@@ -5,7 +5,13 @@ import org.slf4j.LoggerFactory;
 
 import com.yahoo.labs.samoa.core.ContentEvent;
 import com.yahoo.labs.samoa.core.Processor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
 import com.yahoo.labs.samoa.learners.InstanceContentEvent;
 import com.yahoo.labs.samoa.learners.InstancesContentEvent;
 import com.yahoo.labs.samoa.topology.Stream;
@@ -13,6 +19,47 @@ import com.yahoo.labs.samoa.topology.Stream;
 /**
  * The processor to distribute input data to trainStream and testStream
  * to NBAttributeStat's
+ * 
+ * With projected training, a training batch is not sent to all NBAttributeStat's,
+ * it is sliced into one NBAttributeSliceEvent per attribute partition,
+ * each sent by key grouping to the NBAttributeStat owning the partition.
+ * The key of each partition is chosen so the partitions go to distinct replicas:
+ * the keys are probed before the first slice (NBRoutingProbeEvent), the slices
+ * wait in the buffer until the probes are acknowledged or the buffer is full,
+ * see NBPartitionRouter.
+ * With columnar training, a training batch is sent to all NBAttributeStat's
+ * as one NBAttributeSliceEvent of all the attributes.
+ * With combined training (nominal-only datasets), a training batch is collapsed
+ * into the summed weights of its cells (attribute, value, class) before it is sent,
+ * one NBCountEvent per partition if projected, else one of all the attributes.
+ * 
+ * With rebalancing, the training time of the partitions is received from the
+ * NBAttributeStat's (NBPartitionLoadEvent). Every rebalancePeriod training batches,
+ * if a new assignment of the attributes reduces the cost of the slowest partition,
+ * it is sent through trainStream before the next batch (NBRebalanceEvent), and
+ * the observers of the moved attributes are forwarded to their new partition
+ * (NBAttributeMigrationEvent).
+ * 
+ * With a linger time, a buffer is flushed when its oldest instance has waited
+ * that long, checked at every received event (a processor has no timer).
+ * With a target latency, the batch sizes are tuned at runtime to keep the
+ * 99th percentile of the buffering delay under it (see NBBatchController).
+ * 
+ * With flow control (maxInFlightBatches>0), each downstream replica returns a credit
+ * (NBCreditEvent) for every batch it has processed. A stream has maxInFlightBatches
+ * credits per replica, a batch sent to all the replicas takes one credit per replica,
+ * a projected slice takes one credit of its partition (the credit of a slice carries its partition).
+ * A stream waits as soon as one replica has used its credits, so a slow replica
+ * is not hidden by the free credits of the others. The training batches of shuffleTraining
+ * and the testing batches go to one replica chosen by the engine, their credits are pooled:
+ * maxInFlightBatches times the number of replicas.
+ * When the credits of a stream are used, its batch waits in the buffer, and when the
+ * buffer is full the incoming instances of the stream are shed (dropped and counted),
+ * so the memory of the engine queues is bounded. The last instance is never shed.
+ * 
+ * With least-loaded testing, the testing batches are sent by key grouping
+ * (NBTestBatchEvent) to the NBModelProcessor with the fewest unacknowledged
+ * batches, see NBTestRouter.
  * @author hl
  *
  */
@@ -26,35 +73,132 @@ public class NBDistributor implements Processor {
 	private static Logger logger = LoggerFactory.getLogger(NBDistributor.class);
 	
 	private Stream trainStream;
+	private Stream trainEndStream; //to all the replicas, only used by shuffleTraining
 	private Stream testStream;
 	//private Stream aggControlStream;
 	//private Stream aggResponseStream;
 	
 	// add by hl 2014.4.17
 	//send multiple instances together to utilize more of the network
-	private java.util.concurrent.LinkedBlockingQueue<Instance> trainBuffer;
+	// the buffers are preallocated rings, process is single-threaded (see NBInstanceRing)
+	private transient NBInstanceRing trainBuffer;
 	private int trainBufferSize;
 	private int nWaitingTrainInstance;
 	
 	//it is hard to batch test with this NB-6 topology, so i still process the {{ 
 	// testing instances one by one 
 	private final int TestBufferRatio=2;
-	private java.util.concurrent.LinkedBlockingQueue<Instance> testBuffer;
+	private transient NBInstanceRing testBuffer;
 	private int testBufferSize;
 	private int nWaitingTestInstance;
 	//}} del by hl 2014.4.18 
 	
+	// flush a buffer when its oldest instance has waited lingerNanos, 0 = only when full
+	private long lingerNanos=0;
+	// target of the 99th percentile of the buffering delay, 0 = fixed batch sizes
+	private long latencyTargetNanos=0;
+	// the adaptive train batch size never grows over it, test over maxBatchSize*TestBufferRatio
+	private int maxBatchSize;
+	private transient NBBatchController trainController;
+	private transient NBBatchController testController;
+	// the last received event of each buffer, copied by the batch sent on a linger flush
+	private transient InstanceContentEvent trainTemplate;
+	private transient InstanceContentEvent testTemplate;
+	
+	// credits of each downstream replica, 0 = no flow control
+	private int maxInFlightBatches=0;
+	private int p2=1; //number of testing replicas (see NaiveBayes.nParallelModel)
+	// the training batches are sent by shuffle grouping, to one replica (see HorizontalNaiveBayes)
+	private boolean shuffleTraining=false;
+	// training batches sent and not credited yet of each replica (of each partition if projected),
+	// the batches of shuffleTraining are counted in trainInFlight[0]
+	private long[] trainInFlight;
+	private long testInFlight=0;
+	// instances dropped because the credits and the buffer were used
+	private long nShedTrain=0;
+	private long nShedTest=0;
+	private boolean isSheddingTrain=false;
+	private boolean isSheddingTest=false;
+	
+	// route the testing batches to the least loaded replica, see NBTestRouter
+	private boolean leastLoadedTesting=false;
+	private transient NBTestRouter testRouter;
+	
+	// routing keys of the partitions with projected training, see NBPartitionRouter
+	private transient NBPartitionRouter partitionRouter;
+	private transient boolean isProbed;
+	
 	//the whole NB-6 is processing testing data
 	// in this duration, the incoming test data cannot send immediately but
 	// wait until the testing process finished.
 	// The 'finishedTesting' signal is sent from NBAggregator through aggResponseStream
 	private boolean isTesting=false; 
+	
+	// send slices of the training batches, one per partition of attributes
+	private boolean projectedTraining=false;
+	private int p1=1; //number of partitions (see NaiveBayes.nParallelAttributeStat)
+	private Instances dataset; //only use in builder
+	// send the training batches in columns, see NBAttributeSliceEvent
+	private boolean columnarTraining=false;
+	// send the training batches pre-aggregated, see NBCountEvent
+	private boolean combineTraining=false;
+	private transient NBCountCombiner combiner; //only used by combineTraining
+	// training batch being sliced, reused by every sendTrainSlices
+	private transient List<Instance> trainBatch;
+	private InstancesHeader header; //attribute information, only used by projected, columnar or combined training
+	private NBAttributePartitioning partitioning; //only used by projectedTraining, combineTraining or rebalance
+	
+	// check the balance of the partitions every rebalancePeriod training batches, 0 = never
+	private int rebalancePeriod=0;
+	// a new assignment is used if its slowest partition is at most REBALANCE_GAIN of the current one
+	private static final double REBALANCE_GAIN = 0.9;
+	private int nTrainBatches=0; //training batches sent since the previous check
+	// training time and instances of each partition reported since the previous check
+	private long[] loadNanos;
+	private long[] loadInstances;
+	// partitions waiting for the observers of the attributes they gained by the last rebalance,
+	// until they report at its epoch (a migrating partition does not update NBModel)
+	private boolean[] migrating;
+	// the last instance arrived while migrating, its batch is held until the migrations complete
+	// so the updates of the migrated attributes are sent before the end of the stream
+	private boolean trainEndHeld=false;
+	private boolean testEndHeld=false;
 		
 	//private constructor based on Builder pattern
 	private NBDistributor(Builder builder){	
 		// pass parameters
 		this.trainBufferSize = builder.batchSize;
 		this.testBufferSize = builder.batchSize*TestBufferRatio;
+		this.projectedTraining = builder.projectedTraining;
+		this.p1 = builder.p1;
+		this.dataset = builder.dataset;
+		this.columnarTraining = builder.columnarTraining;
+		this.rebalancePeriod = builder.rebalancePeriod;
+		this.combineTraining = builder.combineTraining;
+		this.lingerNanos = builder.lingerMillis*1000000L;
+		this.latencyTargetNanos = builder.latencyTargetMillis*1000000L;
+		this.maxBatchSize = Math.max(builder.batchSize, builder.maxBatchSize);
+		this.maxInFlightBatches = builder.maxInFlightBatches;
+		this.p2 = builder.p2;
+		this.shuffleTraining = builder.shuffleTraining;
+		this.leastLoadedTesting = builder.leastLoadedTesting;
+		if (this.projectedTraining || this.columnarTraining || this.combineTraining || this.rebalancePeriod>0)
+			this.header = new InstancesHeader(this.dataset);
+		if (this.combineTraining && !NBCountCombiner.supports(this.header))
+		{
+			logger.warn("combineTraining is ignored, the dataset has numeric attributes");
+			this.combineTraining = false;
+		}
+		if (this.combineTraining && this.columnarTraining)
+		{
+			// both collapse the instances of a batch, the counts are smaller
+			logger.warn("columnarTraining is ignored, combineTraining takes precedence");
+			this.columnarTraining = false;
+		}
+		this.partitioning = builder.partitioning;
+		if ((this.projectedTraining || this.combineTraining || this.rebalancePeriod>0) && this.partitioning==null)
+			this.partitioning = NBAttributePartitioning.create(NBAttributePartitioning.Strategy.EVEN, 
+					this.header, this.p1, this.trainBufferSize);
 	}
 		
 	@Override
@@ -66,6 +210,41 @@ public class NBDistributor implements Processor {
 //				}
 				//}} only for debug
 		
+		if (this.lingerNanos>0)
+		{
+			checkLinger(System.nanoTime());
+		}
+		
+		// -------------- credits of the downstream processors ------------------
+		if (event instanceof NBCreditEvent)
+		{
+			receiveCredit((NBCreditEvent)event);
+			return true;
+		}
+		
+		// -------------- feedback of the NBAttributeStat's for rebalancing ------------------
+		if (event instanceof NBPartitionLoadEvent)
+		{
+			NBPartitionLoadEvent load = (NBPartitionLoadEvent)event;
+			if (load.getEpoch()==this.partitioning.getEpoch()) //ignore the load of a previous assignment
+			{
+				this.loadNanos[load.getPartition()] += load.getTrainNanos();
+				this.loadInstances[load.getPartition()] += load.getNumInstances();
+				this.migrating[load.getPartition()] = false;
+				releaseEnd();
+			}
+			return true;
+		}
+		
+		if (event instanceof NBAttributeMigrationEvent)
+		{
+			NBAttributeMigrationEvent migration = (NBAttributeMigrationEvent)event;
+			if (this.partitionRouter!=null)
+				migration.setRoutingKey(this.partitionRouter.keyOf(migration.getPartition()));
+			this.trainStream.put(migration); //to the replica of the new partition
+			return true;
+		}
+		
 		if (event instanceof InstanceContentEvent)
 		{
 			InstanceContentEvent ice = (InstanceContentEvent)event;
@@ -80,31 +259,31 @@ public class NBDistributor implements Processor {
 				
 				// modify by hl 2014.4.17 send multiple instances together to utilize more of the network {{
 				//this.trainStream.put(ice);
-				try {
-					this.trainBuffer.put( ice.getInstance() );
+				if (this.partitionRouter!=null && !this.isProbed)
+					sendProbes();
+				//only full if the credits are used
+				if (ice.isLastEvent() && this.nWaitingTrainInstance==this.trainBuffer.capacity())
+					flushTrain(false); //the last instance is never shed
+				this.trainTemplate = ice;
+				if (this.trainBuffer.offer( ice.getInstance(), System.nanoTime() ))
+				{
 					this.nWaitingTrainInstance++;
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+				}
+				else
+				{
+					shedTrain();
 				}
 				
 				// sending the instances in batch
-				if (this.nWaitingTrainInstance>=this.trainBufferSize || ice.isLastEvent() )
+				if (ice.isLastEvent() && isMigrating())
+				{
+					this.trainEndHeld = true;
+					logger.info("end of the training stream is held until the migrations complete");
+				}
+				else if ((this.nWaitingTrainInstance>=this.trainController.getBatchSize() && hasTrainCredit()
+						&& isTrainRouted()) || ice.isLastEvent() )
 				{
-					//send instances
-					InstancesContentEvent outputEvent = new InstancesContentEvent(ice);
-					Instance inst=null;
-					int nInstSended = 0;
-					while ( ((inst=this.trainBuffer.poll())!=null) 
-							&& nInstSended<this.trainBufferSize )
-					{
-						outputEvent.add(inst);
-						nInstSended++;
-					}
-					if (ice.isLastEvent())
-						outputEvent.setLast(true);
-
-					this.nWaitingTrainInstance=0;
-					this.trainStream.put(outputEvent);
+					flushTrain(ice.isLastEvent());
 				}
 				
 				// }}				
@@ -115,31 +294,29 @@ public class NBDistributor implements Processor {
 				// use batch processing 
 				//this.testStream.put(ice);//it's just a test
 				
-				try {
-					this.testBuffer.put( ice.getInstance() );
+				//only full if the credits are used
+				if (ice.isLastEvent() && this.nWaitingTestInstance==this.testBuffer.capacity())
+					flushTest(false); //the last instance is never shed
+				this.testTemplate = ice;
+				if (this.testBuffer.offer( ice.getInstance(), System.nanoTime() ))
+				{
 					this.nWaitingTestInstance++;
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+				}
+				else
+				{
+					shedTest();
 				}
 				
 				// sending the instances in batch
-				if (this.nWaitingTestInstance>=this.testBufferSize || ice.isLastEvent() )
+				if (ice.isLastEvent() && isMigrating())
 				{
-					//send instances
-					InstancesContentEvent outputEvent = new InstancesContentEvent(ice);
-					Instance inst=null;
-					int nInstSended = 0;
-					while ( ((inst=this.testBuffer.poll())!=null) 
-							&& nInstSended<this.testBufferSize )
-					{
-						outputEvent.add(inst);
-						nInstSended++;
-					}
-					if (ice.isLastEvent())
-						outputEvent.setLast(true);
-
-					this.nWaitingTestInstance=0;
-					this.testStream.put(outputEvent);
+					this.testEndHeld = true;
+					logger.info("end of the testing stream is held until the migrations complete");
+				}
+				else if ((this.nWaitingTestInstance>=this.testController.getBatchSize() && hasTestCredit())
+						|| ice.isLastEvent() )
+				{
+					flushTest(ice.isLastEvent());
 				}
 			}
 
@@ -149,15 +326,464 @@ public class NBDistributor implements Processor {
 		
 		return false;
 	}
+	
+	/**
+	 * Flush the buffers whose oldest instance has waited lingerNanos
+	 */
+	private void checkLinger(long now)
+	{
+		if (this.nWaitingTrainInstance>0 && !this.trainEndHeld
+				&& now-this.trainBuffer.oldestNanos()>=this.lingerNanos && hasTrainCredit() && isTrainRouted())
+		{
+			flushTrain(false);
+		}
+		if (this.nWaitingTestInstance>0 && !this.testEndHeld
+				&& now-this.testBuffer.oldestNanos()>=this.lingerNanos && hasTestCredit())
+		{
+			flushTest(false);
+		}
+	}
+	
+	/**
+	 * A credit returns, send the batch waiting for it
+	 */
+	private void receiveCredit(NBCreditEvent credit)
+	{
+		if (credit.getStream()==NBCreditEvent.PROBE)
+		{
+			if (this.partitionRouter==null || this.partitionRouter.isAssigned())
+				return; //late acknowledgement, the keys do not change
+			this.partitionRouter.acknowledge(credit.getRoutingKey(), credit.getReplica());
+			if (this.partitionRouter.isResolved())
+				assignPartitions();
+			if (this.partitionRouter.isAssigned() && !this.trainEndHeld
+					&& this.nWaitingTrainInstance>=this.trainController.getBatchSize() && hasTrainCredit())
+				flushTrain(false);
+			return;
+		}
+		if (credit.getStream()==NBCreditEvent.TRAIN)
+		{
+			int r = this.shuffleTraining ? 0 : credit.getReplica();
+			if (r>=0 && r<this.trainInFlight.length && this.trainInFlight[r]>0)
+				this.trainInFlight[r]--;
+			if (!this.trainEndHeld && this.nWaitingTrainInstance>=this.trainController.getBatchSize()
+					&& hasTrainCredit() && isTrainRouted())
+				flushTrain(false);
+		}
+		else
+		{
+			if (this.testRouter!=null)
+				this.testRouter.acknowledge(credit.getRoutingKey(), credit.getReplica());
+			this.testInFlight = Math.max(0, this.testInFlight-1);
+			if (!this.testEndHeld && this.nWaitingTestInstance>=this.testController.getBatchSize()
+					&& hasTestCredit())
+				flushTest(false);
+		}
+	}
+	
+	private boolean hasTrainCredit()
+	{
+		if (this.maxInFlightBatches<=0)
+			return true;
+		if (this.shuffleTraining)
+			return this.trainInFlight[0] < (long)this.maxInFlightBatches*this.p1;
+		long max = 0;
+		for (long inFlight : this.trainInFlight)
+		{
+			max = Math.max(max, inFlight);
+		}
+		return max < this.maxInFlightBatches;
+	}
+	
+	/**
+	 * Send the probe of each routing key once, see NBPartitionRouter
+	 */
+	private void sendProbes()
+	{
+		this.isProbed = true;
+		for (int key=0;key<this.partitionRouter.numProbeKeys();key++)
+		{
+			this.trainStream.put(new NBRoutingProbeEvent(key));
+		}
+	}
+	
+	/**
+	 * The slices may be sent: the keys of the partitions are assigned,
+	 * or the buffer is full and they are assigned now with the known replicas
+	 */
+	private boolean isTrainRouted()
+	{
+		if (this.partitionRouter==null || this.partitionRouter.isAssigned())
+			return true;
+		if (this.nWaitingTrainInstance<this.trainBuffer.capacity())
+			return false; //wait for the probes
+		assignPartitions();
+		return true;
+	}
+	
+	private void assignPartitions()
+	{
+		if (this.partitionRouter.isAssigned())
+			return;
+		int nShared = this.partitionRouter.assign();
+		StringBuilder sb = new StringBuilder();
+		for (int q=0;q<this.partitioning.numPartitions();q++)
+		{
+			sb.append(" "+q+"->"+this.partitionRouter.replicaOf(q));
+		}
+		if (nShared>0 || !this.partitionRouter.isResolved())
+			logger.warn("{} partitions share a NBAttributeStat (all probes acknowledged: {}), "
+					+ "partition->replica (-1 unknown):{}",nShared,this.partitionRouter.isResolved(),sb.toString());
+		else
+			logger.info("partition->replica:{}",sb.toString());
+	}
+	
+	private boolean hasTestCredit()
+	{
+		return this.maxInFlightBatches<=0 
+				|| this.testInFlight < (long)this.maxInFlightBatches*this.p2;
+	}
+	
+	private void shedTrain()
+	{
+		if (!this.isSheddingTrain)
+		{
+			logger.warn("training is overloaded, {} batches in flight, shedding training instances",
+					getTrainInFlight());
+			this.isSheddingTrain = true;
+		}
+		this.nShedTrain++;
+	}
+	
+	private void shedTest()
+	{
+		if (!this.isSheddingTest)
+		{
+			logger.warn("testing is overloaded, {} batches in flight, shedding testing instances",
+					this.testInFlight);
+			this.isSheddingTest = true;
+		}
+		this.nShedTest++;
+	}
+	
+	/**
+	 * Send a training batch, with flow control it takes a credit of each receiving replica
+	 * @param partition partition of a projected slice, ALL_ATTRIBUTES if the event is sent to all the replicas
+	 *        (to one replica if the training is shuffled)
+	 */
+	private void putTrainBatch(ContentEvent event, int partition)
+	{
+		this.trainStream.put(event);
+		if (this.maxInFlightBatches<=0)
+			return;
+		if (this.shuffleTraining)
+		{
+			this.trainInFlight[0]++;
+		}
+		else if (partition==NBAttributeSliceEvent.ALL_ATTRIBUTES)
+		{
+			for (int r=0;r<this.trainInFlight.length;r++)
+			{
+				this.trainInFlight[r]++;
+			}
+		}
+		else
+		{
+			this.trainInFlight[partition]++;
+		}
+	}
+	
+	/**
+	 * Send the buffered training instances
+	 * @param isLast the batch has the last instance
+	 */
+	private void flushTrain(boolean isLast)
+	{
+		int n = this.nWaitingTrainInstance;
+		long now = System.nanoTime();
+		int nLate = countLate(this.trainBuffer, n, now);
+		long waitNanos = n>0 ? now-this.trainBuffer.oldestNanos() : 0; //an empty last batch is still sent
+		if (this.projectedTraining || this.columnarTraining || this.combineTraining)
+		{
+			sendTrainSlices(isLast);
+		}
+		else
+		{
+			//send instances
+			//the event is owned by the stream once put, so it cannot be reused
+			InstancesContentEvent outputEvent = new InstancesContentEvent(this.trainTemplate);
+			this.trainBuffer.drainTo(outputEvent, n);
+			if (isLast && !this.shuffleTraining)
+				outputEvent.setLast(true);
+
+			this.nWaitingTrainInstance=0;
+			putTrainBatch(outputEvent, NBAttributeSliceEvent.ALL_ATTRIBUTES);
+			if (isLast && this.shuffleTraining)
+			{
+				//a shuffled batch reaches one replica, every replica must see the end
+				InstancesContentEvent end = new InstancesContentEvent(this.trainTemplate);
+				end.setLast(true);
+				this.trainEndStream.put(end);
+			}
+		}
+		if (this.isSheddingTrain)
+		{
+			logger.info("training is resumed, {} training instances shed in total",this.nShedTrain);
+			this.isSheddingTrain = false;
+		}
+		if (!isLast)
+			checkBalance(); //a rebalance started now could not complete before the end
+		if (this.trainController.onFlush(n, nLate, waitNanos))
+			logger.info("train batch size = {}",this.trainController.getBatchSize());
+	}
+	
+	/**
+	 * Send the buffered testing instances
+	 * @param isLast the batch has the last instance
+	 */
+	private void flushTest(boolean isLast)
+	{
+		int n = this.nWaitingTestInstance;
+		long now = System.nanoTime();
+		int nLate = countLate(this.testBuffer, n, now);
+		long waitNanos = n>0 ? now-this.testBuffer.oldestNanos() : 0; //an empty last batch is still sent
+		InstancesContentEvent outputEvent = new InstancesContentEvent(this.testTemplate);
+		this.testBuffer.drainTo(outputEvent, n);
+		if (isLast)
+			outputEvent.setLast(true);
+
+		this.nWaitingTestInstance=0;
+		if (this.testRouter!=null)
+			this.testStream.put(new NBTestBatchEvent(this.testRouter.route(), outputEvent));
+		else
+			this.testStream.put(outputEvent);
+		if (this.maxInFlightBatches>0)
+			this.testInFlight++;
+		if (this.isSheddingTest)
+		{
+			logger.info("testing is resumed, {} testing instances shed in total",this.nShedTest);
+			this.isSheddingTest = false;
+		}
+		if (this.testController.onFlush(n, nLate, waitNanos))
+			logger.info("test batch size = {}",this.testController.getBatchSize());
+	}
+	
+	/**
+	 * Number of the first n buffered instances which waited longer than the target latency
+	 */
+	private int countLate(NBInstanceRing buffer, int n, long now)
+	{
+		if (this.latencyTargetNanos<=0)
+			return 0;
+		return buffer.countArrivedBefore(now-this.latencyTargetNanos, n);
+	}
+
+	/**
+	 * Send the buffered training instances, one slice per partition of attributes,
+	 * or one slice of all the attributes if not projectedTraining,
+	 * as counts if combineTraining
+	 * @param isLast the batch has the last instance
+	 */
+	private void sendTrainSlices(boolean isLast)
+	{
+		List<Instance> batch = this.trainBatch;
+		this.trainBuffer.drainTo(batch, this.nWaitingTrainInstance);
+		this.nWaitingTrainInstance=0;
+		try {
+			sendTrainSlices(batch, isLast);
+		} finally {
+			batch.clear(); //do not keep the sent instances alive
+		}
+	}
+	
+	private void sendTrainSlices(List<Instance> batch, boolean isLast)
+	{
+		int M = this.header.numAttributes();
+		if (this.partitionRouter!=null)
+			assignPartitions(); //the last batch does not wait for the probes
+		if (this.combineTraining)
+		{
+			sendTrainCounts(batch, isLast);
+			return;
+		}
+		if (!this.projectedTraining)
+		{
+			NBAttributeSliceEvent columns = new NBAttributeSliceEvent(NBAttributeSliceEvent.ALL_ATTRIBUTES,
+					0, M-1, this.header, batch.size());
+			for (int r=0;r<batch.size();r++)
+			{
+				columns.add(batch.get(r));
+			}
+			columns.setLast(isLast);
+			putTrainBatch(columns, NBAttributeSliceEvent.ALL_ATTRIBUTES);
+			return;
+		}
+		
+		for (int q=0;q<this.p1;q++)
+		{
+			int iMin = this.partitioning.getIMin(q);
+			int iMax = this.partitioning.getIMax(q);
+			if (iMax<iMin)
+				continue; //partition without attribute
+			NBAttributeSliceEvent slice = new NBAttributeSliceEvent(q, iMin, iMax,
+					this.header, batch.size());
+			for (int r=0;r<batch.size();r++)
+			{
+				slice.add(batch.get(r));
+			}
+			slice.setLast(isLast);
+			slice.setRoutingKey(this.partitionRouter.keyOf(q));
+			putTrainBatch(slice, q);
+		}
+	}
+
+	/**
+	 * Send the counts of a training batch, one event per partition of attributes,
+	 * or one event of all the attributes if not projectedTraining
+	 */
+	private void sendTrainCounts(List<Instance> batch, boolean isLast)
+	{
+		if (!this.projectedTraining)
+		{
+			NBCountEvent counts = this.combiner.combine(NBAttributeSliceEvent.ALL_ATTRIBUTES,
+					0, this.header.numAttributes()-1, batch, this.partitioning);
+			counts.setLast(isLast);
+			putTrainBatch(counts, NBAttributeSliceEvent.ALL_ATTRIBUTES);
+			return;
+		}
+		
+		for (int q=0;q<this.p1;q++)
+		{
+			int iMin = this.partitioning.getIMin(q);
+			int iMax = this.partitioning.getIMax(q);
+			if (iMax<iMin)
+				continue; //partition without attribute
+			NBCountEvent counts = this.combiner.combine(q, iMin, iMax, batch, this.partitioning);
+			counts.setLast(isLast);
+			counts.setRoutingKey(this.partitionRouter.keyOf(q));
+			putTrainBatch(counts, q);
+		}
+	}
+
+	/**
+	 * Every rebalancePeriod training batches, rebalance the partitions with
+	 * the training time reported since the previous check.
+	 * Waits until every partition with attributes has reported some training,
+	 * so the next check is after the migrations of the previous rebalance.
+	 */
+	private void checkBalance()
+	{
+		if (this.rebalancePeriod<=0 || ++this.nTrainBatches<this.rebalancePeriod)
+			return;
+		
+		int p = this.partitioning.numPartitions();
+		double[] measured = new double[p];
+		double slowest = 0;
+		for (int q=0;q<p;q++)
+		{
+			if (this.partitioning.getIMax(q)<this.partitioning.getIMin(q))
+				continue; //no attribute
+			if (this.loadInstances[q]==0)
+				return; //not reported yet
+			measured[q] = (double)this.loadNanos[q]/this.loadInstances[q];
+			slowest = Math.max(slowest, measured[q]);
+		}
+		this.nTrainBatches = 0;
+		Arrays.fill(this.loadNanos, 0);
+		Arrays.fill(this.loadInstances, 0);
+		
+		NBAttributePartitioning next = this.partitioning.rebalance(measured);
+		if (next.getMaxCost() > slowest*REBALANCE_GAIN)
+			return; //not worth moving the observers
+		
+		if (this.projectedTraining)
+		{
+			for (int q=0;q<p;q++)
+			{
+				if (this.partitioning.getIMax(q)<this.partitioning.getIMin(q) && next.getIMax(q)<next.getIMin(q))
+					continue; //no attribute before and after
+				NBRebalanceEvent rebalance = new NBRebalanceEvent(q, this.partitioning, next);
+				rebalance.setRoutingKey(this.partitionRouter.keyOf(q));
+				this.trainStream.put(rebalance);
+			}
+		}
+		else
+		{
+			this.trainStream.put(new NBRebalanceEvent(NBRebalanceEvent.ALL_PARTITIONS, this.partitioning, next));
+		}
+		logger.info("rebalance, slowest partition {} ns/instance, expected {} ns/instance: {}",
+				slowest,next.getMaxCost(),next);
+		for (int q=0;q<p;q++)
+		{
+			//q gains attributes, see NBAttributePartition.repartition
+			boolean wasEmpty = this.partitioning.getIMax(q)<this.partitioning.getIMin(q);
+			this.migrating[q] = next.getIMin(q)<=next.getIMax(q) && (wasEmpty
+					|| next.getIMin(q)<this.partitioning.getIMin(q) || next.getIMax(q)>this.partitioning.getIMax(q));
+		}
+		this.partitioning = next;
+	}
+	
+	private boolean isMigrating()
+	{
+		if (this.migrating==null)
+			return false;
+		for (boolean m : this.migrating)
+		{
+			if (m)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Send the last batches held for the migrations, once they are complete
+	 */
+	private void releaseEnd()
+	{
+		if ((!this.trainEndHeld && !this.testEndHeld) || isMigrating())
+			return;
+		logger.info("migrations complete, the end of the stream is released");
+		if (this.trainEndHeld)
+		{
+			this.trainEndHeld = false;
+			flushTrain(true);
+		}
+		if (this.testEndHeld)
+		{
+			this.testEndHeld = false;
+			flushTest(true);
+		}
+	}
 
 	@Override
 	public void onCreate(int id) {
 		logger.info("NBDistributor created, id = {}",id);
-		this.trainBuffer = new java.util.concurrent.LinkedBlockingQueue<Instance>(this.trainBufferSize);
-		this.testBuffer = new  java.util.concurrent.LinkedBlockingQueue<Instance>(this.testBufferSize);
+		this.trainController = new NBBatchController(this.trainBufferSize, this.maxBatchSize,
+				this.latencyTargetNanos);
+		this.testController = new NBBatchController(this.testBufferSize, this.maxBatchSize*TestBufferRatio,
+				this.latencyTargetNanos);
+		// the adaptive batches may grow up to the max batch sizes
+		int trainCapacity = this.trainController.isAdaptive() ? this.trainController.getMaxBatchSize() : this.trainBufferSize;
+		int testCapacity = this.testController.isAdaptive() ? this.testController.getMaxBatchSize() : this.testBufferSize;
+		this.trainBuffer = new NBInstanceRing(trainCapacity);
+		this.testBuffer = new NBInstanceRing(testCapacity);
+		this.trainBatch = new ArrayList<Instance>(trainCapacity);
+		this.trainInFlight = new long[this.p1];
 		this.nWaitingTrainInstance = 0;
 		this.nWaitingTestInstance = 0;
 		this.isTesting =false;
+		if (this.combineTraining)
+			this.combiner = new NBCountCombiner(this.header);
+		if (this.leastLoadedTesting)
+			this.testRouter = new NBTestRouter(this.p2);
+		if (this.projectedTraining)
+			this.partitionRouter = new NBPartitionRouter(this.p1, this.partitioning.numPartitions());
+		if (this.rebalancePeriod>0)
+		{
+			this.loadNanos = new long[this.p1];
+			this.loadInstances = new long[this.p1];
+			this.migrating = new boolean[this.p1];
+		}
 	}
 
 	@Override
@@ -165,10 +791,25 @@ public class NBDistributor implements Processor {
 		NBDistributor pp = (NBDistributor)p;
 		NBDistributor newP = new NBDistributor.Builder(pp)
 				.batchSize(pp.trainBufferSize)
+				.projectedTraining(pp.projectedTraining)
+				.columnarTraining(pp.columnarTraining)
+				.p1(pp.p1)
+				.dataset(pp.dataset)
+				.partitioning(pp.partitioning)
+				.rebalancePeriod(pp.rebalancePeriod)
+				.combineTraining(pp.combineTraining)
+				.lingerMillis(pp.lingerNanos/1000000L)
+				.latencyTargetMillis(pp.latencyTargetNanos/1000000L)
+				.maxBatchSize(pp.maxBatchSize)
+				.maxInFlightBatches(pp.maxInFlightBatches)
+				.p2(pp.p2)
+				.shuffleTraining(pp.shuffleTraining)
+				.leastLoadedTesting(pp.leastLoadedTesting)
 				//.testBufferSize(pp.testBufferSize)
 				.build();
 		
 		newP.trainStream = pp.trainStream;
+		newP.trainEndStream = pp.trainEndStream;
 		newP.testStream = pp.testStream;
 		//newP.aggControlStream = pp.aggControlStream;
 		//newP.aggResponseStream = pp.aggResponseStream;
@@ -179,9 +820,58 @@ public class NBDistributor implements Processor {
 		this.trainStream = trainStream;
 	}
 
+	/**
+	 * With shuffleTraining, the stream to all the training replicas which carries the end of the training stream
+	 * (an empty batch flagged last), sent after the last batch
+	 */
+	public void setTrainEndStream(Stream trainEndStream) {
+		this.trainEndStream = trainEndStream;
+	}
+
 	public void setTestStream(Stream testStream) {
 		this.testStream = testStream;
 	}
+	
+	/**
+	 * Gauge of the training stream: batches sent and not credited yet, one per receiving replica
+	 */
+	public long getTrainInFlight() {
+		long sum = 0;
+		for (long inFlight : this.trainInFlight)
+		{
+			sum += inFlight;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Training batches sent to a replica (a partition if projected) and not credited yet
+	 */
+	public long getTrainInFlight(int replica) {
+		return this.trainInFlight[replica];
+	}
+	
+	/**
+	 * Gauge of the testing stream: batches sent and not credited yet
+	 */
+	public long getTestInFlight() {
+		return this.testInFlight;
+	}
+	
+	public long getNumShedTrainInstances() {
+		return this.nShedTrain;
+	}
+	
+	public long getNumShedTestInstances() {
+		return this.nShedTest;
+	}
+	
+	/**
+	 * Unacknowledged testing batches of a NBModelProcessor replica, only with least-loaded testing
+	 */
+	public int getTestOutstanding(int replica) {
+		return this.testRouter==null ? 0 : this.testRouter.getOutstanding(replica);
+	}
 
 //	public void setAggControlStream(Stream aggControlStream) {
 //		this.aggControlStream= aggControlStream;
@@ -198,6 +888,20 @@ public class NBDistributor implements Processor {
 	{
 		private int batchSize=200;
 		//private int testBufferSize=200;
+		private boolean projectedTraining=false;
+		private boolean columnarTraining=false;
+		private int p1=1;
+		private Instances dataset;
+		private NBAttributePartitioning partitioning; //null = EVEN
+		private int rebalancePeriod=0;
+		private boolean combineTraining=false;
+		private long lingerMillis=0;
+		private long latencyTargetMillis=0;
+		private int maxBatchSize=0; //0 = batchSize
+		private int maxInFlightBatches=0;
+		private int p2=1;
+		private boolean shuffleTraining=false;
+		private boolean leastLoadedTesting=false;
 		
 		
 		public Builder()
@@ -211,6 +915,76 @@ public class NBDistributor implements Processor {
 	        return this;
 		}
 		
+		public Builder projectedTraining(boolean val){
+			this.projectedTraining = val;
+	        return this;
+		}
+		
+		public Builder columnarTraining(boolean val){
+			this.columnarTraining = val;
+	        return this;
+		}
+		
+		public Builder p1(int val){
+			this.p1 = val;
+	        return this;
+		}
+		
+		public Builder dataset(Instances val){
+			this.dataset = val;
+	        return this;
+		}
+		
+		public Builder partitioning(NBAttributePartitioning val){
+			this.partitioning = val;
+	        return this;
+		}
+		
+		public Builder rebalancePeriod(int val){
+			this.rebalancePeriod = val;
+	        return this;
+		}
+		
+		public Builder combineTraining(boolean val){
+			this.combineTraining = val;
+	        return this;
+		}
+		
+		public Builder lingerMillis(long val){
+			this.lingerMillis = val;
+	        return this;
+		}
+		
+		public Builder latencyTargetMillis(long val){
+			this.latencyTargetMillis = val;
+	        return this;
+		}
+		
+		public Builder maxBatchSize(int val){
+			this.maxBatchSize = val;
+	        return this;
+		}
+		
+		public Builder maxInFlightBatches(int val){
+			this.maxInFlightBatches = val;
+	        return this;
+		}
+		
+		public Builder p2(int val){
+			this.p2 = val;
+	        return this;
+		}
+		
+		public Builder shuffleTraining(boolean val){
+			this.shuffleTraining = val;
+	        return this;
+		}
+		
+		public Builder leastLoadedTesting(boolean val){
+			this.leastLoadedTesting = val;
+	        return this;
+		}
+		
 //		public Builder testBufferSize(int val){
 //			this.testBufferSize = val;
 //	        return this;
@@ -0,0 +1,118 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.List;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.learners.InstancesContentEvent;
+
+/**
+ * Fixed-capacity FIFO of instances on a preallocated array, for the single-threaded
+ * batching of NBDistributor: no node is allocated per instance and no lock is taken.
+ * The slots are cleared when drained, so the ring does not keep the sent instances alive.
+ * The arrival time of each instance is kept for the linger time and the batch controller.
+ * @author hl
+ *
+ */
+final class NBInstanceRing {
+
+	private final Instance[] slots;
+	private final long[] arrivalNanos;
+	private int head = 0; //index of the oldest instance
+	private int size = 0;
+
+	NBInstanceRing(int capacity)
+	{
+		this.slots = new Instance[capacity];
+		this.arrivalNanos = new long[capacity];
+	}
+
+	/**
+	 * @param nanos arrival time, System.nanoTime
+	 * @return false if the ring is full, the instance is not added
+	 */
+	boolean offer(Instance inst, long nanos)
+	{
+		if (this.size==this.slots.length)
+			return false;
+		int tail = this.head+this.size;
+		if (tail>=this.slots.length)
+			tail -= this.slots.length;
+		this.slots[tail] = inst;
+		this.arrivalNanos[tail] = nanos;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * Arrival time of the oldest instance, the ring must not be empty
+	 */
+	long oldestNanos()
+	{
+		return this.arrivalNanos[this.head];
+	}
+
+	/**
+	 * Number of the oldest instances, at most max, arrived before a time
+	 */
+	int countArrivedBefore(long nanos, int max)
+	{
+		int n = Math.min(max, this.size);
+		int k = 0;
+		int slot = this.head;
+		while (k<n && this.arrivalNanos[slot]<nanos) //arrival times are non-decreasing
+		{
+			k++;
+			if (++slot==this.slots.length)
+				slot = 0;
+		}
+		return k;
+	}
+
+	int size()
+	{
+		return this.size;
+	}
+
+	int capacity()
+	{
+		return this.slots.length;
+	}
+
+	/**
+	 * Move the oldest instances, at most max, into a batch
+	 * @return number of instances moved
+	 */
+	int drainTo(List<Instance> batch, int max)
+	{
+		int n = Math.min(max, this.size);
+		for (int k=0;k<n;k++)
+		{
+			batch.add(take());
+		}
+		return n;
+	}
+
+	/**
+	 * Move the oldest instances, at most max, into an event
+	 * @return number of instances moved
+	 */
+	int drainTo(InstancesContentEvent event, int max)
+	{
+		int n = Math.min(max, this.size);
+		for (int k=0;k<n;k++)
+		{
+			event.add(take());
+		}
+		return n;
+	}
+
+	private Instance take()
+	{
+		Instance inst = this.slots[this.head];
+		this.slots[this.head] = null;
+		if (++this.head==this.slots.length)
+			this.head = 0;
+		this.size--;
+		return inst;
+	}
+}
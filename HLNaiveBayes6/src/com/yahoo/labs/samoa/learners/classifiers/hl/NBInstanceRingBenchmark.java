@@ -0,0 +1,102 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.learners.InstanceContentEvent;
+import com.yahoo.labs.samoa.learners.InstancesContentEvent;
+
+/**
+ * GC allocation benchmark of the batching of NBDistributor: bytes allocated per instance
+ * to buffer instances and drain them in batches, with NBInstanceRing and with the
+ * LinkedBlockingQueue it replaced.
+ * The instances are created before, and both buffers are drained into a new
+ * InstancesContentEvent per batch, as NBDistributor sends its batches:
+ * the difference of the two figures is the cost of the queue.
+ * Needs a JVM with com.sun.management.ThreadMXBean (HotSpot, OpenJDK).
+ *
+ * Usage: java com.yahoo.labs.samoa.learners.classifiers.hl.NBInstanceRingBenchmark [batchSize] [numInstances]
+ * @author hl
+ *
+ */
+public final class NBInstanceRingBenchmark {
+
+	private NBInstanceRingBenchmark()
+	{}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int batchSize = args.length>0 ? Integer.parseInt(args[0]) : 200;
+		long numInstances = args.length>1 ? Long.parseLong(args[1]) : 10000000L;
+
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		// the buffers only keep references, any instance will do
+		Instance[] insts = new Instance[1000];
+		for (int i=0;i<insts.length;i++)
+		{
+			insts[i] = newInstance();
+		}
+		InstanceContentEvent template = new InstanceContentEvent(0, insts[0], true, false);
+
+		// warm up, then measure
+		for (int pass=0;pass<2;pass++)
+		{
+			NBInstanceRing ring = new NBInstanceRing(batchSize);
+			long start = threads.getThreadAllocatedBytes(threadId);
+			long nSent = 0;
+			for (long n=0;n<numInstances;n++)
+			{
+				ring.offer(insts[(int)(n%insts.length)], 0L);
+				if (ring.size()==batchSize)
+				{
+					InstancesContentEvent event = new InstancesContentEvent(template);
+					nSent += ring.drainTo(event, batchSize);
+				}
+			}
+			long ringBytes = threads.getThreadAllocatedBytes(threadId)-start;
+
+			LinkedBlockingQueue<Instance> queue = new LinkedBlockingQueue<Instance>(batchSize);
+			start = threads.getThreadAllocatedBytes(threadId);
+			for (long n=0;n<numInstances;n++)
+			{
+				queue.put(insts[(int)(n%insts.length)]);
+				if (queue.size()==batchSize)
+				{
+					InstancesContentEvent event = new InstancesContentEvent(template);
+					Instance inst;
+					while ((inst = queue.poll())!=null)
+					{
+						event.add(inst);
+						nSent++;
+					}
+				}
+			}
+			long queueBytes = threads.getThreadAllocatedBytes(threadId)-start;
+
+			if (pass==1)
+			{
+				System.out.println("batchSize="+batchSize+", "+numInstances+" instances, "+nSent/2+" sent per buffer");
+				System.out.println("  NBInstanceRing          "+(double)ringBytes/numInstances+" bytes/instance");
+				System.out.println("  LinkedBlockingQueue     "+(double)queueBytes/numInstances+" bytes/instance");
+			}
+		}
+	}
+
+	private static Instance newInstance()
+	{
+		return (Instance)Proxy.newProxyInstance(Instance.class.getClassLoader(),
+				new Class<?>[]{Instance.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+}
@@ -0,0 +1,274 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.Arrays;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * NBModelSnapshot as a matrix, to score a batch of testing instances with
+ * one dense matrix multiply (EJML) for the numeric attributes.
+ *
+ * A batch of n instances is encoded as X (n x D), 2 columns per numeric attribute i:
+ *   x', x'^2 where x'=x-center(i)
+ * and the numeric log-votes of the batch are X*W (n x K), where W (D x K) holds
+ * the terms of the expansion of the gaussian log density which depend on x:
+ *   logNorm-h*(x'-mean')^2 = (logNorm-h*mean'^2) + (2*h*mean')*x' + (-h)*x'^2
+ * The terms which do not depend on x are added per instance, as the snapshot does:
+ * log P(Cj), log P(Xi=v|Cj) of the nominal values (a one-hot encoding would multiply
+ * mostly zeros) and logNorm-h*mean'^2 of the numeric values which are not missing.
+ * So W only holds finite values, and log(0) is -Infinity as in PredictionMode.logProbability.
+ * A missing value is encoded as zero columns, i.e. the attribute is ignored.
+ * Attributes are centered so x'^2 does not lose the precision of large values.
+ *
+ * A gaussian with zero variance cannot be expanded, then the model is not
+ * linear and the batch is scored per instance by the snapshot.
+ *
+ * @author hl
+ */
+final class NBMatrixModel {
+
+	// max number of encoded cells (rows*D) of one multiply, larger batches are scored in blocks
+	static final int MAX_ENCODED_CELLS = 1<<22;
+
+	// work matrices X and X*W of each scoring thread, reshaped for each block
+	// and reused by the next batches and models
+	private static final ThreadLocal<DenseMatrix64F[]> WORK = new ThreadLocal<DenseMatrix64F[]>() {
+		@Override
+		protected DenseMatrix64F[] initialValue() {
+			return new DenseMatrix64F[]{new DenseMatrix64F(1, 1), new DenseMatrix64F(1, 1)};
+		}
+	};
+
+	private final NBModelSnapshot snapshot;
+
+	private final int K;
+	private final int A;
+	private final int iClass;
+	private final int D; //number of columns of the encoding
+
+	private final int[] columnOffset; //first column of numeric attribute i, -1 if attribute i is not encoded
+	private final double[] center; //center of numeric attribute i
+	private final double[][] constant; //logNorm-h*mean'^2 of numeric attribute i for each class
+	private final DenseMatrix64F W;
+	private final boolean linear;
+
+	NBMatrixModel(NBModelSnapshot snapshot)
+	{
+		this.snapshot = snapshot;
+		this.K = snapshot.numClasses();
+		this.A = snapshot.numAttributes();
+		this.iClass = snapshot.classIndex();
+		this.columnOffset = new int[A];
+		this.center = new double[A];
+		this.constant = new double[A][];
+
+		// layout of the columns
+		int d = 0;
+		boolean isLinear = true;
+		for (int i=0;i<A;i++)
+		{
+			this.columnOffset[i] = -1;
+			if (i==this.iClass || snapshot.nominalLogProb(i)!=null)
+				continue;
+			if (snapshot.gaussian(i)!=null)
+			{
+				this.columnOffset[i] = d;
+				d += 2;
+				isLinear = isLinear && isLinearGaussian(snapshot.gaussian(i));
+			}
+		}
+		this.D = d;
+		this.linear = isLinear;
+		this.W = isLinear ? buildWeights() : null;
+	}
+
+	NBModelSnapshot getSnapshot()
+	{
+		return this.snapshot;
+	}
+
+	/**
+	 * Get the votes of a batch of instances
+	 * @param insts instances to predict, may contain null
+	 * @return votes of each instance, null for a null instance
+	 */
+	double[][] getVotesForInstances(Instance[] insts)
+	{
+		double[][] votes = new double[insts.length][];
+		getVotesForInstances(insts, 0, insts.length, votes);
+		return votes;
+	}
+
+	/**
+	 * Get the votes of insts[from~to-1] into votes[from~to-1]
+	 * Only reads this model, can be called by several threads at the same time.
+	 */
+	void getVotesForInstances(Instance[] insts, int from, int to, double[][] votes)
+	{
+		if (!this.linear)
+		{
+			for (int r=from;r<to;r++)
+			{
+				if (insts[r]!=null)
+					votes[r] = this.snapshot.getVotesForInstance(insts[r]);
+			}
+			return;
+		}
+
+		int blockRows = Math.max(1, MAX_ENCODED_CELLS/Math.max(1, this.D));
+		for (int blockFrom=from;blockFrom<to;blockFrom+=blockRows)
+		{
+			scoreBlock(insts, blockFrom, Math.min(to, blockFrom+blockRows), votes);
+		}
+	}
+
+	private void scoreBlock(Instance[] insts, int from, int to, double[][] votes)
+	{
+		int n = to-from;
+		DenseMatrix64F S = null;
+		if (this.D>0)
+		{
+			DenseMatrix64F[] work = WORK.get();
+			DenseMatrix64F X = work[0];
+			X.reshape(n, this.D, false);
+			Arrays.fill(X.data, 0, n*this.D, 0.0);
+			for (int r=0;r<n;r++)
+			{
+				Instance inst = insts[from+r];
+				if (inst!=null)
+					encode(inst, X.data, r*this.D);
+			}
+			S = work[1];
+			S.reshape(n, this.K, false);
+			CommonOps.mult(X, this.W, S);
+		}
+
+		for (int r=0;r<n;r++)
+		{
+			Instance inst = insts[from+r];
+			if (inst==null)
+				continue;
+			double[] v = this.snapshot.logPrior().clone();
+			if (S!=null)
+			{
+				for (int j=0;j<this.K;j++)
+				{
+					v[j] += S.data[r*this.K+j];
+				}
+			}
+			addConstantTerms(inst, v);
+			NBModelProcessor.normalizeLogVotes(v);
+			votes[from+r] = v;
+		}
+	}
+
+	// encode the numeric values of an instance into row x[base ~ base+D-1], the row is all zeros
+	private void encode(Instance inst, double[] x, int base)
+	{
+		for (int i=0;i<this.A;i++)
+		{
+			int col = this.columnOffset[i];
+			if (col<0 || inst.isMissing(i))
+				continue;
+			double xc = inst.value(i)-this.center[i];
+			x[base+col] = xc;
+			x[base+col+1] = xc*xc;
+		}
+	}
+
+	// add the log-probabilities of the nominal values and the constant terms of the numeric values
+	private void addConstantTerms(Instance inst, double[] votes)
+	{
+		for (int i=0;i<this.A;i++)
+		{
+			if (i==this.iClass || inst.isMissing(i))
+				continue;
+
+			double[] table = this.snapshot.nominalLogProb(i);
+			if (table!=null)
+			{
+				int v = (int)inst.value(i);
+				if (v<0 || v>=this.snapshot.numValues(i))
+					continue; //invalid value is ignored, same as the snapshot
+				int base = v*this.K;
+				for (int j=0;j<this.K;j++)
+				{
+					votes[j] += table[base+j];
+				}
+				continue;
+			}
+
+			double[] c = this.constant[i];
+			if (c!=null)
+			{
+				for (int j=0;j<this.K;j++)
+				{
+					votes[j] += c[j];
+				}
+			}
+		}
+	}
+
+	private DenseMatrix64F buildWeights()
+	{
+		DenseMatrix64F w = new DenseMatrix64F(Math.max(1, this.D), this.K);
+		for (int i=0;i<this.A;i++)
+		{
+			int col = this.columnOffset[i];
+			if (col<0)
+				continue;
+
+			double[] g = this.snapshot.gaussian(i);
+			this.center[i] = gaussianCenter(g);
+			this.constant[i] = new double[this.K];
+			for (int j=0;j<this.K;j++)
+			{
+				int gBase = j*NBModelSnapshot.G_SIZE;
+				double logNorm = g[gBase+NBModelSnapshot.G_LOG_NORM];
+				if (logNorm==Double.NEGATIVE_INFINITY)
+				{
+					this.constant[i][j] = Double.NEGATIVE_INFINITY; //class not observed, density is 0
+					continue;
+				}
+				double h = g[gBase+NBModelSnapshot.G_HALF_INV_VAR];
+				double mean = g[gBase+NBModelSnapshot.G_MEAN]-this.center[i];
+				this.constant[i][j] = logNorm-h*mean*mean;
+				w.set(col, j, 2.0*h*mean);
+				w.set(col+1, j, -h);
+			}
+		}
+		return w;
+	}
+
+	// mean of the class means, only of the observed classes
+	private double gaussianCenter(double[] g)
+	{
+		double sum = 0.0;
+		int n = 0;
+		for (int j=0;j<this.K;j++)
+		{
+			int gBase = j*NBModelSnapshot.G_SIZE;
+			if (g[gBase+NBModelSnapshot.G_LOG_NORM]!=Double.NEGATIVE_INFINITY)
+			{
+				sum += g[gBase+NBModelSnapshot.G_MEAN];
+				n++;
+			}
+		}
+		return n>0 ? sum/n : 0.0;
+	}
+
+	private boolean isLinearGaussian(double[] g)
+	{
+		for (int j=0;j<this.K;j++)
+		{
+			int gBase = j*NBModelSnapshot.G_SIZE;
+			if (g[gBase+NBModelSnapshot.G_LOG_NORM]!=Double.NEGATIVE_INFINITY
+					&& Double.isInfinite(g[gBase+NBModelSnapshot.G_HALF_INV_VAR]))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,154 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.GaussianNumericAttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.NominalAttributeClassObserver;
+
+/**
+ * Runnable check of PredictionMode.batchMatrix: the votes of NBMatrixModel are those
+ * of the NBModelSnapshot it is built from, on
+ * <ul>
+ * <li>a mixed schema with large numeric values, missing nominal and numeric values,
+ * and a class which is never observed (its votes are 0 in both)</li>
+ * <li>a wide schema, 50 nominal attributes of 100 values and 10 numeric attributes</li>
+ * </ul>
+ * The models are scored one after the other, so the reused work matrices are reshaped.
+ * Exits with status 1 if a vote differs by more than TOLERANCE.
+ *
+ * Usage: java com.yahoo.labs.samoa.learners.classifiers.hl.NBMatrixModelCheck [instances] [seed]
+ * @author hl
+ *
+ */
+public final class NBMatrixModelCheck {
+
+	private static final double TOLERANCE = 1.0e-12;
+
+	private NBMatrixModelCheck()
+	{}
+
+	public static void main(String[] args)
+	{
+		int N = args.length>0 ? Integer.parseInt(args[0]) : 2000;
+		long seed = args.length>1 ? Long.parseLong(args[1]) : 1;
+		Random random = new Random(seed);
+
+		// 3 and 5 values, 2 numeric, class of 4 values, class 3 never observed
+		int[] mixed = {3,0,5,0,4};
+		// 50 nominal of 100 values, 10 numeric, class of 5 values
+		int[] wide = new int[61];
+		for (int i=0;i<50;i++)
+		{
+			wide[i] = 100;
+		}
+		wide[60] = 5;
+
+		boolean ok = true;
+		ok &= check("mixed", mixed, 3, N, random);
+		ok &= check("wide ", wide, 5, N, random);
+		ok &= check("mixed", mixed, 3, N, random);
+		if (!ok)
+			System.exit(1);
+	}
+
+	/**
+	 * Train a model on N random instances, then score them with the snapshot and the matrix
+	 * @param nValues number of values of each attribute, 0 if numeric, the last one is the class
+	 * @param nObserved classes 0~nObserved-1 are observed
+	 */
+	private static boolean check(String name, int[] nValues, int nObserved, int N, Random random)
+	{
+		int A = nValues.length;
+		int iClass = A-1;
+		InstancesHeader header = newHeader(nValues);
+		AttributeClassObserver[] observers = new AttributeClassObserver[A];
+		for (int i=0;i<A;i++)
+		{
+			observers[i] = nValues[i]>0 ? new NominalAttributeClassObserver()
+					: new GaussianNumericAttributeClassObserver();
+		}
+
+		Instance[] insts = new Instance[N];
+		for (int n=0;n<N;n++)
+		{
+			int c = random.nextInt(nObserved);
+			double[] values = new double[A];
+			for (int i=0;i<iClass;i++)
+			{
+				if (nValues[i]>0)
+					values[i] = (c*7+random.nextInt(Math.min(30, nValues[i])))%nValues[i];
+				else
+					values[i] = i%2==1 ? 5000+c*2+random.nextGaussian()*1000 : c+random.nextGaussian();
+				if (random.nextInt(15)==0)
+					values[i] = Double.NaN; //missing
+			}
+			values[iClass] = c;
+			Instance inst = new DenseInstance(1.0, values);
+			inst.setDataset(header);
+			insts[n] = inst;
+			observers[iClass].observeAttributeClass(c, 0, 1.0);
+			for (int i=0;i<iClass;i++)
+			{
+				if (!inst.isMissing(i))
+					observers[i].observeAttributeClass(values[i], c, 1.0);
+			}
+		}
+
+		NBModelSnapshot snapshot = NBModelSnapshot.empty(header).update(observers, 0, A-1);
+		double[][] matrixVotes = new NBMatrixModel(snapshot).getVotesForInstances(insts);
+		double maxDiff = 0;
+		int nUnobservedZero = 0;
+		for (int n=0;n<N;n++)
+		{
+			double[] votes = snapshot.getVotesForInstance(insts[n]);
+			for (int j=0;j<votes.length;j++)
+			{
+				double diff = Math.abs(votes[j]-matrixVotes[n][j]);
+				maxDiff = Double.isNaN(diff) ? Double.POSITIVE_INFINITY : Math.max(maxDiff, diff);
+			}
+			boolean zero = true;
+			for (int j=nObserved;j<votes.length;j++)
+			{
+				zero &= votes[j]==0 && matrixVotes[n][j]==0;
+			}
+			if (zero)
+				nUnobservedZero++;
+		}
+
+		boolean ok = maxDiff<=TOLERANCE && nUnobservedZero==N;
+		System.out.println(name+" "+(A-1)+" attributes, "+N+" instances: max difference "+maxDiff
+				+", votes of the unobserved classes 0 for "+nUnobservedZero+" instances"
+				+(ok ? " OK" : " FAILED"));
+		return ok;
+	}
+
+	private static InstancesHeader newHeader(int[] nValues)
+	{
+		List<Attribute> attributes = new ArrayList<Attribute>(nValues.length);
+		for (int i=0;i<nValues.length;i++)
+		{
+			if (nValues[i]==0)
+			{
+				attributes.add(new Attribute("a"+i));
+				continue;
+			}
+			List<String> labels = new ArrayList<String>(nValues[i]);
+			for (int v=0;v<nValues[i];v++)
+			{
+				labels.add(Integer.toString(v));
+			}
+			attributes.add(new Attribute("a"+i, labels));
+		}
+		Instances dataset = new Instances("check", attributes, 0);
+		dataset.setClassIndex(nValues.length-1);
+		return new InstancesHeader(dataset);
+	}
+}
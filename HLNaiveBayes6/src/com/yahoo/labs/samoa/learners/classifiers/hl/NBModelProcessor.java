@@ -1,6 +1,9 @@
 package com.yahoo.labs.samoa.learners.classifiers.hl;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.yahoo.labs.samoa.core.ContentEvent;
 import com.yahoo.labs.samoa.core.Processor;
@@ -32,12 +35,14 @@ import org.slf4j.LoggerFactory;
 // multiple NBModel that test instances
 // receive model update information from NBAttributeStat
 // send classification result to resultStream
+// with coalesceUpdates, the received updates are compiled when scoring needs them (see NBUpdateCoalescer)
 
 public class NBModelProcessor implements Processor{
 	private static final long serialVersionUID = 5861167167021535214L;
 	private static Logger logger = LoggerFactory.getLogger(NBModelProcessor.class);
 	
 	private Stream resultStream;
+	private Stream creditStream; //to NBDistributor, only used by flow control, see NBCreditEvent
 	
 	private int processorId;
 	
@@ -61,20 +66,86 @@ public class NBModelProcessor implements Processor{
 	 */
 	private DoubleVector nClass;
 	
+	/**
+	 * Compiled model used by PredictionMode.logProbability and batchMatrix,
+	 * rebuilt for the received attribute range at every updateModel.
+	 * Each update swaps in a new immutable version, scoring reads one version
+	 * per instance or batch, so it never sees a half-applied update.
+	 */
+	private AtomicReference<NBModelSnapshot> model;
+	
+	/**
+	 * Matrix form of model used by PredictionMode.batchMatrix
+	 */
+	private transient NBMatrixModel matrixModel;
+	
+	// epoch of the partition owning each attribute, see NBAttStatEvent.getEpoch
+	private int[] attributeEpoch;
+	
 	private int m_K; //numClasses
 	private int m_A; //numAttributes
 	
 	private int nBinForNumAtt=10; // bin number for numeric attributes
 	
+	/**
+	 * How the votes of a testing instance are computed.
+	 *  probability    - multiply P(Cj)*P(Xi|Cj) directly, may underflow to all-zero votes
+	 *  logProbability - sum log P(Cj)+log P(Xi|Cj), then normalize once at the end
+	 *  batchMatrix    - same as logProbability, but a batch of testing instances
+	 *                   is scored with one matrix multiply, see NBMatrixModel
+	 */
+	public enum PredictionMode{
+		probability,
+		logProbability,
+		batchMatrix
+	}
+	
+	// probability by default, as before the log-space modes were added
+	private PredictionMode predictionMode = PredictionMode.probability;
+	
+	// number of threads to score a batch of testing instances, 1 = no parallel scoring
+	private int scoringThreads = 1;
+	
+	// send the results of a testing batch in one NBResultsContentEvent
+	private boolean batchResults = false;
+	
+	// 0 = results carry the instance and all votes,
+	// k>0 = lean results with only the instance index, true class and top-k votes (always batched)
+	private int resultTopK = 0;
+	
+	// a batch is split into chunks of at most this number of instances for parallel scoring
+	private static final int PARALLEL_SCORING_CHUNK = 64;
+	
+	// only created if scoringThreads>1, scores chunks of a batch on the immutable model,
+	// shut down after the last testing batch
+	private transient ForkJoinPool scoringPool;
+	
+	// defer the compile of the updates until scoring, see NBUpdateCoalescer
+	private boolean coalesceUpdates = false;
+	// with coalesceUpdates, instances trained and not compiled allowed when scoring
+	private int maxModelStaleness = 0;
+	private transient NBUpdateCoalescer coalescer;
+	
 	public void setResultStream(Stream resultStream)
 	{
 		this.resultStream = resultStream;
 	}
 	
+	public void setCreditStream(Stream creditStream)
+	{
+		this.creditStream = creditStream;
+	}
+	
 	//private constructor based on Builder pattern
 	private NBModelProcessor(Builder builder){
 			this.dataset = builder.dataset;
 			this.nBinForNumAtt = builder.bin;
+			this.predictionMode = builder.predictionMode;
+			this.scoringThreads = builder.scoringThreads;
+			this.batchResults = builder.batchResults;
+			this.resultTopK = builder.resultTopK;
+			this.coalesceUpdates = builder.coalesceUpdates;
+			this.maxModelStaleness = builder.maxModelStaleness;
 			this.header = new InstancesHeader(dataset);		
 	}
 	
@@ -83,6 +154,7 @@ public class NBModelProcessor implements Processor{
 		NBModelProcessor pp = (NBModelProcessor)p;
 		NBModelProcessor newP = new NBModelProcessor.Builder(pp).build();
 		newP.resultStream = pp.resultStream;
+		newP.creditStream = pp.creditStream;
 		
 		return newP;
 	}
@@ -124,10 +196,39 @@ public class NBModelProcessor implements Processor{
 	       this.attributeObservers.set(i, obs);
 		}
 		
+		this.model = new AtomicReference<NBModelSnapshot>(NBModelSnapshot.empty(this.header));
+		this.attributeEpoch = new int[A];
+		if (this.coalesceUpdates)
+		{
+			if (this.predictionMode==PredictionMode.probability)
+			{
+				// the observers are scored as they are updated, there is no compilation to defer
+				logger.warn("coalesceUpdates and maxModelStaleness={} are ignored with predictionMode=probability",
+						this.maxModelStaleness);
+			}
+			else
+			{
+				this.coalescer = new NBUpdateCoalescer(A, this.maxModelStaleness);
+			}
+		}
+		
+		if (this.scoringThreads>1)
+		{
+			if (this.predictionMode==PredictionMode.probability)
+			{
+				// the observers are not immutable, only the compiled model is scored in parallel
+				logger.warn("scoringThreads={} is ignored, predictionMode=probability is scored by 1 thread",this.scoringThreads);
+			}
+			else
+			{
+				this.scoringPool = new ForkJoinPool(this.scoringThreads);
+			}
+		}
+		
 		this.m_K=K;
 		this.m_A=A;
 		
-		logger.info("K={},A={}",K,A);
+		logger.info("K={},A={},predictionMode={}",K,A,this.predictionMode);
 	}
 
 	
@@ -152,6 +253,14 @@ public class NBModelProcessor implements Processor{
 			
 			logger.info("K={},A={}",this.m_K,this.m_A);
 			logger.info("nClass={}",this.nClass);
+			// the end of the stream: nothing pending may stay out of the model
+			// (no processor is removed, a last event is the only chance)
+			if (this.coalescer!=null)
+			{
+				compilePending();
+				logger.info("updates received={}, skipped={}, compiled {} times",this.coalescer.getNumReceived(),
+						this.coalescer.getNumSkipped(),this.coalescer.getNumCompiled());
+			}
 			//logger.info("nValuesForAtt",Arrays.toString(this.nValuesForAtt));
 			//for (int i=0;i<this.m_K;i++)
 			//	logger.info("nClassAttValue[{}]={}",i,this.nClassAttValue.get(i));
@@ -171,7 +280,7 @@ public class NBModelProcessor implements Processor{
 			
 			//[!]
 			//logger.debug("event is testing={}?is train={}",ice.isTesting(),ice.isTraining());
-			ResultContentEvent rce =null;
+			ContentEvent rce =null;
 			
 			if (ice.isTesting())
 			{
@@ -205,27 +314,28 @@ public class NBModelProcessor implements Processor{
 			// only process testing instance, do not consider training data
 			if (isce.isTesting())
 			{
-				boolean isLast =false;
-				Instance[] insts = isce.getInstances();
-				for (int i=0;i<insts.length-1;i++)
-				{
-					ResultContentEvent rce =predictInstance(insts[i], isce.getInstanceIndex()+i,isLast,isce.getEvaluationIndex());
-					this.resultStream.put(rce);
-				}
+				testBatch(isce);
 				
-				//send last instance
-				if (isce.isLastEvent())
-				{
-					isLast=true;
-				}
-				ResultContentEvent rce =predictInstance(insts[insts.length-1], isce.getInstanceIndex()+insts.length-1,isLast,isce.getEvaluationIndex());
-				this.resultStream.put(rce);
+				// the batch is scored, NBDistributor may send the next one
+				if (this.creditStream!=null)
+					this.creditStream.put(new NBCreditEvent(NBCreditEvent.TEST, this.processorId));
 			}
 			//TODO: if NBModel need to consider training data, should add more code
 			// but in NB-6 NBModel only test instances, and the training data 
 			// is processed in NBAttributeStat
 		}
 		
+		// -------- a testing batch routed to this replica by NBDistributor ------
+		if (event instanceof NBTestBatchEvent)
+		{
+			NBTestBatchEvent routed = (NBTestBatchEvent)event;
+			testBatch(routed.getBatch());
+			// acknowledged with its key, NBDistributor learns the replica of the key
+			if (this.creditStream!=null)
+				this.creditStream.put(new NBCreditEvent(NBCreditEvent.TEST, this.processorId, routed.getRoutingKey()));
+			return true;
+		}
+		
 		// add by hl 2014.4.18 updateModel when receiving NBAttStatEvent
 		if (event instanceof NBAttStatEvent)
 		{
@@ -238,12 +348,70 @@ public class NBModelProcessor implements Processor{
 	}
 
 
+	/**
+	 * Score a batch of testing instances and send the results
+	 */
+	private void testBatch(InstancesContentEvent isce)
+	{
+		checkStaleness();
+		Instance[] insts = isce.getInstances();
+		NBModelSnapshot snapshot = this.model.get(); //the whole batch is scored by one version
+		double[][] votes = getVotesForInstances(snapshot, insts);
+		NBResultsContentEvent results = (this.batchResults || this.resultTopK>0) ? newResultsContentEvent(insts.length) : null;
+		boolean lastSent = false;
+		for (int i=0;i<insts.length;i++)
+		{
+			if (insts[i]==null)
+			{
+				logger.warn("event has null instance.");
+				continue;
+			}
+			double[] v = checkVotes(insts[i], votes[i]);
+			if (v==null)
+				continue;
+			
+			long instanceIndex = isce.getInstanceIndex()+i;
+			if (results!=null)
+			{
+				results.add(instanceIndex, insts[i], (int)insts[i].classValue(), v);
+				continue;
+			}
+			
+			//send last instance
+			boolean isLast = isce.isLastEvent() && i==insts.length-1;
+			this.resultStream.put(newResultContentEvent(v,insts[i],instanceIndex,isLast,isce.getEvaluationIndex()));
+			lastSent = isLast;
+		}
+		
+		// the last batch is empty or its last instance is not scored, the end is still sent
+		if (results==null && isce.isLastEvent() && !lastSent)
+			this.resultStream.put(NBResultsContentEvent.newEndResult(this.processorId, isce.getEvaluationIndex()));
+		
+		// one event for the whole batch
+		if (results!=null && (results.size()>0 || isce.isLastEvent()))
+		{
+			results.setLast(isce.isLastEvent());
+			results.setClassifierIndex(this.processorId);
+			results.setEvaluationIndex(isce.getEvaluationIndex());
+			results.setModelVersion(modelVersion(snapshot));
+			this.resultStream.put(results);
+		}
+		
+		// no processor is removed, the last batch is the end of the pool
+		// (a later straggler is scored by this thread)
+		if (isce.isLastEvent() && this.scoringPool!=null)
+		{
+			this.scoringPool.shutdown();
+			this.scoringPool = null;
+		}
+	}
+	
 	/**
 	 * Predict test instance
 	 * @param event
 	 * @return true if successful predicted
 	 */
-	private ResultContentEvent predict(InstanceContentEvent event)
+	private ContentEvent predict(InstanceContentEvent event)
 	{
 		return predictInstance(event.getInstance(),event.getInstanceIndex(),event.isLastEvent(),event.getEvaluationIndex());
 	}
@@ -253,15 +421,48 @@ public class NBModelProcessor implements Processor{
 	 * @param inst instance to predict
 	 * @return true if successful predicted
 	 */
-	private ResultContentEvent predictInstance(Instance inst, long instanceIndex, boolean isLast,int evaluationIndex)
+	private ContentEvent predictInstance(Instance inst, long instanceIndex, boolean isLast,int evaluationIndex)
 	{
+		// a last instance which is not scored still sends the end
 		if (inst==null)
 		{
 			logger.warn("event has null instance.");
-			return null;
+			return isLast ? NBResultsContentEvent.newEndResult(this.processorId, evaluationIndex) : null;
 		}
 				
-		double[] votes = getVotesForInstance(inst);
+		checkStaleness();
+		NBModelSnapshot snapshot = this.model.get();
+		double[] votes = checkVotes(inst, getVotesForInstance(snapshot, inst));
+		if (votes==null)
+			return isLast ? NBResultsContentEvent.newEndResult(this.processorId, evaluationIndex) : null;
+		if (this.resultTopK>0)
+		{
+			// lean result is only sent as NBResultsContentEvent
+			NBResultsContentEvent results = newResultsContentEvent(1);
+			results.add(instanceIndex, inst, (int)inst.classValue(), votes);
+			results.setLast(isLast);
+			results.setClassifierIndex(this.processorId);
+			results.setEvaluationIndex(evaluationIndex);
+			results.setModelVersion(modelVersion(snapshot));
+			return results;
+		}
+		ResultContentEvent rce =  newResultContentEvent(votes,inst,instanceIndex,isLast,evaluationIndex);
+		
+		//[!]
+		//logger.debug("true Class={},votes={}",event.getClassId(),Arrays.toString(votes));
+		//logger.debug("end predict instance.");
+
+		return rce;
+	}
+	
+	/**
+	 * Check the votes of a predicted instance before sending them to the evaluator
+	 * @param inst the predicted instance
+	 * @param votes votes of the instance
+	 * @return the votes, resized to hold the class of inst. null if votes is null
+	 */
+	private double[] checkVotes(Instance inst, double[] votes)
+	{
 		// if votes==null,
 		// the ResultContentEvent created with null votes will cause
 		// evaluator crash!
@@ -276,13 +477,7 @@ public class NBModelProcessor implements Processor{
 		{
 			votes = Arrays.copyOf(votes, (int)inst.classValue()+1 );
 		}
-		ResultContentEvent rce =  newResultContentEvent(votes,inst,instanceIndex,isLast,evaluationIndex);
-		
-		//[!]
-		//logger.debug("true Class={},votes={}",event.getClassId(),Arrays.toString(votes));
-		//logger.debug("end predict instance.");
-
-		return rce;
+		return votes;
 	}
 	
 	/**
@@ -316,7 +511,64 @@ public class NBModelProcessor implements Processor{
 	}
 	
 	
-	private double[] getVotesForInstance(Instance inst) {
+	/**
+	 * New event to send the results of capacity instances, lean if resultTopK>0
+	 */
+	private NBResultsContentEvent newResultsContentEvent(int capacity)
+	{
+		return new NBResultsContentEvent(capacity, this.header.numClasses(), this.resultTopK);
+	}
+	
+	/**
+	 * Get the votes of a batch of testing instances
+	 * @param snapshot version of the model to score the batch
+	 * @param insts instances, may contain null
+	 * @return votes of each instance, null for a null instance
+	 */
+	private double[][] getVotesForInstances(NBModelSnapshot snapshot, Instance[] insts)
+	{
+		if (this.scoringPool!=null && insts.length>PARALLEL_SCORING_CHUNK)
+		{
+			// chunks are written to their own rows of votes, so the order is kept
+			double[][] votes = new double[insts.length][];
+			NBMatrixModel matrix = this.predictionMode==PredictionMode.batchMatrix ? getMatrixModel(snapshot) : null;
+			this.scoringPool.invoke(new ScoringTask(snapshot, matrix, insts, votes, 0, insts.length));
+			return votes;
+		}
+		
+		if (this.predictionMode==PredictionMode.batchMatrix)
+		{
+			return getMatrixModel(snapshot).getVotesForInstances(insts);
+		}
+		
+		double[][] votes = new double[insts.length][];
+		for (int i=0;i<insts.length;i++)
+		{
+			if (insts[i]!=null)
+				votes[i] = getVotesForInstance(snapshot, insts[i]);
+		}
+		return votes;
+	}
+	
+	/**
+	 * Matrix form of a snapshot, only rebuilt after the model is updated
+	 */
+	private NBMatrixModel getMatrixModel(NBModelSnapshot snapshot)
+	{
+		NBMatrixModel matrix = this.matrixModel;
+		if (matrix==null || matrix.getSnapshot()!=snapshot)
+		{
+			matrix = new NBMatrixModel(snapshot);
+			this.matrixModel = matrix;
+		}
+		return matrix;
+	}
+	
+	private double[] getVotesForInstance(NBModelSnapshot snapshot, Instance inst) {
+		if (this.predictionMode!=PredictionMode.probability)
+		{
+			return snapshot.getVotesForInstance(inst);
+		}
         return doNaiveBayesPrediction(inst, this.nClass,
                 this.attributeObservers);
     }
@@ -353,10 +605,42 @@ public class NBModelProcessor implements Processor{
                 }
             }
         }
-        // TODO: need logic to prevent underflow?
+        // underflow is handled by NBModelSnapshot (PredictionMode.logProbability)
         return votes;
     }
 	
+	/**
+	 * Turn log-votes into probabilities in place: exp(v-max), then divide by the sum.
+	 * If no class has a non-zero probability, all votes become 0 (same as the
+	 * result of doNaiveBayesPrediction in this case).
+	 * @param votes log-votes of each class
+	 */
+	static void normalizeLogVotes(double[] votes)
+	{
+		double max = Double.NEGATIVE_INFINITY;
+		for (int j=0;j<votes.length;j++)
+		{
+			if (votes[j]>max)
+				max = votes[j];
+		}
+		if (max==Double.NEGATIVE_INFINITY || Double.isNaN(max))
+		{
+			Arrays.fill(votes, 0.0);
+			return;
+		}
+		
+		double sum = 0.0;
+		for (int j=0;j<votes.length;j++)
+		{
+			votes[j] = Math.exp(votes[j]-max);
+			sum += votes[j];
+		}
+		for (int j=0;j<votes.length;j++)
+		{
+			votes[j] /= sum;
+		}
+	}
+	
 
 	private AttributeClassObserver newNominalClassObserver() {
 	        return new NominalAttributeClassObserver();
@@ -469,21 +753,172 @@ public class NBModelProcessor implements Processor{
 	//add by hl 2014.4.18 updateModel
 	private void updateModel(NBAttStatEvent attStatEvt)
 	{
+			if (this.coalescer!=null && !this.coalescer.accept(attStatEvt))
+			{
+				// superseded by a newer update of the range
+				if (attStatEvt.isLastEvent())
+					compilePending();
+				return;
+			}
+			
 	// update attributeObservers from attribute iMin to attribute iMax
+	// the observers of a full update are copied: the event may be shared by all model replicas,
+	// and the next delta updates change the observers in place
+	// scoring only reads the compiled snapshot
+	// an attribute moved by a rebalance is only updated by its new partition,
+	// a late update of its previous partition (earlier epoch) is ignored
 			int iMin = attStatEvt.getIMin();
 			int iMax = attStatEvt.getIMax();
-			AttributeClassObserver[] attObservers = attStatEvt.getAttributeObservers();
+			int epoch = attStatEvt.getEpoch();
+			boolean[] stale = new boolean[iMax-iMin+1];
 			for (int i=iMin;i<=iMax;i++)
 			{
-				this.attributeObservers.set(i, attObservers[i-iMin]);
+				if (epoch<this.attributeEpoch[i])
+					stale[i-iMin] = true;
+				else
+					this.attributeEpoch[i] = epoch;
+			}
+			
+			AttributeClassObserver[] attObservers;
+			if (attStatEvt.isDelta())
+			{
+				AttributeClassObserver[] observers = new AttributeClassObserver[iMax-iMin+1];
+				for (int i=iMin;i<=iMax;i++)
+				{
+					if (!stale[i-iMin])
+						observers[i-iMin] = this.attributeObservers.get(i);
+				}
+				// only the changed attributes are compiled again
+				attObservers = attStatEvt.getDelta().applyTo(observers);
+			}
+			else
+			{
+				AttributeClassObserver[] received = attStatEvt.getAttributeObservers();
+				attObservers = new AttributeClassObserver[received.length];
+				for (int i=iMin;i<=iMax;i++)
+				{
+					AttributeClassObserver obs = received[i-iMin];
+					if (stale[i-iMin] || obs==null)
+						continue;
+					attObservers[i-iMin] = obs.copy();
+					this.attributeObservers.set(i, attObservers[i-iMin]);
+				}
+			}
+			
+			if (this.coalescer!=null)
+			{
+				// compiled when a testing instance needs it
+				this.coalescer.add(attObservers, iMin, iMax);
+				if (attStatEvt.isLastEvent())
+					compilePending();
+				return;
 			}
+			swapIn(attObservers, iMin, iMax);
+	}
+	
+	/**
+	 * Compile the observers of attributes iMin~iMax into the next version of the model
+	 */
+	private void swapIn(AttributeClassObserver[] attObservers, int iMin, int iMax)
+	{
+		// PredictionMode.probability scores the observers, which the updates change in place:
+		// nothing is compiled and there is no version
+		if (this.predictionMode==PredictionMode.probability)
+			return;
+		// build the next version from the current one and swap it in,
+		// updates are only applied by the thread of process, scoring threads only read it
+		NBModelSnapshot current = this.model.get();
+		this.model.set(current.update(attObservers, iMin, iMax));
+	}
+	
+	/**
+	 * Version of the snapshot which scored the results, NO_VERSION if the observers scored them
+	 */
+	private long modelVersion(NBModelSnapshot snapshot)
+	{
+		return this.predictionMode!=PredictionMode.probability ?
+				snapshot.version() : NBResultsContentEvent.NO_VERSION;
+	}
+	
+	/**
+	 * Compile the coalesced updates if the model is too stale to score
+	 */
+	private void checkStaleness()
+	{
+		if (this.coalescer!=null && this.coalescer.isCompileDue())
+			compilePending();
+	}
+	
+	private void compilePending()
+	{
+		if (!this.coalescer.hasPending())
+			return;
+		int iMin = this.coalescer.getPendingIMin();
+		int iMax = this.coalescer.getPendingIMax();
+		swapIn(this.coalescer.takePending(), iMin, iMax);
 	}
 		
+	/**
+	 * Score insts[from~to-1] into votes[from~to-1],
+	 * split in halves until a chunk is at most PARALLEL_SCORING_CHUNK instances.
+	 * Only the immutable snapshot (and its matrix) is read.
+	 */
+	private static class ScoringTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = -3585734214693021617L;
+		
+		private final NBModelSnapshot snapshot;
+		private final NBMatrixModel matrix; //null if scored per instance
+		private final Instance[] insts;
+		private final double[][] votes;
+		private final int from;
+		private final int to;
+		
+		ScoringTask(NBModelSnapshot snapshot, NBMatrixModel matrix, Instance[] insts, double[][] votes, int from, int to)
+		{
+			this.snapshot = snapshot;
+			this.matrix = matrix;
+			this.insts = insts;
+			this.votes = votes;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if (this.to-this.from<=PARALLEL_SCORING_CHUNK)
+			{
+				if (this.matrix!=null)
+				{
+					this.matrix.getVotesForInstances(this.insts, this.from, this.to, this.votes);
+					return;
+				}
+				for (int i=this.from;i<this.to;i++)
+				{
+					if (this.insts[i]!=null)
+						this.votes[i] = this.snapshot.getVotesForInstance(this.insts[i]);
+				}
+				return;
+			}
+			
+			int mid = (this.from+this.to)>>>1;
+			invokeAll(new ScoringTask(this.snapshot, this.matrix, this.insts, this.votes, this.from, mid),
+					new ScoringTask(this.snapshot, this.matrix, this.insts, this.votes, mid, this.to));
+		}
+	}
+	
 	static class Builder
 	{
 		//required parameters
 		private Instances dataset;
 		private int bin;
+		private PredictionMode predictionMode = PredictionMode.probability;
+		private int scoringThreads = 1;
+		private boolean batchResults = false;
+		private int resultTopK = 0;
+		private boolean coalesceUpdates = false;
+		private int maxModelStaleness = 0;
 		
 		NBModelProcessor build()
 		{
@@ -504,9 +939,45 @@ public class NBModelProcessor implements Processor{
 			return this;
 		}
 		
+		public Builder predictionMode(PredictionMode val) {
+			this.predictionMode = val;
+			return this;
+		}
+		
+		public Builder scoringThreads(int val) {
+			this.scoringThreads = val;
+			return this;
+		}
+		
+		public Builder batchResults(boolean val) {
+			this.batchResults = val;
+			return this;
+		}
+		
+		public Builder resultTopK(int val) {
+			this.resultTopK = val;
+			return this;
+		}
+		
+		public Builder coalesceUpdates(boolean val) {
+			this.coalesceUpdates = val;
+			return this;
+		}
+		
+		public Builder maxModelStaleness(int val) {
+			this.maxModelStaleness = val;
+			return this;
+		}
+		
 		Builder(NBModelProcessor oldProcessor){
 			this.dataset = oldProcessor.dataset;
 			this.bin = oldProcessor.nBinForNumAtt;
+			this.predictionMode = oldProcessor.predictionMode;
+			this.scoringThreads = oldProcessor.scoringThreads;
+			this.batchResults = oldProcessor.batchResults;
+			this.resultTopK = oldProcessor.resultTopK;
+			this.coalesceUpdates = oldProcessor.coalesceUpdates;
+			this.maxModelStaleness = oldProcessor.maxModelStaleness;
 		}
 	}
 }
@@ -0,0 +1,315 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.io.Serializable;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.DenseNominalAttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.GaussianNumericAttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.NominalAttributeClassObserver;
+import com.yahoo.labs.samoa.moa.core.DoubleVector;
+
+/**
+ * Immutable compiled NB model used by NBModelProcessor to score instances.
+ *
+ * The attribute observers received in NBAttStatEvent are compiled into flat
+ * primitive tables, so scoring an instance is only array indexing:
+ *   nominal attribute i: nominalLogProb[i][v*K+j] = log P(Xi=v|Cj)
+ *   numeric attribute i: gaussian[i][j*3+0,1,2] = mean, 1/(2*var), log(1/(std*sqrt(2PI))) of Cj
+ *   class attribute:     logPrior[j] = log P(Cj)
+ * An update compiles only the received attribute range into a new snapshot,
+ * the tables of the other attributes are shared with the old snapshot.
+ * Each snapshot has a version, incremented by every update.
+ *
+ * @author hl
+ */
+final class NBModelSnapshot implements Serializable {
+
+	private static final long serialVersionUID = -6301958871093424405L;
+
+	// offsets of the gaussian constants of a class
+	static final int G_MEAN = 0;
+	static final int G_HALF_INV_VAR = 1;
+	static final int G_LOG_NORM = 2;
+	static final int G_SIZE = 3;
+
+	private final long version;
+	
+	private final int K; //number of classes
+	private final int A; //number of attributes, including the class attribute
+	private final int iClass; //index of the class attribute
+	private final boolean[] isNominal;
+	private final int[] numValues; //V(i) of nominal attributes
+
+	private final double[] logPrior;
+	private final double[][] nominalLogProb; //null if attribute i is numeric or not received yet
+	private final double[][] gaussian; //null if attribute i is nominal or not received yet
+
+	private NBModelSnapshot(NBModelSnapshot s, double[] logPrior, double[][] nominalLogProb, double[][] gaussian)
+	{
+		this.version = s.version+1;
+		this.K = s.K;
+		this.A = s.A;
+		this.iClass = s.iClass;
+		this.isNominal = s.isNominal;
+		this.numValues = s.numValues;
+		this.logPrior = logPrior;
+		this.nominalLogProb = nominalLogProb;
+		this.gaussian = gaussian;
+	}
+
+	private NBModelSnapshot(InstancesHeader header)
+	{
+		this.version = 0;
+		this.K = header.numClasses();
+		this.A = header.numAttributes();
+		this.iClass = header.classIndex();
+		this.isNominal = new boolean[A];
+		this.numValues = new int[A];
+		for (int i=0;i<A;i++)
+		{
+			this.isNominal[i] = header.attribute(i).isNominal();
+			this.numValues[i] = this.isNominal[i] ? header.attribute(i).numValues() : 0;
+		}
+		this.logPrior = new double[K]; //uniform until the class attribute is received
+		this.nominalLogProb = new double[A][];
+		this.gaussian = new double[A][];
+	}
+
+	/**
+	 * Empty model, nothing is compiled. All attributes are ignored when scoring.
+	 */
+	static NBModelSnapshot empty(InstancesHeader header)
+	{
+		return new NBModelSnapshot(header);
+	}
+
+	/**
+	 * Compile the observers of attributes iMin~iMax into a new snapshot.
+	 * This snapshot is not changed.
+	 * @param attObservers observers of attribute iMin to iMax
+	 * @param iMin min index of the attributes
+	 * @param iMax max index of the attributes
+	 * @return the new snapshot, with the next version
+	 */
+	NBModelSnapshot update(AttributeClassObserver[] attObservers, int iMin, int iMax)
+	{
+		double[] newLogPrior = this.logPrior;
+		double[][] newNominalLogProb = this.nominalLogProb.clone();
+		double[][] newGaussian = this.gaussian.clone();
+
+		for (int i=iMin;i<=iMax;i++)
+		{
+			AttributeClassObserver obs = attObservers[i-iMin];
+			if (obs==null)
+				continue;
+
+			if (i==this.iClass)
+			{
+				newLogPrior = compilePrior(obs);
+			}
+			else if (this.isNominal[i])
+			{
+				newNominalLogProb[i] = compileNominal(obs, this.numValues[i]);
+			}
+			else
+			{
+				newGaussian[i] = compileNumeric(obs);
+			}
+		}
+		return new NBModelSnapshot(this, newLogPrior, newNominalLogProb, newGaussian);
+	}
+
+	/**
+	 * Get the votes of an instance.
+	 * Sums the log-probabilities of the instance values, then normalizes once.
+	 * Missing values and attributes not received yet are ignored.
+	 * @param inst instance to predict
+	 * @return votes of each class, sum to 1 (or all 0 if no class is possible)
+	 */
+	double[] getVotesForInstance(Instance inst)
+	{
+		double[] votes = this.logPrior.clone();
+		for (int i=0;i<this.A;i++)
+		{
+			if (i==this.iClass || inst.isMissing(i))
+				continue;
+
+			double[] table = this.nominalLogProb[i];
+			if (table!=null)
+			{
+				int v = (int)inst.value(i);
+				if (v<0 || v>=this.numValues[i])
+					continue; //invalid value, it is never trained either
+				int base = v*this.K;
+				for (int j=0;j<this.K;j++)
+				{
+					votes[j] += table[base+j];
+				}
+				continue;
+			}
+
+			double[] g = this.gaussian[i];
+			if (g!=null)
+			{
+				double x = inst.value(i);
+				for (int j=0;j<this.K;j++)
+				{
+					votes[j] += logDensity(g, j, x);
+				}
+			}
+		}
+		NBModelProcessor.normalizeLogVotes(votes);
+		return votes;
+	}
+
+	/**
+	 * log of the gaussian density of x given class j, same as
+	 * GaussianNumericAttributeClassObserver.logProbabilityDensityOfAttributeValueGivenClass
+	 * a zero variance is stored as halfInvVar=Infinity, logNorm=0 (density is 1 at the mean, else 0),
+	 * an unobserved class is stored as logNorm=-Infinity (density is 0).
+	 */
+	static double logDensity(double[] g, int j, double x)
+	{
+		int base = j*G_SIZE;
+		double diff = x-g[base+G_MEAN];
+		if (diff==0.0)
+			return g[base+G_LOG_NORM];
+		return g[base+G_LOG_NORM] - diff*diff*g[base+G_HALF_INV_VAR];
+	}
+
+	long version()
+	{
+		return this.version;
+	}
+	
+	int numClasses()
+	{
+		return this.K;
+	}
+
+	int numAttributes()
+	{
+		return this.A;
+	}
+
+	int classIndex()
+	{
+		return this.iClass;
+	}
+
+	int numValues(int i)
+	{
+		return this.numValues[i];
+	}
+
+	/**
+	 * @return log P(Cj), must not be changed
+	 */
+	double[] logPrior()
+	{
+		return this.logPrior;
+	}
+
+	/**
+	 * @return table of nominal attribute i, null if not compiled. Must not be changed
+	 */
+	double[] nominalLogProb(int i)
+	{
+		return this.nominalLogProb[i];
+	}
+
+	/**
+	 * @return gaussian constants of numeric attribute i, null if not compiled. Must not be changed
+	 */
+	double[] gaussian(int i)
+	{
+		return this.gaussian[i];
+	}
+
+	// P(Cj) is stored in the observer of the class attribute as P( X[iClass]=j | C0 )
+	private double[] compilePrior(AttributeClassObserver obs)
+	{
+		double[] prior = new double[this.K];
+		for (int j=0;j<this.K;j++)
+		{
+			prior[j] = Math.log(obs.probabilityOfAttributeValueGivenClass(j, 0));
+		}
+		return prior;
+	}
+
+	private double[] compileNominal(AttributeClassObserver obs, int V)
+	{
+		double[] table = new double[V*this.K];
+		if (obs instanceof NominalAttributeClassObserver)
+		{
+			// same smoothing as NominalAttributeClassObserver.probabilityOfAttributeValueGivenClass,
+			// but sumOfValues() is computed only once per class
+			NominalAttributeClassObserver nominalObs = (NominalAttributeClassObserver)obs;
+			for (int j=0;j<this.K;j++)
+			{
+				DoubleVector dist = nominalObs.attValDistPerClass.get(j);
+				if (dist==null)
+				{
+					for (int v=0;v<V;v++)
+						table[v*this.K+j] = Double.NEGATIVE_INFINITY;
+					continue;
+				}
+				double logDenominator = Math.log(dist.sumOfValues()+dist.numValues());
+				for (int v=0;v<V;v++)
+				{
+					table[v*this.K+j] = Math.log(dist.getValue(v)+1.0) - logDenominator;
+				}
+			}
+			return table;
+		}
+
+		if (obs instanceof DenseNominalAttributeClassObserver)
+		{
+			// same layout as the table, one log of the denominator per class
+			DenseNominalAttributeClassObserver denseObs = (DenseNominalAttributeClassObserver)obs;
+			double[] logDenominator = new double[this.K];
+			for (int j=0;j<this.K;j++)
+			{
+				double classTotal = denseObs.getClassTotal(j);
+				logDenominator[j] = classTotal==0.0 ? Double.POSITIVE_INFINITY : Math.log(classTotal+V);
+			}
+			for (int v=0;v<V;v++)
+			{
+				for (int j=0;j<this.K;j++)
+				{
+					table[v*this.K+j] = Math.log(denseObs.getWeight(v, j)+1.0) - logDenominator[j];
+				}
+			}
+			return table;
+		}
+
+		for (int v=0;v<V;v++)
+		{
+			for (int j=0;j<this.K;j++)
+			{
+				table[v*this.K+j] = Math.log(obs.probabilityOfAttributeValueGivenClass(v, j));
+			}
+		}
+		return table;
+	}
+
+	private double[] compileNumeric(AttributeClassObserver obs)
+	{
+		if (!(obs instanceof GaussianNumericAttributeClassObserver))
+			return null; // unknown numeric observer, ignore the attribute
+
+		// the observer caches the constants of each class
+		GaussianNumericAttributeClassObserver gaussianObs = (GaussianNumericAttributeClassObserver)obs;
+		double[] g = new double[this.K*G_SIZE];
+		for (int j=0;j<this.K;j++)
+		{
+			int base = j*G_SIZE;
+			g[base+G_MEAN] = gaussianObs.getMeanOfClass(j);
+			g[base+G_HALF_INV_VAR] = gaussianObs.getHalfInverseVarianceOfClass(j);
+			g[base+G_LOG_NORM] = gaussianObs.getLogNormalizerOfClass(j);
+		}
+		return g;
+	}
+}
@@ -0,0 +1,225 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
+
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.DenseNominalAttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.GaussianNumericAttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.NominalAttributeClassObserver;
+import com.yahoo.labs.samoa.moa.core.DoubleVector;
+
+/**
+ * Binary encoding of the attribute observers sent in NBAttStatEvent.
+ * An observer is written as a type tag and its state as packed primitive arrays:
+ *   TYPE_NOMINAL:  total, missing, nClasses, per class: length (-1 if not observed), weights
+ *   TYPE_DENSE:    V, K, total, missing, counts[V*K], classTotals[K]
+ *   TYPE_GAUSSIAN: numBins, nClasses, per class: observed flag, then estimator states (STATE_SIZE doubles)
+ *   TYPE_OTHER:    Java serialization of the observer
+ * Arrays of doubles and ints are written as one byte block, not value by value.
+ *
+ * @author hl
+ */
+final class NBObserverCodec {
+
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_NOMINAL = 1;
+	private static final byte TYPE_DENSE = 2;
+	private static final byte TYPE_GAUSSIAN = 3;
+	private static final byte TYPE_OTHER = 4;
+
+	private NBObserverCodec()
+	{}
+
+	static void write(ObjectOutput out, AttributeClassObserver obs) throws IOException
+	{
+		if (obs==null)
+		{
+			out.writeByte(TYPE_NULL);
+		}
+		else if (obs.getClass()==NominalAttributeClassObserver.class)
+		{
+			out.writeByte(TYPE_NOMINAL);
+			writeNominal(out, (NominalAttributeClassObserver)obs);
+		}
+		else if (obs.getClass()==DenseNominalAttributeClassObserver.class)
+		{
+			out.writeByte(TYPE_DENSE);
+			writeDense(out, (DenseNominalAttributeClassObserver)obs);
+		}
+		else if (obs.getClass()==GaussianNumericAttributeClassObserver.class)
+		{
+			out.writeByte(TYPE_GAUSSIAN);
+			writeGaussian(out, (GaussianNumericAttributeClassObserver)obs);
+		}
+		else
+		{
+			// subclasses may have more state, keep the generic serialization
+			out.writeByte(TYPE_OTHER);
+			out.writeObject(obs);
+		}
+	}
+
+	static AttributeClassObserver read(ObjectInput in) throws IOException, ClassNotFoundException
+	{
+		byte type = in.readByte();
+		switch (type)
+		{
+		case TYPE_NULL:
+			return null;
+		case TYPE_NOMINAL:
+			return readNominal(in);
+		case TYPE_DENSE:
+			return readDense(in);
+		case TYPE_GAUSSIAN:
+			return readGaussian(in);
+		case TYPE_OTHER:
+			return (AttributeClassObserver)in.readObject();
+		default:
+			throw new IOException("unknown attribute observer type "+type);
+		}
+	}
+
+	private static void writeNominal(ObjectOutput out, NominalAttributeClassObserver obs) throws IOException
+	{
+		out.writeDouble(obs.totalWeightOfClassObservations());
+		out.writeDouble(obs.weightOfObservedMissingValues());
+		int nClasses = obs.attValDistPerClass.size();
+		out.writeInt(nClasses);
+		for (int j=0;j<nClasses;j++)
+		{
+			DoubleVector valDist = obs.attValDistPerClass.get(j);
+			if (valDist==null)
+			{
+				out.writeInt(-1);
+				continue;
+			}
+			int n = valDist.numValues();
+			out.writeInt(n);
+			writeDoubles(out, valDist.getArrayRef(), 0, n);
+		}
+	}
+
+	private static NominalAttributeClassObserver readNominal(ObjectInput in) throws IOException
+	{
+		NominalAttributeClassObserver obs = new NominalAttributeClassObserver();
+		double totalWeight = in.readDouble();
+		double missingWeight = in.readDouble();
+		obs.setObservedWeights(totalWeight, missingWeight);
+		int nClasses = in.readInt();
+		for (int j=0;j<nClasses;j++)
+		{
+			int n = in.readInt();
+			obs.attValDistPerClass.set(j, n<0 ? null : new DoubleVector(readDoubles(in, n)));
+		}
+		return obs;
+	}
+
+	private static void writeDense(ObjectOutput out, DenseNominalAttributeClassObserver obs) throws IOException
+	{
+		int V = obs.getNumValues();
+		int K = obs.getNumClasses();
+		out.writeInt(V);
+		out.writeInt(K);
+		out.writeDouble(obs.totalWeightOfClassObservations());
+		out.writeDouble(obs.weightOfObservedMissingValues());
+		writeDoubles(out, obs.getCountsRef(), 0, V*K);
+		double[] classTotals = new double[K];
+		for (int j=0;j<K;j++)
+		{
+			classTotals[j] = obs.getClassTotal(j);
+		}
+		writeDoubles(out, classTotals, 0, K);
+	}
+
+	private static DenseNominalAttributeClassObserver readDense(ObjectInput in) throws IOException
+	{
+		int V = in.readInt();
+		int K = in.readInt();
+		double totalWeight = in.readDouble();
+		double missingWeight = in.readDouble();
+		DenseNominalAttributeClassObserver obs = new DenseNominalAttributeClassObserver(V, K);
+		obs.setState(readDoubles(in, V*K), readDoubles(in, K), totalWeight, missingWeight);
+		return obs;
+	}
+
+	private static void writeGaussian(ObjectOutput out, GaussianNumericAttributeClassObserver obs) throws IOException
+	{
+		int size = GaussianNumericAttributeClassObserver.STATE_SIZE;
+		int nClasses = obs.getNumClassesObserved();
+		double[] state = new double[nClasses*size];
+		boolean[] observed = new boolean[nClasses];
+		for (int j=0;j<nClasses;j++)
+		{
+			observed[j] = obs.getEstimatorState(j, state, j*size);
+		}
+		out.writeInt(obs.numBinsOption.getValue());
+		out.writeInt(nClasses);
+		for (int j=0;j<nClasses;j++)
+		{
+			out.writeBoolean(observed[j]);
+		}
+		writeDoubles(out, state, 0, state.length);
+	}
+
+	private static GaussianNumericAttributeClassObserver readGaussian(ObjectInput in) throws IOException
+	{
+		int size = GaussianNumericAttributeClassObserver.STATE_SIZE;
+		int numBins = in.readInt();
+		int nClasses = in.readInt();
+		boolean[] observed = new boolean[nClasses];
+		for (int j=0;j<nClasses;j++)
+		{
+			observed[j] = in.readBoolean();
+		}
+		double[] state = readDoubles(in, nClasses*size);
+		GaussianNumericAttributeClassObserver obs = new GaussianNumericAttributeClassObserver();
+		obs.numBinsOption.setValue(numBins);
+		for (int j=0;j<nClasses;j++)
+		{
+			if (observed[j])
+				obs.setEstimatorState(j, state, j*size);
+		}
+		return obs;
+	}
+
+	/**
+	 * Write values[offset~offset+length-1] as one block of 8*length bytes
+	 */
+	static void writeDoubles(ObjectOutput out, double[] values, int offset, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length*8);
+		buffer.asDoubleBuffer().put(values, offset, length);
+		out.write(buffer.array());
+	}
+
+	static double[] readDoubles(ObjectInput in, int length) throws IOException
+	{
+		byte[] bytes = new byte[length*8];
+		in.readFully(bytes);
+		double[] values = new double[length];
+		ByteBuffer.wrap(bytes).asDoubleBuffer().get(values);
+		return values;
+	}
+
+	/**
+	 * Write values[offset~offset+length-1] as one block of 4*length bytes
+	 */
+	static void writeInts(ObjectOutput out, int[] values, int offset, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length*4);
+		buffer.asIntBuffer().put(values, offset, length);
+		out.write(buffer.array());
+	}
+
+	static int[] readInts(ObjectInput in, int length) throws IOException
+	{
+		byte[] bytes = new byte[length*4];
+		in.readFully(bytes);
+		int[] values = new int[length];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+		return values;
+	}
+}
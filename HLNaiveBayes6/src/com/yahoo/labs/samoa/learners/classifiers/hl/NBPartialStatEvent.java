@@ -0,0 +1,80 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+
+/**
+ * Statistics P(Xi|Cj) of all the attributes trained on a part of the instances,
+ *   attributeObservers[i]
+ * sent from NBTrainer to NBAggregator, and from an NBAggregator to the next level
+ * of the aggregation tree (see HorizontalNaiveBayes).
+ * The statistics are an increment: only the instances trained since the previous
+ * partial event of the sender, so the receiver merges them into its own.
+ * The key is the NBAggregator of the next level, source/fanIn.
+ * nFinished counts the NBTrainer's whose last statistics are merged into the event,
+ * the root NBAggregator sends the last update when all the NBTrainer's have finished.
+ * @author hl
+ *
+ */
+public class NBPartialStatEvent implements ContentEvent {
+
+	private static final long serialVersionUID = -7761340217683985642L;
+
+	private boolean isLast = false;
+	private int target; //NBAggregator of the next level
+	private long nInstances; //number of instances trained into the observers
+	private int nFinished = 0; //number of NBTrainer's which sent their last statistics
+	private AttributeClassObserver[] attributeObservers;
+
+	NBPartialStatEvent()
+	{}
+
+	NBPartialStatEvent(int target, long nInstances, AttributeClassObserver[] attributeObservers)
+	{
+		this.target = target;
+		this.nInstances = nInstances;
+		this.attributeObservers = attributeObservers;
+	}
+
+	@Override
+	public String getKey() {
+		return Integer.toString(this.target);
+	}
+
+	@Override
+	public void setKey(String key) {
+		this.target = Integer.parseInt(key);
+	}
+
+	@Override
+	public boolean isLastEvent() {
+		return isLast;
+	}
+
+	public void setLast(boolean isLast) {
+		this.isLast = isLast;
+	}
+
+	public long getNumInstances()
+	{
+		return this.nInstances;
+	}
+
+	public int getNumFinished()
+	{
+		return this.nFinished;
+	}
+
+	void setNumFinished(int nFinished)
+	{
+		this.nFinished = nFinished;
+	}
+
+	/**
+	 * null if no instance was merged since the previous event of the sender
+	 */
+	public AttributeClassObserver[] getAttributeObservers()
+	{
+		return this.attributeObservers;
+	}
+}
@@ -0,0 +1,71 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+
+/**
+ * Training time of an attribute partition since its previous load event,
+ * sent from NBAttributeStat to NBDistributor with each update of NBModel,
+ * NBDistributor rebalances the partitions with it (see NBAttributePartitioning.rebalance).
+ * @author hl
+ *
+ */
+public class NBPartitionLoadEvent implements ContentEvent {
+
+	private static final long serialVersionUID = 6617290158460376216L;
+
+	private boolean isLast = false;
+	private int partition;
+	private int epoch; //epoch of the partitioning the partition is trained with
+	private long trainNanos; //time spent training
+	private long nInstances; //number of instances trained in trainNanos
+
+	NBPartitionLoadEvent()
+	{}
+
+	NBPartitionLoadEvent(int partition, int epoch, long trainNanos, long nInstances)
+	{
+		this.partition = partition;
+		this.epoch = epoch;
+		this.trainNanos = trainNanos;
+		this.nInstances = nInstances;
+	}
+
+	@Override
+	public String getKey() {
+		return Integer.toString(this.partition);
+	}
+
+	@Override
+	public void setKey(String key) {
+		this.partition = Integer.parseInt(key);
+	}
+
+	@Override
+	public boolean isLastEvent() {
+		return isLast;
+	}
+
+	public void setLast(boolean isLast) {
+		this.isLast = isLast;
+	}
+
+	public int getPartition()
+	{
+		return this.partition;
+	}
+
+	public int getEpoch()
+	{
+		return this.epoch;
+	}
+
+	public long getTrainNanos()
+	{
+		return this.trainNanos;
+	}
+
+	public long getNumInstances()
+	{
+		return this.nInstances;
+	}
+}
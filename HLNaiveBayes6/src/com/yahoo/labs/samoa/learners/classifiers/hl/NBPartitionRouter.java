@@ -0,0 +1,146 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.Arrays;
+
+/**
+ * Routing keys of the attribute partitions with projected training, used by NBDistributor.
+ *
+ * A key grouping stream maps a key to a replica by hashing, so keying the slices
+ * by their partition may send two partitions to the same NBAttributeStat while
+ * another one is idle. The replica of a key is learned as in NBTestRouter:
+ * the probing keys 0 ~ MAX_PROBE_KEYS_PER_REPLICA*nReplicas-1 are sent once
+ * (NBRoutingProbeEvent), each replica acknowledges a probe with its id (NBCreditEvent).
+ * Then each partition q is given the key of a distinct replica, replica q if its key is known.
+ * The keys are assigned once, before the first slice, and never change:
+ * the statistics of a partition stay on the replica which trained them.
+ * If the probes are not all acknowledged when the slices cannot wait any longer,
+ * the keys are assigned with the known replicas, a partition without a free replica
+ * shares one (the least used), or keeps its partition as key if no replica is known.
+ * @author hl
+ *
+ */
+final class NBPartitionRouter {
+
+	static final int MAX_PROBE_KEYS_PER_REPLICA = 8;
+
+	private final int nReplicas;
+	private final int nPartitions;
+	private final int[] replicaOfKey; //-1 = not acknowledged yet
+	private final int[] keyOfReplica; //-1 = unknown
+	private int nKnownReplicas = 0;
+	private int nAcknowledged = 0;
+	private int[] keyOfPartition; //null = not assigned yet
+
+	NBPartitionRouter(int nReplicas, int nPartitions)
+	{
+		this.nReplicas = nReplicas;
+		this.nPartitions = nPartitions;
+		this.replicaOfKey = new int[MAX_PROBE_KEYS_PER_REPLICA*nReplicas];
+		Arrays.fill(this.replicaOfKey, -1);
+		this.keyOfReplica = new int[nReplicas];
+		Arrays.fill(this.keyOfReplica, -1);
+	}
+
+	/**
+	 * Number of probing keys, keys 0 ~ numProbeKeys()-1 are sent once
+	 */
+	int numProbeKeys()
+	{
+		return this.replicaOfKey.length;
+	}
+
+	/**
+	 * A replica has acknowledged the probe of a key
+	 */
+	void acknowledge(int key, int replica)
+	{
+		if (key<0 || key>=this.replicaOfKey.length || replica<0 || replica>=this.nReplicas
+				|| this.replicaOfKey[key]!=-1)
+			return;
+		this.replicaOfKey[key] = replica;
+		this.nAcknowledged++;
+		if (this.keyOfReplica[replica]==-1)
+		{
+			this.keyOfReplica[replica] = key;
+			this.nKnownReplicas++;
+		}
+	}
+
+	/**
+	 * Enough is known to assign the keys: every replica (or one per partition) has a key,
+	 * or all the probes are acknowledged
+	 */
+	boolean isResolved()
+	{
+		return this.nKnownReplicas>=Math.min(this.nReplicas, this.nPartitions)
+				|| this.nAcknowledged==this.replicaOfKey.length;
+	}
+
+	boolean isAssigned()
+	{
+		return this.keyOfPartition!=null;
+	}
+
+	/**
+	 * Assign the key of each partition with the replicas known now, nothing if already assigned
+	 * @return number of partitions sharing a replica with another one
+	 */
+	int assign()
+	{
+		if (this.keyOfPartition!=null)
+			return 0;
+		this.keyOfPartition = new int[this.nPartitions];
+		int[] nPartitionsOfReplica = new int[this.nReplicas];
+		int nShared = 0;
+		for (int q=0;q<this.nPartitions;q++)
+		{
+			int r = q<this.nReplicas && this.keyOfReplica[q]!=-1 ? q : -1;
+			if (r==-1)
+				r = leastUsedReplica(nPartitionsOfReplica, q);
+			if (r==-1)
+			{
+				this.keyOfPartition[q] = q; //no replica known, hashed by the engine
+				continue;
+			}
+			if (nPartitionsOfReplica[r]>0)
+				nShared++;
+			nPartitionsOfReplica[r]++;
+			this.keyOfPartition[q] = this.keyOfReplica[r];
+		}
+		return nShared;
+	}
+
+	/**
+	 * Routing key of partition q, q itself before the keys are assigned
+	 */
+	int keyOf(int q)
+	{
+		return this.keyOfPartition!=null && q>=0 && q<this.nPartitions ? this.keyOfPartition[q] : q;
+	}
+
+	/**
+	 * Replica of partition q, -1 if unknown
+	 */
+	int replicaOf(int q)
+	{
+		int key = keyOf(q);
+		return key>=0 && key<this.replicaOfKey.length ? this.replicaOfKey[key] : -1;
+	}
+
+	// known replica with the fewest partitions, not reserved for a later partition if possible
+	private int leastUsedReplica(int[] nPartitionsOfReplica, int q)
+	{
+		int best = -1;
+		for (int pass=0;pass<2 && best==-1;pass++)
+		{
+			for (int r=0;r<this.nReplicas;r++)
+			{
+				if (this.keyOfReplica[r]==-1 || (pass==0 && r>q && r<this.nPartitions))
+					continue; //unknown, or kept for partition r
+				if (best==-1 || nPartitionsOfReplica[r]<nPartitionsOfReplica[best])
+					best = r;
+			}
+		}
+		return best;
+	}
+}
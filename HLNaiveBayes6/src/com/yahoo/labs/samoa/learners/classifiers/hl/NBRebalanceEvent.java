@@ -0,0 +1,80 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+
+/**
+ * Change of the assignment of the attributes, sent from NBDistributor through
+ * trainStream before the first batch trained with the new assignment.
+ * With projected training one event is sent per partition, keyed as its slices,
+ * otherwise one event of partition ALL_PARTITIONS is sent to all NBAttributeStat's.
+ * The NBAttributeStat of partition q sends the observers of the attributes it loses
+ * to their new partitions (see NBAttributeMigrationEvent).
+ * @author hl
+ *
+ */
+public class NBRebalanceEvent implements ContentEvent {
+
+	private static final long serialVersionUID = -1942658209134417803L;
+
+	// partition of an event sent to all NBAttributeStat's
+	static final int ALL_PARTITIONS = -1;
+
+	private boolean isLast = false;
+	private int partition;
+	private int routingKey; //key of the replica of the partition, see NBPartitionRouter
+	private NBAttributePartitioning previous;
+	private NBAttributePartitioning next;
+
+	NBRebalanceEvent()
+	{}
+
+	NBRebalanceEvent(int partition, NBAttributePartitioning previous, NBAttributePartitioning next)
+	{
+		this.partition = partition;
+		this.routingKey = partition;
+		this.previous = previous;
+		this.next = next;
+	}
+
+	@Override
+	public String getKey() {
+		return Integer.toString(this.routingKey);
+	}
+
+	@Override
+	public void setKey(String key) {
+		this.routingKey = Integer.parseInt(key);
+	}
+
+	/**
+	 * Key of the replica training the partition, the partition by default
+	 */
+	void setRoutingKey(int routingKey)
+	{
+		this.routingKey = routingKey;
+	}
+
+	@Override
+	public boolean isLastEvent() {
+		return isLast;
+	}
+
+	public void setLast(boolean isLast) {
+		this.isLast = isLast;
+	}
+
+	public int getPartition()
+	{
+		return this.partition;
+	}
+
+	public NBAttributePartitioning getPrevious()
+	{
+		return this.previous;
+	}
+
+	public NBAttributePartitioning getNext()
+	{
+		return this.next;
+	}
+}
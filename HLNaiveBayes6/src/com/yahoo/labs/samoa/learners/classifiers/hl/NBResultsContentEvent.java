@@ -0,0 +1,310 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.instances.SparseInstance;
+import com.yahoo.labs.samoa.learners.ResultContentEvent;
+
+/**
+ * Carry the prediction results of a batch of testing instances,
+ * sent from NBModel to the evaluator in one event instead of one
+ * ResultContentEvent per instance.
+ * The evaluator side unpacks it with getResult(i).
+ *
+ * In lean mode (topK>0) the instances and the full votes are not sent, only
+ * the instance index, true class, weight and the top-k class scores of each result.
+ * getResult(i) rebuilds an instance holding only the class value and weight,
+ * and votes with the top-k scores (0 for the other classes), which is enough
+ * for accuracy and kappa (argmax of the votes, true class, weight).
+ * @author hl
+ *
+ */
+public class NBResultsContentEvent implements ContentEvent {
+
+	private static final long serialVersionUID = 6120873385527339618L;
+
+	// model version of results scored from the observers (PredictionMode.probability),
+	// which the updates change in place
+	static final long NO_VERSION = -1;
+
+	private boolean isLast = false;
+	private long key = 0;
+	private int classifierIndex;
+	private int evaluationIndex;
+	private long modelVersion = NO_VERSION; //version of the NBModelSnapshot that scored the results
+
+	private int size = 0; //number of results
+	private long[] instanceIndex;
+	private int[] classIds;
+	
+	// full mode
+	private Instance[] instances;
+	private double[][] votes;
+	
+	// lean mode
+	private int topK; //0 = full mode
+	private int numClasses;
+	private double[] weights;
+	private int[] topClasses; //class of the j-th best score of result r at r*topK+j, -1 if none
+	private double[] topScores;
+	
+	// header of the rebuilt instances in lean mode, shared by the events with the same numClasses
+	private static volatile InstancesHeader leanHeader;
+
+	NBResultsContentEvent()
+	{
+		this(0);
+	}
+
+	/**
+	 * Full mode, the instances and votes are sent
+	 * @param capacity expected number of results
+	 */
+	NBResultsContentEvent(int capacity)
+	{
+		this(capacity, 0, 0);
+	}
+	
+	/**
+	 * @param capacity expected number of results
+	 * @param numClasses number of classes of the dataset
+	 * @param topK number of class scores sent per result, 0 = full mode
+	 */
+	NBResultsContentEvent(int capacity, int numClasses, int topK)
+	{
+		this.topK = Math.min(topK, numClasses);
+		this.numClasses = numClasses;
+		this.instanceIndex = new long[capacity];
+		this.classIds = new int[capacity];
+		if (this.topK>0)
+		{
+			this.weights = new double[capacity];
+			this.topClasses = new int[capacity*this.topK];
+			this.topScores = new double[capacity*this.topK];
+		}
+		else
+		{
+			this.instances = new Instance[capacity];
+			this.votes = new double[capacity][];
+		}
+	}
+
+	/**
+	 * Add the result of an instance
+	 */
+	void add(long instanceIndex, Instance inst, int classId, double[] classVotes)
+	{
+		if (this.size==this.instanceIndex.length)
+		{
+			int capacity = Math.max(16, this.size*2);
+			this.instanceIndex = Arrays.copyOf(this.instanceIndex, capacity);
+			this.classIds = Arrays.copyOf(this.classIds, capacity);
+			if (isLean())
+			{
+				this.weights = Arrays.copyOf(this.weights, capacity);
+				this.topClasses = Arrays.copyOf(this.topClasses, capacity*this.topK);
+				this.topScores = Arrays.copyOf(this.topScores, capacity*this.topK);
+			}
+			else
+			{
+				this.instances = Arrays.copyOf(this.instances, capacity);
+				this.votes = Arrays.copyOf(this.votes, capacity);
+			}
+		}
+		this.instanceIndex[this.size] = instanceIndex;
+		this.classIds[this.size] = classId;
+		if (isLean())
+		{
+			this.weights[this.size] = inst.weight();
+			selectTopK(classVotes, this.size*this.topK);
+		}
+		else
+		{
+			this.instances[this.size] = inst;
+			this.votes[this.size] = classVotes;
+		}
+		this.size++;
+	}
+	
+	// keep the topK best scores in descending order at topClasses/topScores[base~base+topK-1],
+	// ties keep the lower class first, same as the argmax of the evaluator
+	private void selectTopK(double[] classVotes, int base)
+	{
+		int filled = 0;
+		for (int c=0;c<classVotes.length;c++)
+		{
+			double score = classVotes[c];
+			if (filled==this.topK && !(score>this.topScores[base+this.topK-1]))
+				continue;
+			
+			int pos = filled<this.topK ? filled++ : this.topK-1;
+			while (pos>0 && score>this.topScores[base+pos-1])
+			{
+				this.topClasses[base+pos] = this.topClasses[base+pos-1];
+				this.topScores[base+pos] = this.topScores[base+pos-1];
+				pos--;
+			}
+			this.topClasses[base+pos] = c;
+			this.topScores[base+pos] = score;
+		}
+		for (int j=filled;j<this.topK;j++)
+		{
+			this.topClasses[base+j] = -1;
+			this.topScores[base+j] = 0.0;
+		}
+	}
+	
+	/**
+	 * @return true if only the top-k scores are sent
+	 */
+	public boolean isLean()
+	{
+		return this.topK>0;
+	}
+
+	/**
+	 * @return number of results in this event
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Unpack the result of the i-th instance.
+	 * Only the result of the last instance of the last event is the last event.
+	 * @param i index of the result, 0~size()-1
+	 * @return ResultContentEvent same as sent by NBModel without batching
+	 */
+	public ResultContentEvent getResult(int i)
+	{
+		boolean last = this.isLast && i==this.size-1;
+		ResultContentEvent rce;
+		if (isLean())
+		{
+			rce = new ResultContentEvent(this.instanceIndex[i], leanInstance(i),
+					this.classIds[i], leanVotes(i), last);
+		}
+		else
+		{
+			rce = new ResultContentEvent(this.instanceIndex[i], this.instances[i],
+					this.classIds[i], this.votes[i], last);
+		}
+		rce.setClassifierIndex(this.classifierIndex);
+		rce.setEvaluationIndex(this.evaluationIndex);
+		return rce;
+	}
+
+	/**
+	 * Unpack an empty event flagged last
+	 * @return result flagged last without instance, see newEndResult
+	 */
+	public ResultContentEvent getEndResult()
+	{
+		return newEndResult(this.classifierIndex, this.evaluationIndex);
+	}
+
+	/**
+	 * Result flagged last without instance, sent when the last testing batch
+	 * has no result to flag (empty, or its last instance is not scored).
+	 * The evaluator concludes on a last result without evaluating it.
+	 */
+	static ResultContentEvent newEndResult(int classifierIndex, int evaluationIndex)
+	{
+		ResultContentEvent rce = new ResultContentEvent(-1, null, 0, new double[0], true);
+		rce.setClassifierIndex(classifierIndex);
+		rce.setEvaluationIndex(evaluationIndex);
+		return rce;
+	}
+	
+	// instance with only the class attribute
+	private Instance leanInstance(int i)
+	{
+		Instance inst = new SparseInstance(this.weights[i], new double[]{this.classIds[i]}, new int[]{0}, 1);
+		inst.setDataset(getLeanHeader(Math.max(this.numClasses, this.classIds[i]+1)));
+		return inst;
+	}
+	
+	private double[] leanVotes(int i)
+	{
+		double[] v = new double[Math.max(this.numClasses, this.classIds[i]+1)];
+		int base = i*this.topK;
+		for (int j=0;j<this.topK;j++)
+		{
+			int c = this.topClasses[base+j];
+			if (c>=0 && c<v.length)
+				v[c] = this.topScores[base+j];
+		}
+		return v;
+	}
+	
+	private static InstancesHeader getLeanHeader(int numClasses)
+	{
+		InstancesHeader header = leanHeader;
+		if (header!=null && header.numClasses()==numClasses)
+			return header;
+		
+		List<String> labels = new ArrayList<String>(numClasses);
+		for (int c=0;c<numClasses;c++)
+		{
+			labels.add(Integer.toString(c));
+		}
+		List<Attribute> attributes = new ArrayList<Attribute>(1);
+		attributes.add(new Attribute("class", labels));
+		Instances dataset = new Instances("lean results", attributes, 0);
+		dataset.setClassIndex(0);
+		header = new InstancesHeader(dataset);
+		leanHeader = header;
+		return header;
+	}
+
+	@Override
+	public String getKey() {
+		return Long.toString(this.key);
+	}
+
+	@Override
+	public void setKey(String key) {
+		this.key = Long.parseLong(key);
+	}
+
+	@Override
+	public boolean isLastEvent() {
+		return isLast;
+	}
+
+	public void setLast(boolean isLast) {
+		this.isLast = isLast;
+	}
+
+	public int getClassifierIndex() {
+		return this.classifierIndex;
+	}
+
+	public void setClassifierIndex(int classifierIndex) {
+		this.classifierIndex = classifierIndex;
+	}
+
+	public long getModelVersion() {
+		return this.modelVersion;
+	}
+
+	public void setModelVersion(long modelVersion) {
+		this.modelVersion = modelVersion;
+	}
+
+	public int getEvaluationIndex() {
+		return this.evaluationIndex;
+	}
+
+	public void setEvaluationIndex(int evaluationIndex) {
+		this.evaluationIndex = evaluationIndex;
+	}
+}
@@ -0,0 +1,46 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+
+/**
+ * Probe of a routing key, sent once per key by NBDistributor through the key grouping
+ * trainStream of projected training. The NBAttributeStat receiving it acknowledges it
+ * with its id (NBCreditEvent PROBE), so NBDistributor learns the replica of the key
+ * (see NBPartitionRouter). Nothing is trained.
+ * @author hl
+ *
+ */
+public class NBRoutingProbeEvent implements ContentEvent {
+
+	private static final long serialVersionUID = 4410935382712016218L;
+
+	private int routingKey;
+
+	NBRoutingProbeEvent()
+	{}
+
+	NBRoutingProbeEvent(int routingKey)
+	{
+		this.routingKey = routingKey;
+	}
+
+	@Override
+	public String getKey() {
+		return Integer.toString(this.routingKey);
+	}
+
+	@Override
+	public void setKey(String key) {
+		this.routingKey = Integer.parseInt(key);
+	}
+
+	@Override
+	public boolean isLastEvent() {
+		return false;
+	}
+
+	public int getRoutingKey()
+	{
+		return this.routingKey;
+	}
+}
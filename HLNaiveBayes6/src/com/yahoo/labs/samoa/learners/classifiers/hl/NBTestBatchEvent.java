@@ -0,0 +1,54 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+import com.yahoo.labs.samoa.learners.InstancesContentEvent;
+
+/**
+ * A batch of testing instances sent by key grouping to one NBModelProcessor,
+ * with least-loaded routing (see NBDistributor, NBTestRouter).
+ * The engine maps the routing key to a replica, the replica acknowledges the
+ * batch with its key (NBCreditEvent), so NBDistributor learns the mapping.
+ * @author hl
+ *
+ */
+public class NBTestBatchEvent implements ContentEvent {
+
+	private static final long serialVersionUID = 7315524680372469105L;
+
+	private int routingKey;
+	private InstancesContentEvent batch;
+
+	NBTestBatchEvent()
+	{}
+
+	NBTestBatchEvent(int routingKey, InstancesContentEvent batch)
+	{
+		this.routingKey = routingKey;
+		this.batch = batch;
+	}
+
+	@Override
+	public String getKey() {
+		return Integer.toString(this.routingKey);
+	}
+
+	@Override
+	public void setKey(String key) {
+		this.routingKey = Integer.parseInt(key);
+	}
+
+	@Override
+	public boolean isLastEvent() {
+		return this.batch.isLastEvent();
+	}
+
+	public int getRoutingKey()
+	{
+		return this.routingKey;
+	}
+
+	public InstancesContentEvent getBatch()
+	{
+		return this.batch;
+	}
+}
@@ -0,0 +1,137 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.Arrays;
+
+/**
+ * Least-loaded routing of the testing batches across the NBModelProcessor replicas,
+ * used by NBDistributor with testRouting=leastLoaded.
+ *
+ * A key grouping stream maps a key to a replica by hashing, so the replica of a key
+ * is learned from the acknowledgements (NBCreditEvent with the routing key):
+ * while a replica has no known key, a batch is sent with a new probing key
+ * (one probe at a time, at most MAX_PROBE_KEYS_PER_REPLICA keys per replica).
+ * Then each batch is sent with the key of the replica with the fewest
+ * unacknowledged batches, ties are broken round-robin.
+ * @author hl
+ *
+ */
+final class NBTestRouter {
+
+	private static final int MAX_PROBE_KEYS_PER_REPLICA = 8;
+
+	private final int nReplicas;
+	private final int[] keyOfReplica; //-1 = unknown
+	private int nKnownReplicas = 0;
+	private int[] replicaOfKey; //-1 = not acknowledged yet
+	private int[] outstandingOfKey; //batches sent with the key and not acknowledged
+	private int nKeys = 0; //keys 0..nKeys-1 were used
+	private int lastReplica = -1;
+
+	NBTestRouter(int nReplicas)
+	{
+		this.nReplicas = nReplicas;
+		this.keyOfReplica = new int[nReplicas];
+		Arrays.fill(this.keyOfReplica, -1);
+		this.replicaOfKey = new int[2*nReplicas];
+		this.outstandingOfKey = new int[2*nReplicas];
+	}
+
+	/**
+	 * Choose the key of the next batch, it is counted as unacknowledged
+	 */
+	int route()
+	{
+		int key;
+		if (this.nKnownReplicas<this.nReplicas && this.nKeys<MAX_PROBE_KEYS_PER_REPLICA*this.nReplicas
+				&& unknownOutstanding()==0)
+		{
+			key = newKey();
+		}
+		else if (this.nKnownReplicas==0)
+		{
+			key = 0; //wait for the probe
+		}
+		else
+		{
+			key = this.keyOfReplica[leastLoadedReplica()];
+		}
+		this.outstandingOfKey[key]++;
+		return key;
+	}
+
+	/**
+	 * A replica has processed a batch sent with a key
+	 */
+	void acknowledge(int key, int replica)
+	{
+		if (key<0 || key>=this.nKeys || replica<0 || replica>=this.nReplicas)
+			return;
+		if (this.outstandingOfKey[key]>0)
+			this.outstandingOfKey[key]--;
+		if (this.replicaOfKey[key]==-1)
+		{
+			this.replicaOfKey[key] = replica;
+			if (this.keyOfReplica[replica]==-1)
+			{
+				this.keyOfReplica[replica] = key;
+				this.nKnownReplicas++;
+			}
+		}
+	}
+
+	/**
+	 * Unacknowledged batches of a replica, batches of keys not acknowledged yet are not counted
+	 */
+	int getOutstanding(int replica)
+	{
+		int n = 0;
+		for (int k=0;k<this.nKeys;k++)
+		{
+			if (this.replicaOfKey[k]==replica)
+				n += this.outstandingOfKey[k];
+		}
+		return n;
+	}
+
+	private int leastLoadedReplica()
+	{
+		int best = -1;
+		int bestLoad = Integer.MAX_VALUE;
+		for (int t=1;t<=this.nReplicas;t++)
+		{
+			int r = (this.lastReplica+t)%this.nReplicas;
+			if (this.keyOfReplica[r]==-1)
+				continue;
+			int load = getOutstanding(r);
+			if (load<bestLoad)
+			{
+				best = r;
+				bestLoad = load;
+			}
+		}
+		this.lastReplica = best;
+		return best;
+	}
+
+	private int unknownOutstanding()
+	{
+		int n = 0;
+		for (int k=0;k<this.nKeys;k++)
+		{
+			if (this.replicaOfKey[k]==-1)
+				n += this.outstandingOfKey[k];
+		}
+		return n;
+	}
+
+	private int newKey()
+	{
+		if (this.nKeys==this.replicaOfKey.length)
+		{
+			this.replicaOfKey = Arrays.copyOf(this.replicaOfKey, 2*this.nKeys);
+			this.outstandingOfKey = Arrays.copyOf(this.outstandingOfKey, 2*this.nKeys);
+		}
+		this.replicaOfKey[this.nKeys] = -1;
+		return this.nKeys++;
+	}
+}
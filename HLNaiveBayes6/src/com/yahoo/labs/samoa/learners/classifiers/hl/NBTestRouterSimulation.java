@@ -0,0 +1,86 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Discrete-time simulation of the testing batches sent to NBModel replicas, one of them slow
+ * (e.g. compiling a large NBAttStatEvent): queueing latency of the batches with
+ * shuffle grouping (random replica) and with least-loaded routing (NBTestRouter).
+ * A routed key is mapped to a replica by hashing, as a key grouping stream does,
+ * and acknowledged when the replica has processed the batch.
+ *
+ * Usage: java com.yahoo.labs.samoa.learners.classifiers.hl.NBTestRouterSimulation
+ *            [replicas] [ticksPerBatch] [slowTicksPerBatch] [ticksBetweenBatches] [ticks]
+ * @author hl
+ *
+ */
+public final class NBTestRouterSimulation {
+
+	private NBTestRouterSimulation()
+	{}
+
+	public static void main(String[] args)
+	{
+		int R = args.length>0 ? Integer.parseInt(args[0]) : 3;
+		int cost = args.length>1 ? Integer.parseInt(args[1]) : 2;
+		int slowCost = args.length>2 ? Integer.parseInt(args[2]) : 20;
+		int period = args.length>3 ? Integer.parseInt(args[3]) : 2;
+		int ticks = args.length>4 ? Integer.parseInt(args[4]) : 20000;
+
+		System.out.println(R+" replicas, "+cost+" ticks per batch, replica 1 "+slowCost
+				+" ticks per batch, a batch every "+period+" ticks, "+ticks+" ticks");
+		report("shuffle    ", simulate(R, cost, slowCost, period, ticks, false));
+		report("leastLoaded", simulate(R, cost, slowCost, period, ticks, true));
+	}
+
+	/**
+	 * @return latency of each processed batch, in ticks
+	 */
+	private static List<Integer> simulate(int R, int cost, int slowCost, int period, int ticks, boolean routed)
+	{
+		NBTestRouter router = new NBTestRouter(R);
+		Random random = new Random(1);
+		List<ArrayDeque<int[]>> queues = new ArrayList<ArrayDeque<int[]>>(); //{sent tick, key}
+		for (int r=0;r<R;r++)
+		{
+			queues.add(new ArrayDeque<int[]>());
+		}
+		int[] busy = new int[R]; //remaining ticks of the batch in process
+		List<Integer> latencies = new ArrayList<Integer>();
+
+		for (int t=0;t<ticks;t++)
+		{
+			if (t%period==0)
+			{
+				int key = routed ? router.route() : -1;
+				int r = routed ? (Integer.toString(key).hashCode() & Integer.MAX_VALUE)%R : random.nextInt(R);
+				queues.get(r).add(new int[]{t, key});
+			}
+			for (int r=0;r<R;r++)
+			{
+				if (busy[r]>0 && --busy[r]==0)
+				{
+					int[] batch = queues.get(r).poll();
+					latencies.add(t-batch[0]);
+					if (routed)
+						router.acknowledge(batch[1], r);
+				}
+				if (busy[r]==0 && !queues.get(r).isEmpty())
+					busy[r] = r==1 ? slowCost : cost;
+			}
+		}
+		return latencies;
+	}
+
+	private static void report(String mode, List<Integer> latencies)
+	{
+		Collections.sort(latencies);
+		int n = latencies.size();
+		System.out.println("  "+mode+" processed "+n+" batches, latency p50="+latencies.get(n/2)
+				+" p99="+latencies.get(n*99/100)+" max="+latencies.get(n-1)+" ticks");
+	}
+}
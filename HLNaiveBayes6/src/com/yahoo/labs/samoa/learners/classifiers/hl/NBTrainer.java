@@ -0,0 +1,202 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yahoo.labs.samoa.core.ContentEvent;
+import com.yahoo.labs.samoa.core.Processor;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.learners.InstanceContentEvent;
+import com.yahoo.labs.samoa.learners.InstancesContentEvent;
+import com.yahoo.labs.samoa.topology.Stream;
+
+/**
+ * The processor to statistic P(Xi|Cj) of all the attributes
+ * on a part of the training instances (see HorizontalNaiveBayes).
+ *
+ * Each NBTrainer receives the training batches of NBDistributor by shuffle grouping,
+ * so every instance is trained by one NBTrainer. After training every pushPeriod
+ * instances, the statistics trained since the previous push are sent to the
+ * aggregation tree (NBPartialStatEvent) and the next ones are trained into new observers.
+ * With flow control, a credit is returned to NBDistributor for each training batch (NBCreditEvent).
+ * The end of the training stream is sent to every NBTrainer (an empty last batch),
+ * each pushes its remaining statistics as its last push.
+ *
+ * In testing phase:
+ * do nothing
+ * @author hl
+ *
+ */
+public class NBTrainer implements Processor {
+
+	private static final long serialVersionUID = 5912773606425817092L;
+	private static Logger logger = LoggerFactory.getLogger(NBTrainer.class);
+
+	private int processorId;
+
+	private Instances dataset; //only use in builder
+	private InstancesHeader header; //attribute information
+
+	// store nominal attributes in DenseNominalAttributeClassObserver
+	private boolean denseNominalObserver=false;
+
+	// push the statistics after training every pushPeriod instances
+	private int pushPeriod;
+
+	// number of children of an NBAggregator, the key of a push is processorId/fanIn
+	private int fanIn;
+
+	private long nTrain=0; //total number of train instances
+
+	private Stream partialStream; //to the first level of NBAggregator
+	private Stream creditStream; //to NBDistributor, only used by flow control
+
+	// statistics of the instances trained since the previous push
+	private NBAttributePartition increment;
+
+	//private constructor based on Builder pattern
+	private NBTrainer(Builder builder){
+		this.dataset = builder.dataset;
+		this.header = new InstancesHeader(this.dataset);
+		this.denseNominalObserver = builder.denseNominalObserver;
+		this.pushPeriod = builder.pushPeriod;
+		this.fanIn = builder.fanIn;
+	}
+
+	@Override
+	public boolean process(ContentEvent event) {
+		boolean bSucess = false; // if event is supported event
+
+		if (event instanceof InstanceContentEvent)
+		{
+			InstanceContentEvent ice = (InstanceContentEvent)event;
+			if (ice.isTraining())
+			{
+				trainOnInstance(ice.getInstance());
+			}
+			bSucess = true;
+		}
+
+		if (event instanceof InstancesContentEvent)
+		{
+			InstancesContentEvent ice = (InstancesContentEvent)event;
+			if (ice.isTraining())
+			{
+				Instance[] insts = ice.getInstances();
+				for (int i=0;i<insts.length;i++)
+				{
+					trainOnInstance(insts[i]);
+				}
+				if (this.creditStream!=null && insts.length>0) //the end of the stream takes no credit
+					this.creditStream.put(new NBCreditEvent(NBCreditEvent.TRAIN, this.processorId));
+			}
+			bSucess = true;
+		}
+
+		if (this.increment.getNumTrainedBeforeUpdate() >= this.pushPeriod || event.isLastEvent())
+		{
+			push(event.isLastEvent());
+		}
+		return bSucess;
+	}
+
+	private void trainOnInstance(Instance inst) {
+		this.increment.trainOnInstance(inst);
+		this.nTrain++;
+	}
+
+	/**
+	 * Send the statistics trained since the previous push, the observers are
+	 * not copied, the next instances are trained into a new partition
+	 */
+	private void push(boolean isLast)
+	{
+		int M = this.header.numAttributes();
+		NBPartialStatEvent partial = new NBPartialStatEvent(this.processorId/this.fanIn,
+				this.increment.getNumTrainedBeforeUpdate(), this.increment.getObservers(0, M-1));
+		partial.setLast(isLast);
+		if (isLast)
+			partial.setNumFinished(1);
+		this.partialStream.put(partial);
+		this.increment = newIncrement();
+
+		if (isLast)
+			logger.info("NBTrainer(id={}) finished training, nTrain={}",this.processorId,this.nTrain);
+	}
+
+	private NBAttributePartition newIncrement()
+	{
+		return new NBAttributePartition(this.processorId, 0, 0, this.header.numAttributes()-1, this.header,
+				this.denseNominalObserver, new NBUpdatePolicy(this.pushPeriod, 1));
+	}
+
+	@Override
+	public void onCreate(int id) {
+		this.processorId = id;
+		this.increment = newIncrement();
+		logger.info("NBTrainer created, id={}, key of the pushes={}",id,id/this.fanIn);
+	}
+
+	@Override
+	public Processor newProcessor(Processor p) {
+		NBTrainer pp = (NBTrainer)p;
+		NBTrainer newP = new NBTrainer.Builder(pp).build();
+		newP.partialStream = pp.partialStream;
+		newP.creditStream = pp.creditStream;
+		return newP;
+	}
+
+	public void setPartialStream(Stream partialStream) {
+		this.partialStream = partialStream;
+	}
+
+	public void setCreditStream(Stream creditStream) {
+		this.creditStream = creditStream;
+	}
+
+	static class Builder
+	{
+		private Instances dataset; //store the attribute information
+		private boolean denseNominalObserver=false;
+		private int pushPeriod=200;
+		private int fanIn=4;
+
+		public Builder()
+		{}
+
+		public Builder(NBTrainer p)
+		{
+			this.dataset = p.dataset;
+			this.denseNominalObserver = p.denseNominalObserver;
+			this.pushPeriod = p.pushPeriod;
+			this.fanIn = p.fanIn;
+		}
+
+		public Builder dataset(Instances val){
+			this.dataset = val;
+            return this;
+		}
+
+		public Builder denseNominalObserver(boolean val){
+			this.denseNominalObserver = val;
+            return this;
+		}
+
+		public Builder pushPeriod(int val){
+			this.pushPeriod = val;
+            return this;
+		}
+
+		public Builder fanIn(int val){
+			this.fanIn = val;
+            return this;
+		}
+
+		NBTrainer build()
+		{
+			return new NBTrainer(this);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+
+/**
+ * Coalesce the updates of NBModelProcessor with bounded staleness.
+ *
+ * The observers of an update are written at once (cheap), but compiling them
+ * into the next snapshot (see NBModelSnapshot.update) is deferred until a testing
+ * instance is scored with a model staler than maxStaleInstances:
+ * the updates received in between are compiled once, each attribute with its newest observers.
+ *
+ * The updates of a partition are numbered in its epoch (NBAttStatEvent.getSequence),
+ * an update which is not after the last accepted one of its partition, by epoch then
+ * sequence (a duplicate, or reordered after a newer one), is superseded, skipped.
+ * Only the newest epoch of each partition is kept, so there is one entry per partition.
+ * The staleness is the largest number of instances trained into a partition
+ * (NBAttStatEvent.getNumTrained) and not compiled yet.
+ * @author hl
+ *
+ */
+final class NBUpdateCoalescer {
+
+	private final int maxStaleInstances; //0 = compile before every scoring
+
+	// changed observers not compiled yet, by attribute index
+	private final AttributeClassObserver[] pending;
+	private int pendingMin;
+	private int pendingMax;
+
+	// epoch, last sequence, nTrained received and nTrained compiled of each partition
+	private final Map<Integer,long[]> partitions = new HashMap<Integer,long[]>();
+
+	private long nReceived = 0;
+	private long nSkipped = 0;
+	private long nCompiled = 0;
+
+	NBUpdateCoalescer(int numAttributes, int maxStaleInstances)
+	{
+		this.maxStaleInstances = maxStaleInstances;
+		this.pending = new AttributeClassObserver[numAttributes];
+		clearPending();
+	}
+
+	/**
+	 * Check the sequence of an update, false if it is superseded and must be skipped.
+	 * This is duplicate suppression only: it drops an update delivered again or after
+	 * a newer one of its partition, not the older updates still queued in the engine,
+	 * which a processor cannot see. The saving of coalescing comes from deferring the compilation.
+	 */
+	boolean accept(NBAttStatEvent update)
+	{
+		this.nReceived++;
+		long[] partition = this.partitions.get(update.getPartition());
+		if (partition==null)
+		{
+			partition = new long[4];
+			this.partitions.put(update.getPartition(), partition);
+		}
+		else if (update.getEpoch()<partition[0]
+				|| (update.getEpoch()==partition[0] && update.getSequence()<=partition[1]))
+		{
+			this.nSkipped++;
+			return false;
+		}
+		if (update.getEpoch()>partition[0])
+		{
+			// the partition of the next epoch counts from 0, the previous epoch is dropped
+			partition[0] = update.getEpoch();
+			partition[2] = 0;
+			partition[3] = 0;
+		}
+		partition[1] = update.getSequence();
+		partition[2] = Math.max(partition[2], update.getNumTrained());
+		return true;
+	}
+
+	/**
+	 * Add the observers changed by an accepted update
+	 * @param attObservers observers of attributes iMin~iMax at i-iMin, null if not changed
+	 */
+	void add(AttributeClassObserver[] attObservers, int iMin, int iMax)
+	{
+		for (int i=iMin;i<=iMax;i++)
+		{
+			AttributeClassObserver obs = attObservers[i-iMin];
+			if (obs==null)
+				continue;
+			this.pending[i] = obs;
+			this.pendingMin = Math.min(this.pendingMin, i);
+			this.pendingMax = Math.max(this.pendingMax, i);
+		}
+	}
+
+	boolean hasPending()
+	{
+		return this.pendingMax>=this.pendingMin;
+	}
+
+	/**
+	 * Number of instances trained into a partition and not compiled
+	 */
+	long staleness()
+	{
+		long stale = 0;
+		for (long[] partition : this.partitions.values())
+		{
+			stale = Math.max(stale, partition[2]-partition[3]);
+		}
+		return stale;
+	}
+
+	/**
+	 * The pending observers must be compiled before scoring
+	 */
+	boolean isCompileDue()
+	{
+		return hasPending() && (this.maxStaleInstances==0 || staleness()>this.maxStaleInstances);
+	}
+
+	int getPendingIMin()
+	{
+		return this.pendingMin;
+	}
+
+	int getPendingIMax()
+	{
+		return this.pendingMax;
+	}
+
+	/**
+	 * Take the pending observers of getPendingIMin~getPendingIMax to compile them,
+	 * at i-getPendingIMin, null if not changed
+	 */
+	AttributeClassObserver[] takePending()
+	{
+		AttributeClassObserver[] observers = new AttributeClassObserver[this.pendingMax-this.pendingMin+1];
+		System.arraycopy(this.pending, this.pendingMin, observers, 0, observers.length);
+		Arrays.fill(this.pending, this.pendingMin, this.pendingMax+1, null);
+		clearPending();
+		for (long[] partition : this.partitions.values())
+		{
+			partition[3] = partition[2];
+		}
+		this.nCompiled++;
+		return observers;
+	}
+
+	private void clearPending()
+	{
+		this.pendingMin = Integer.MAX_VALUE;
+		this.pendingMax = -1;
+	}
+
+	long getNumReceived()
+	{
+		return this.nReceived;
+	}
+
+	long getNumSkipped()
+	{
+		return this.nSkipped;
+	}
+
+	long getNumCompiled()
+	{
+		return this.nCompiled;
+	}
+
+	int getNumPartitions()
+	{
+		return this.partitions.size();
+	}
+}
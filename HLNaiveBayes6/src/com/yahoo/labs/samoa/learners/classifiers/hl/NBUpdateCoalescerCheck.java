@@ -0,0 +1,148 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.util.Random;
+
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.NominalAttributeClassObserver;
+
+/**
+ * Runnable check of NBUpdateCoalescer on a simulated stream of full updates of
+ * several attribute partitions, some delivered twice or after a newer one, and
+ * partitions moving to the next epoch (a rebalance), with testing batches in between:
+ * <ul>
+ * <li>exactly the duplicated and reordered updates are skipped</li>
+ * <li>the compiled observers of each attribute are those of its newest accepted update</li>
+ * <li>no batch is scored with a model staler than maxStaleInstances</li>
+ * <li>nothing is left pending after the last update</li>
+ * <li>one entry is kept per partition, whatever the number of epochs</li>
+ * </ul>
+ * Prints how many times the model was compiled, against once per accepted update
+ * without coalescing. Exits with status 1 if a property does not hold.
+ *
+ * Usage: java com.yahoo.labs.samoa.learners.classifiers.hl.NBUpdateCoalescerCheck
+ *            [numPartitions] [updates] [updatesPerBatch] [maxStaleInstances]
+ * @author hl
+ *
+ */
+public final class NBUpdateCoalescerCheck {
+
+	private static final int RANGE_SIZE = 5;
+	private static final int INSTANCES_PER_UPDATE = 50;
+	private static final int UPDATES_PER_EPOCH = 100; //of a partition, on average
+
+	private NBUpdateCoalescerCheck()
+	{}
+
+	public static void main(String[] args)
+	{
+		int R = args.length>0 ? Integer.parseInt(args[0]) : 4;
+		int updates = args.length>1 ? Integer.parseInt(args[1]) : 10000;
+		int updatesPerBatch = args.length>2 ? Integer.parseInt(args[2]) : 10;
+		int maxStale = args.length>3 ? Integer.parseInt(args[3]) : 200;
+
+		int A = R*RANGE_SIZE;
+		NBUpdateCoalescer coalescer = new NBUpdateCoalescer(A, maxStale);
+		Random random = new Random(1);
+		int[] epoch = new int[R];
+		long[] sequence = new long[R];
+		NBAttStatEvent[] previous = new NBAttStatEvent[R];
+		AttributeClassObserver[] newest = new AttributeClassObserver[A]; //of the accepted updates
+		AttributeClassObserver[] compiled = new AttributeClassObserver[A];
+		long nAccepted = 0, nInjected = 0, nWrong = 0;
+
+		for (int u=0;u<updates;u++)
+		{
+			int r = random.nextInt(R);
+			NBAttStatEvent update;
+			boolean superseded = previous[r]!=null && random.nextInt(10)==0;
+			if (superseded)
+			{
+				update = previous[r]; //delivered again, or after the newer one
+				nInjected++;
+			}
+			else
+			{
+				if (random.nextInt(UPDATES_PER_EPOCH)==0)
+				{
+					epoch[r]++; //rebalanced, the sequence restarts
+					sequence[r] = 0;
+				}
+				sequence[r]++;
+				update = newUpdate(r, epoch[r], sequence[r]);
+				previous[r] = update;
+			}
+			update.setLast(u==updates-1);
+
+			boolean accepted = coalescer.accept(update);
+			if (accepted==superseded)
+				nWrong++;
+			if (accepted)
+			{
+				nAccepted++;
+				int iMin = update.getIMin();
+				coalescer.add(update.getAttributeObservers(), iMin, update.getIMax());
+				System.arraycopy(update.getAttributeObservers(), 0, newest, iMin, RANGE_SIZE);
+			}
+
+			// as NBModelProcessor: compile when a batch needs it, and at the last update
+			if ((u%updatesPerBatch==0 && coalescer.isCompileDue()) || update.isLastEvent())
+				compile(coalescer, compiled);
+			if (u%updatesPerBatch==0 && coalescer.staleness()>maxStale)
+				nWrong++;
+		}
+
+		for (int i=0;i<A;i++)
+		{
+			if (compiled[i]!=newest[i])
+				nWrong++;
+		}
+		if (coalescer.hasPending() || coalescer.staleness()!=0)
+			nWrong++;
+		if (coalescer.getNumPartitions()!=R)
+			nWrong++;
+
+		System.out.println(R+" partitions, "+updates+" updates ("+nInjected+" duplicated or reordered), "
+				+"up to epoch "+max(epoch)+", a batch every "+updatesPerBatch+" updates, maxStaleInstances="+maxStale);
+		System.out.println("  skipped "+coalescer.getNumSkipped()+", compiled "+coalescer.getNumCompiled()
+				+" times instead of "+nAccepted);
+		System.out.println(nWrong==0 ? "  OK" : "  FAILED, "+nWrong+" wrong");
+		if (nWrong!=0)
+			System.exit(1);
+	}
+
+	private static NBAttStatEvent newUpdate(int partition, int epoch, long sequence)
+	{
+		AttributeClassObserver[] observers = new AttributeClassObserver[RANGE_SIZE];
+		for (int i=0;i<RANGE_SIZE;i++)
+		{
+			observers[i] = new NominalAttributeClassObserver();
+		}
+		int iMin = partition*RANGE_SIZE;
+		NBAttStatEvent update = new NBAttStatEvent(observers, iMin, iMin+RANGE_SIZE-1, epoch);
+		update.setProgress(partition, sequence, sequence*INSTANCES_PER_UPDATE);
+		return update;
+	}
+
+	private static int max(int[] values)
+	{
+		int max = 0;
+		for (int v : values)
+		{
+			max = Math.max(max, v);
+		}
+		return max;
+	}
+
+	private static void compile(NBUpdateCoalescer coalescer, AttributeClassObserver[] compiled)
+	{
+		if (!coalescer.hasPending())
+			return;
+		int iMin = coalescer.getPendingIMin();
+		AttributeClassObserver[] observers = coalescer.takePending();
+		for (int i=0;i<observers.length;i++)
+		{
+			if (observers[i]!=null)
+				compiled[iMin+i] = observers[i];
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.io.Serializable;
+
+/**
+ * When and what a NBAttributePartition sends to NBModel.
+ *
+ * Fixed schedule (divergenceThreshold=0):
+ *   an update every updateFrequency trained instances.
+ * Adaptive schedule (divergenceThreshold>0):
+ *   every updateFrequency trained instances, the divergence between the distributions
+ *   P(Xi|Cj) sent by the previous update and the current ones is estimated
+ *   for each changed attribute, and only the attributes over the threshold are sent.
+ *   A changed attribute is also sent when it was not sent for maxStaleInstances
+ *   trained instances or maxStaleMillis, 0 = no limit.
+ *   The time limit is only checked when the partition receives training data.
+ * In the fixed schedule, all the observers are sent every fullUpdatePeriod-th update,
+ * only the changed cells in between (1 = always send all observers).
+ * The adaptive schedule always sends the changed cells of the chosen attributes, all the observers
+ * only by the first update and every fullUpdatePeriod-th update if fullUpdatePeriod>1.
+ * @author hl
+ *
+ */
+final class NBUpdatePolicy implements Serializable {
+
+	private static final long serialVersionUID = 7203926418856502127L;
+
+	private final int updateFrequency;
+	private final int fullUpdatePeriod;
+	private final double divergenceThreshold;
+	private final int maxStaleInstances;
+	private final long maxStaleMillis;
+
+	NBUpdatePolicy(int updateFrequency, int fullUpdatePeriod, double divergenceThreshold,
+			int maxStaleInstances, long maxStaleMillis)
+	{
+		this.updateFrequency = updateFrequency;
+		this.fullUpdatePeriod = fullUpdatePeriod;
+		this.divergenceThreshold = divergenceThreshold;
+		this.maxStaleInstances = maxStaleInstances;
+		this.maxStaleMillis = maxStaleMillis;
+	}
+
+	/**
+	 * Fixed schedule
+	 */
+	NBUpdatePolicy(int updateFrequency, int fullUpdatePeriod)
+	{
+		this(updateFrequency, fullUpdatePeriod, 0, 0, 0);
+	}
+
+	boolean isAdaptive()
+	{
+		return this.divergenceThreshold>0;
+	}
+
+	int getUpdateFrequency()
+	{
+		return this.updateFrequency;
+	}
+
+	int getFullUpdatePeriod()
+	{
+		return this.fullUpdatePeriod;
+	}
+
+	/**
+	 * The update number nUpdates (0 = first update) sends all the observers
+	 */
+	boolean isFullUpdateDue(long nUpdates)
+	{
+		if (nUpdates==0)
+			return true; //NBModel needs the observers the deltas apply to
+		if (this.fullUpdatePeriod<=1)
+			return !isAdaptive();
+		return nUpdates%this.fullUpdatePeriod==0;
+	}
+
+	double getDivergenceThreshold()
+	{
+		return this.divergenceThreshold;
+	}
+
+	int getMaxStaleInstances()
+	{
+		return this.maxStaleInstances;
+	}
+
+	long getMaxStaleMillis()
+	{
+		return this.maxStaleMillis;
+	}
+}
@@ -0,0 +1,185 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserver;
+
+/**
+ * Runnable check of the updates sent by a NBAttributePartition with NBUpdatePolicy,
+ * on a simulated stream of weighted instances with missing values and a drift halfway:
+ * <ul>
+ * <li>the first update is full</li>
+ * <li>fixed schedule, fullUpdatePeriod=1: every update is full</li>
+ * <li>fixed schedule, fullUpdatePeriod>1: a full update every fullUpdatePeriod-th update,
+ * and after each update the observers received by NBModel (deltas applied) are the partition's</li>
+ * <li>adaptive schedule, fullUpdatePeriod=1 (the default): deltas after the first update,
+ * a full update only replaces a delta with more than half of the cells</li>
+ * </ul>
+ * The updates go through the binary format of NBAttStatEvent. Prints the bytes sent by
+ * each schedule, against the bytes of a full update at every same update.
+ * Exits with status 1 if a property does not hold.
+ *
+ * Usage: java com.yahoo.labs.samoa.learners.classifiers.hl.NBUpdatePolicyCheck
+ *            [instances] [updateFrequency] [divergenceThreshold]
+ * @author hl
+ *
+ */
+public final class NBUpdatePolicyCheck {
+
+	// number of values of each attribute, 0 if numeric, the last one is the class
+	private static final int[] NUM_VALUES = {30,0,50,0,40,2};
+
+	private static final double TOLERANCE = 1.0e-9;
+
+	private NBUpdatePolicyCheck()
+	{}
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException
+	{
+		int N = args.length>0 ? Integer.parseInt(args[0]) : 20000;
+		int frequency = args.length>1 ? Integer.parseInt(args[1]) : 10;
+		double threshold = args.length>2 ? Double.parseDouble(args[2]) : 0.01;
+
+		InstancesHeader header = newHeader();
+		boolean ok = true;
+		ok &= check("fixed    f=1", header, new NBUpdatePolicy(frequency, 1), N);
+		ok &= check("fixed    f=5", header, new NBUpdatePolicy(frequency, 5), N);
+		ok &= check("adaptive f=1", header, new NBUpdatePolicy(frequency, 1, threshold, 2000, 0), N);
+		ok &= check("adaptive f=5", header, new NBUpdatePolicy(frequency, 5, threshold, 2000, 0), N);
+		if (!ok)
+			System.exit(1);
+	}
+
+	private static boolean check(String name, InstancesHeader header, NBUpdatePolicy policy, int N)
+			throws IOException, ClassNotFoundException
+	{
+		int A = header.numAttributes();
+		NBAttributePartition partition = new NBAttributePartition(0, 0, 0, A-1, header, false, policy);
+		Random random = new Random(5);
+		AttributeClassObserver[] received = null;
+		long nUpdates = 0, nFull = 0, nWrongFull = 0, bytes = 0, fullBytes = 0;
+		double maxDiff = 0;
+		for (int n=0;n<N;n++)
+		{
+			partition.trainOnInstance(newInstance(header, random, n>=N/2));
+			if (!partition.isUpdateDue())
+				continue;
+
+			NBAttStatEvent update = partition.newUpdateEvent();
+			byte[] sent = serialize(update);
+			bytes += sent.length;
+			fullBytes += serialize(new NBAttStatEvent(partition.getObservers(0, A-1), 0, A-1, 0)).length;
+			update = (NBAttStatEvent)new ObjectInputStream(new ByteArrayInputStream(sent)).readObject();
+
+			boolean full = !update.isDelta();
+			if (!full && policy.isFullUpdateDue(nUpdates))
+				nWrongFull++;
+			if (full)
+			{
+				nFull++;
+				received = update.getAttributeObservers();
+			}
+			else
+			{
+				update.getDelta().applyTo(received);
+			}
+			nUpdates++;
+			if (!policy.isAdaptive())
+				maxDiff = Math.max(maxDiff, difference(header, partition.getObservers(0, A-1), received));
+		}
+
+		// a delta with more than half of the cells is also sent full
+		boolean deltasExpected = policy.isAdaptive() || policy.getFullUpdatePeriod()>1;
+		boolean ok = nUpdates>0 && nWrongFull==0 && maxDiff<=TOLERANCE
+				&& (deltasExpected ? nFull<nUpdates : nFull==nUpdates);
+		System.out.println(name+": "+nUpdates+" updates, "+nFull+" full, "+bytes/1024+" KB sent, "
+				+fullBytes/1024+" KB if all were full"
+				+(policy.isAdaptive() ? "" : ", received vs partition "+maxDiff)
+				+(ok ? " OK" : " FAILED"));
+		return ok;
+	}
+
+	private static byte[] serialize(NBAttStatEvent update) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(update);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Largest difference of P(x|Cj) of the observers, on every nominal value and a grid of numeric values
+	 */
+	private static double difference(InstancesHeader header, AttributeClassObserver[] x, AttributeClassObserver[] y)
+	{
+		int iClass = header.classIndex();
+		int K = header.numClasses();
+		double maxDiff = 0;
+		for (int i=0;i<x.length;i++)
+		{
+			for (int j=0;j<(i==iClass ? 1 : K);j++) //P(Cj) is stored with class 0
+			{
+				int nValues = NUM_VALUES[i];
+				for (double v=nValues>0 ? 0 : -5; v<(nValues>0 ? nValues : 10); v+=nValues>0 ? 1 : 0.7)
+				{
+					maxDiff = Math.max(maxDiff, Math.abs(x[i].probabilityOfAttributeValueGivenClass(v, j)
+							-y[i].probabilityOfAttributeValueGivenClass(v, j)));
+				}
+			}
+		}
+		return maxDiff;
+	}
+
+	private static Instance newInstance(InstancesHeader header, Random random, boolean drifted)
+	{
+		int iClass = header.classIndex();
+		double[] values = new double[NUM_VALUES.length];
+		for (int i=0;i<values.length;i++)
+		{
+			if (NUM_VALUES[i]>0)
+				values[i] = random.nextInt(NUM_VALUES[i]);
+			else
+				values[i] = random.nextGaussian()*3+i+(drifted ? 2 : 0);
+			if (i!=iClass && random.nextInt(20)==0)
+				values[i] = Double.NaN; //missing
+		}
+		Instance inst = new DenseInstance(0.5+random.nextDouble(), values);
+		inst.setDataset(header);
+		return inst;
+	}
+
+	private static InstancesHeader newHeader()
+	{
+		List<Attribute> attributes = new ArrayList<Attribute>(NUM_VALUES.length);
+		for (int i=0;i<NUM_VALUES.length;i++)
+		{
+			if (NUM_VALUES[i]==0)
+			{
+				attributes.add(new Attribute("a"+i));
+				continue;
+			}
+			List<String> labels = new ArrayList<String>(NUM_VALUES[i]);
+			for (int v=0;v<NUM_VALUES[i];v++)
+			{
+				labels.add(Integer.toString(v));
+			}
+			attributes.add(new Attribute("a"+i, labels));
+		}
+		Instances dataset = new Instances("check", attributes, 0);
+		dataset.setClassIndex(NUM_VALUES.length-1);
+		return new InstancesHeader(dataset);
+	}
+}
@@ -9,7 +9,7 @@ import org.slf4j.LoggerFactory;
 import com.github.javacliparser.*;
 import com.yahoo.labs.samoa.core.Processor;
 import com.yahoo.labs.samoa.instances.Instances;
-import com.yahoo.labs.samoa.learners.Learner;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
 import com.yahoo.labs.samoa.topology.Stream;
 import com.yahoo.labs.samoa.topology.TopologyBuilder;
 
@@ -23,8 +23,9 @@ import com.yahoo.labs.samoa.topology.TopologyBuilder;
  * 
  * 2014.4.16 first version
  * 2014.4.18 use new topology
+ * The NBModel and NBDistributor options are shared with HorizontalNaiveBayes (see AbstractNaiveBayes).
  */
-public class NaiveBayes implements Learner, Configurable{
+public class NaiveBayes extends AbstractNaiveBayes{
 	
 	/*
 	 * NB-6 Topology:
@@ -35,6 +36,17 @@ public class NaiveBayes implements Learner, Configurable{
 	 *                                              
 	 * Use multiple NBModel to do horizontal parallel for testing instances
 	 * and NBAttributeStat update the NBModels
+	 * 
+	 * With rebalancePeriod>0: [NBAttributeStat:p1]--rebalanceStream(all)-->[NBDistributor:1]
+	 * carries the training time of the partitions and the observers of the moved attributes
+	 * 
+	 * With maxInFlightBatches>0: [NBAttributeStat:p1]--trainCreditStream(all)-->[NBDistributor:1]
+	 *                            [NBModel:p2]--testCreditStream(all)-->[NBDistributor:1]
+	 * carry the credits of the processed batches, see NBCreditEvent
+	 * With testRouting=leastLoaded, testStream is a key stream and testCreditStream
+	 * carries the acknowledgements of the testing batches, see NBTestRouter
+	 * With projectedTraining, trainStream is a key stream and trainCreditStream
+	 * carries the acknowledgements of the routing probes, see NBPartitionRouter
 	 */
 
 	/**
@@ -59,12 +71,18 @@ public class NaiveBayes implements Learner, Configurable{
 	private Stream trainStream;
 	private Stream testStream;
 	private Stream attStatStream;
+	private Stream rebalanceStream; //only created if rebalancePeriod>0
+	private Stream trainCreditStream; //only created if maxInFlightBatches>0 or projectedTraining
+	private Stream testCreditStream; //only created if maxInFlightBatches>0 or testRouting=leastLoaded
 	//private Stream classStatStream;
 	//private Stream aggControlStream;
 	//private Stream aggResponseStream;
 		
 	private Stream resultStream; //the data of prediction result
 	
+	// assignment of the attributes to the NBAttributeStat's
+	private NBAttributePartitioning attributePartitioning;
+	
 	
 	public IntOption nParallelAttributeStat = new IntOption(
             "parallelAttributeStat",
@@ -78,18 +96,96 @@ public class NaiveBayes implements Learner, Configurable{
 //            "number of ClassStat Processors",
 //            1, 1, Integer.MAX_VALUE);
 	
-	public IntOption nParallelModel = new IntOption(
-            "parallelModel",
-            'm',
-            "number of NBModel Processors",
-            1, 1, Integer.MAX_VALUE);
-	
 	public IntOption nBatchSize = new IntOption(
             "batchSize",
             'b',
             "train and testing is group by group, batchSize is number of instances in a group",
             200, 1, Integer.MAX_VALUE);
 	
+	public IntOption nTrainingThreads = new IntOption(
+            "trainingThreads",
+            'i',
+            "number of threads of each NBAttributeStat to train a batch of instances on chunks of its attributes, "
+            + "1 for no parallel training",
+            1, 1, Integer.MAX_VALUE);
+	
+	public IntOption fullUpdatePeriodOption = new IntOption(
+            "fullUpdatePeriod",
+            'f',
+            "NBAttributeStat sends all its observers to NBModel every f-th update, "
+            + "and only the cells changed since the previous update in between. 1 = always send all observers, "
+            + "except with updateDivergence>0: the changed cells are always sent, f>1 adds the periodic full updates",
+            1, 1, Integer.MAX_VALUE);
+	
+	public FloatOption updateDivergenceOption = new FloatOption(
+			"updateDivergence",
+			'd',
+			"0 = NBAttributeStat updates NBModel every batchSize trained instances. "
+			+ "d>0 = every batchSize trained instances, only the attributes whose distributions P(Xi|Cj) moved "
+			+ "by more than d since their previous update are sent (total variation / Hellinger distance)",
+			0, 0, 1);
+	
+	public IntOption maxStaleInstancesOption = new IntOption(
+            "maxStaleInstances",
+            'x',
+            "with updateDivergence>0, a changed attribute is sent at least every x trained instances, 0 = no limit",
+            0, 0, Integer.MAX_VALUE);
+	
+	public IntOption maxStaleMillisOption = new IntOption(
+            "maxStaleMillis",
+            'w',
+            "with updateDivergence>0, a changed attribute is sent at least every w milliseconds "
+            + "(checked when training data is received), 0 = no limit",
+            0, 0, Integer.MAX_VALUE);
+	
+	public FlagOption projectedTrainingOption = new FlagOption(
+			"projectedTraining",
+			'j',
+			"NBDistributor sends each NBAttributeStat only the attributes it trains (with the class and weight), "
+			+ "by key grouping, instead of sending the full training instances to all NBAttributeStat. "
+			+ "The key of each partition is probed so the partitions go to distinct NBAttributeStat "
+			+ "(see NBPartitionRouter)");
+	
+	public FlagOption columnarTrainingOption = new FlagOption(
+			"columnarTraining",
+			'l',
+			"NBDistributor sends the training batches to all NBAttributeStat as columns of primitive values "
+			+ "(see NBAttributeSliceEvent) instead of instances, NBAttributeStat trains them attribute by attribute. "
+			+ "Overridden by combineTraining, unless the dataset has numeric attributes");
+	
+	public FlagOption combineTrainingOption = new FlagOption(
+			"combineTraining",
+			'o',
+			"for nominal-only datasets, NBDistributor collapses each training batch into the summed weights "
+			+ "of its (attribute, value, class) cells (see NBCountEvent), NBAttributeStat adds them "
+			+ "instead of training the instances. With projectedTraining, one event per partition. "
+			+ "Takes precedence over columnarTraining");
+	
+	public MultiChoiceOption nominalObserverOption = new MultiChoiceOption(
+			"nominalObserver",
+			'n',
+			"how NBAttributeStat stores the statistics of nominal attributes",
+			new String[]{"autoExpand","dense"},
+			new String[]{"NominalAttributeClassObserver, one DoubleVector per class, grows with the observed values",
+					"DenseNominalAttributeClassObserver, one double[K*V] array sized from the dataset header"},
+			0);
+	
+	public MultiChoiceOption attributePartitioningOption = new MultiChoiceOption(
+			"attributePartitioning",
+			'c',
+			"how the attributes are assigned to the NBAttributeStat",
+			new String[]{"even","cost"},
+			new String[]{"the same number of attributes per NBAttributeStat, by index",
+					"contiguous ranges of balanced estimated cost, from the type and number of values of the attributes"},
+			0);
+	
+	public IntOption rebalancePeriodOption = new IntOption(
+            "rebalancePeriod",
+            'e',
+            "NBDistributor checks the training time of the attribute partitions every e training batches, "
+            + "and moves attributes between NBAttributeStat if it reduces the slowest one. 0 = never",
+            0, 0, Integer.MAX_VALUE);
+	
 	@Override
 	public void init(TopologyBuilder builder, Instances dataset, int parallelism) {
 		logger.info("================================================");
@@ -102,12 +198,35 @@ public class NaiveBayes implements Learner, Configurable{
 		//int p2 = nParallelClassStat.getValue();
 		int p2 = this.nParallelModel.getValue();
 		int batchSize = this.nBatchSize.getValue();
+		boolean denseNominalObserver = this.nominalObserverOption.getChosenIndex()==1;
+		
+		boolean projectedTraining = this.projectedTrainingOption.isSet();
+		boolean leastLoadedTesting = isLeastLoadedTesting();
+		
+		this.attributePartitioning = NBAttributePartitioning.create(
+				NBAttributePartitioning.Strategy.values()[this.attributePartitioningOption.getChosenIndex()],
+				new InstancesHeader(dataset), p1, batchSize);
+		logger.info("attribute partitioning: {}",this.attributePartitioning);
 		
-		this.nbDistributorP = new NBDistributor.Builder().batchSize(batchSize).build();
-		this.nbAttStatP = new NBAttributeStat.Builder().dataset(dataset).p1(p1).updateFrequency(batchSize).build();
+		this.nbDistributorP = newDistributorBuilder(dataset, batchSize)
+				.projectedTraining(projectedTraining)
+				.columnarTraining(this.columnarTrainingOption.isSet())
+				.combineTraining(this.combineTrainingOption.isSet())
+				.p1(p1).partitioning(this.attributePartitioning)
+				.rebalancePeriod(this.rebalancePeriodOption.getValue()).build();
+		this.nbAttStatP = new NBAttributeStat.Builder().dataset(dataset).p1(p1).updateFrequency(batchSize)
+				.denseNominalObserver(denseNominalObserver)
+				.fullUpdatePeriod(this.fullUpdatePeriodOption.getValue())
+				.updateDivergence(this.updateDivergenceOption.getValue())
+				.maxStaleInstances(this.maxStaleInstancesOption.getValue())
+				.maxStaleMillis(this.maxStaleMillisOption.getValue())
+				.trainingThreads(this.nTrainingThreads.getValue())
+				.projectedTraining(projectedTraining)
+				.partitioning(this.attributePartitioning)
+				.rebalance(this.rebalancePeriodOption.getValue()>0).build();
 		//this.nbClassStatP = new NBClassStat.Builder().build();
 		//this.nbAggregatorP = new NBAggregator.Builder().build();
-		this.nbModelP = new NBModelProcessor.Builder().dataset(dataset).build(); 
+		this.nbModelP = newModelProcessor(dataset);
 		
 		builder.addProcessor(this.nbDistributorP,1);
 		builder.addProcessor(this.nbAttStatP,p1);
@@ -118,9 +237,25 @@ public class NaiveBayes implements Learner, Configurable{
 		logger.debug("NB Processors added.");
 		
 		// Create Streams
-		this.trainStream = builder.createInputAllStream(nbAttStatP,nbDistributorP);//nbDistributor-->nbAttStat
+		if (projectedTraining)
+		{
+			//nbDistributor--slice of partition q, key=q-->nbAttStat
+			this.trainStream = builder.createInputKeyStream(nbAttStatP,nbDistributorP);
+		}
+		else
+		{
+			this.trainStream = builder.createInputAllStream(nbAttStatP,nbDistributorP);//nbDistributor-->nbAttStat
+		}
 		this.attStatStream = builder.createInputAllStream(nbModelP,nbAttStatP);
-		this.testStream = builder.createInputShuffleStream(nbModelP,nbDistributorP);
+		if (leastLoadedTesting)
+		{
+			//nbDistributor--testing batch, key of the least loaded nbModel-->nbModel
+			this.testStream = builder.createInputKeyStream(nbModelP,nbDistributorP);
+		}
+		else
+		{
+			this.testStream = builder.createInputShuffleStream(nbModelP,nbDistributorP);
+		}
 		
 		//this.classStatStream = builder.createInputAllStream(nbAggregatorP,nbClassStatP);
 		//this.aggControlStream = builder.createInputAllStream( nbAggregatorP,nbDistributorP);
@@ -135,6 +270,26 @@ public class NaiveBayes implements Learner, Configurable{
 		//this.nbModelP.setTestStream(testStream);
 		
 		this.nbAttStatP.setAttStatStream(attStatStream);
+		
+		if (this.rebalancePeriodOption.getValue()>0)
+		{
+			//nbAttStat--load, migrated observers-->nbDistributor
+			this.rebalanceStream = builder.createInputAllStream(nbDistributorP,nbAttStatP);
+			this.nbAttStatP.setRebalanceStream(rebalanceStream);
+		}
+		
+		if (isFlowControlled() || projectedTraining)
+		{
+			//nbAttStat--credits, acknowledgements of the probes-->nbDistributor
+			this.trainCreditStream = builder.createInputAllStream(nbDistributorP,nbAttStatP);
+			this.nbAttStatP.setCreditStream(trainCreditStream);
+		}
+		if (isFlowControlled() || leastLoadedTesting)
+		{
+			//nbModel--credits, acknowledgements-->nbDistributor
+			this.testCreditStream = builder.createInputAllStream(nbDistributorP,nbModelP);
+			this.nbModelP.setCreditStream(testCreditStream);
+		}
 		//this.nbModelP.setAttStatStream(attStatStream);
 		
 //		this.nbClassStatP.setClassStatStream(classStatStream);
@@ -163,5 +318,12 @@ public class NaiveBayes implements Learner, Configurable{
 	public Stream getResultStream() {
 		return this.resultStream;
 	}
+	
+	/**
+	 * Assignment of the attributes to the NBAttributeStat's, available after init
+	 */
+	public NBAttributePartitioning getAttributePartitioning() {
+		return this.attributePartitioning;
+	}
 
 }
@@ -54,5 +54,31 @@ public interface AttributeClassObserver extends Serializable {
     public double probabilityOfAttributeValueGivenClass(double attVal,
             int classVal);
 
-    
+    /**
+     * Gets a deep copy of this observer, later observations of this
+     * observer do not change the copy
+     *
+     * @return the copy
+     */
+    public AttributeClassObserver copy();
+
+    /**
+     * Adds the statistics of another observer of the same attribute to this one,
+     * the result is the same as if this observer had also observed the
+     * instances of the other
+     *
+     * @param other observer of the same type
+     * @throws IllegalArgumentException if other is not of the same type
+     */
+    public void merge(AttributeClassObserver other);
+
+    /**
+     * Removes the statistics of another observer of the same attribute from this one,
+     * the inverse of merge. The other observer must have observed a subset
+     * of the instances of this observer
+     *
+     * @param other observer of the same type
+     * @throws IllegalArgumentException if other is not of the same type
+     */
+    public void subtract(AttributeClassObserver other);
 }
@@ -0,0 +1,136 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers;
+
+import java.util.Random;
+
+/**
+ * Runnable check of AttributeClassObserver.merge and subtract, for each observer type:
+ * <ul>
+ * <li>observations split at random in 3 parts, trained separately and merged
+ * (in both orders), give the observer trained sequentially on all of them</li>
+ * <li>merging a part then subtracting it gives back the observer before the merge</li>
+ * </ul>
+ * The observers are compared by their probabilities P(x|Cj), relative for the
+ * gaussian densities. Exits with status 1 if a property does not hold.
+ *
+ * Usage: java com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers.AttributeClassObserverMergeCheck [trials] [seed]
+ *
+ * @author hl
+ */
+public final class AttributeClassObserverMergeCheck {
+
+    private static final int NUM_CLASSES = 3;
+
+    private static final int NUM_VALUES = 7;
+
+    private static final String[] TYPES = {"NominalAttributeClassObserver",
+        "DenseNominalAttributeClassObserver", "GaussianNumericAttributeClassObserver"};
+
+    private static final double MERGE_TOLERANCE = 1.0e-9;
+
+    // subtracting a gaussian estimator cancels the variance sums of values around 1e4,
+    // with few observations left it is much less precise than merging
+    private static final double SUBTRACT_TOLERANCE = 1.0e-4;
+
+    private AttributeClassObserverMergeCheck() {
+    }
+
+    public static void main(String[] args) {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Random random = new Random(seed);
+        double[] worstMerge = new double[TYPES.length];
+        double[] worstSubtract = new double[TYPES.length];
+        for (int trial = 0; trial < trials; trial++) {
+            for (int type = 0; type < TYPES.length; type++) {
+                double[] errors = checkOnce(type, random);
+                worstMerge[type] = Math.max(worstMerge[type], errors[0]);
+                worstSubtract[type] = Math.max(worstSubtract[type], errors[1]);
+            }
+        }
+
+        boolean ok = true;
+        for (int type = 0; type < TYPES.length; type++) {
+            boolean typeOk = worstMerge[type] <= MERGE_TOLERANCE
+                    && worstSubtract[type] <= SUBTRACT_TOLERANCE;
+            System.out.println(TYPES[type] + ": merged vs sequential " + worstMerge[type]
+                    + ", merge then subtract vs original " + worstSubtract[type]
+                    + (typeOk ? " OK" : " FAILED"));
+            ok = ok && typeOk;
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return largest difference of merge vs sequential, and of merge then subtract vs original
+     */
+    private static double[] checkOnce(int type, Random random) {
+        AttributeClassObserver sequential = newObserver(type);
+        AttributeClassObserver[] parts = {newObserver(type), newObserver(type), newObserver(type)};
+        int n = random.nextInt(200);
+        double shift = random.nextGaussian() * 1.0e4; // large values, as in real numeric attributes
+        for (int t = 0; t < n; t++) {
+            double value = type < 2 ? random.nextInt(NUM_VALUES)
+                    : shift + random.nextGaussian() * (1 + random.nextInt(3));
+            if (random.nextInt(15) == 0) {
+                value = Double.NaN; // missing
+            }
+            int classVal = random.nextInt(NUM_CLASSES);
+            double weight = 0.1 + random.nextDouble() * 3;
+            sequential.observeAttributeClass(value, classVal, weight);
+            parts[random.nextInt(parts.length)].observeAttributeClass(value, classVal, weight);
+        }
+
+        // (a+b)+c and a+(b+c)
+        AttributeClassObserver ab = parts[0].copy();
+        ab.merge(parts[1]);
+        AttributeClassObserver abc = ab.copy();
+        abc.merge(parts[2]);
+        AttributeClassObserver bc = parts[1].copy();
+        bc.merge(parts[2]);
+        AttributeClassObserver abc2 = parts[0].copy();
+        abc2.merge(bc);
+        double mergeError = Math.max(difference(sequential, abc, type, shift),
+                difference(sequential, abc2, type, shift));
+
+        // ((a+b+c)-c)-b
+        AttributeClassObserver back = abc.copy();
+        back.subtract(parts[2]);
+        double subtractError = difference(ab, back, type, shift);
+        back.subtract(parts[1]);
+        subtractError = Math.max(subtractError, difference(parts[0], back, type, shift));
+        return new double[]{mergeError, subtractError};
+    }
+
+    private static AttributeClassObserver newObserver(int type) {
+        switch (type) {
+            case 0:
+                return new NominalAttributeClassObserver();
+            case 1:
+                return new DenseNominalAttributeClassObserver(NUM_VALUES, NUM_CLASSES);
+            default:
+                return new GaussianNumericAttributeClassObserver();
+        }
+    }
+
+    private static double difference(AttributeClassObserver x, AttributeClassObserver y,
+            int type, double shift) {
+        double max = 0.0;
+        for (int classVal = 0; classVal < NUM_CLASSES; classVal++) {
+            if (type < 2) {
+                for (int value = 0; value < NUM_VALUES; value++) {
+                    max = Math.max(max, Math.abs(x.probabilityOfAttributeValueGivenClass(value, classVal)
+                            - y.probabilityOfAttributeValueGivenClass(value, classVal)));
+                }
+                continue;
+            }
+            for (double offset = -6.0; offset < 6.0; offset += 0.5) {
+                double p = x.probabilityOfAttributeValueGivenClass(shift + offset, classVal);
+                double q = y.probabilityOfAttributeValueGivenClass(shift + offset, classVal);
+                max = Math.max(max, Math.abs(p - q) / Math.max(1.0e-3, Math.abs(p)));
+            }
+        }
+        return max;
+    }
+}
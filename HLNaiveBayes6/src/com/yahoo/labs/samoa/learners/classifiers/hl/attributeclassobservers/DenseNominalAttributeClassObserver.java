@@ -0,0 +1,197 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers;
+
+import com.yahoo.labs.samoa.moa.core.Utils;
+
+/**
+ * Class for observing the class data distribution for a nominal attribute,
+ * with a fixed number of values and classes known in advance (from the InstancesHeader).
+ *
+ * Same statistics as NominalAttributeClassObserver, but the weights are stored
+ * in one contiguous array counts[attVal*numClasses+classVal] instead of one
+ * DoubleVector per class, and the total weight of each class is kept up to date,
+ * so probabilityOfAttributeValueGivenClass does not sum the values of a class.
+ *
+ * The caller must only observe attVal in [0,numValues) and classVal in [0,numClasses).
+ * The smoothing uses numValues of the header, NominalAttributeClassObserver uses
+ * the number of values observed so far.
+ *
+ * @author hl
+ */
+public class DenseNominalAttributeClassObserver implements
+        DiscreteAttributeClassObserver {
+
+    private static final long serialVersionUID = -1748102915583720163L;
+
+    protected final int numValues; //V
+    protected final int numClasses; //K
+
+    protected final double[] counts; //weight of (v,j) at v*K+j
+
+    protected final double[] classTotals; //total weight of class j
+
+    protected double totalWeightObserved = 0.0;
+
+    protected double missingWeightObserved = 0.0;
+
+    /**
+     * @param numValues number of values of the attribute
+     * @param numClasses number of classes to observe
+     */
+    public DenseNominalAttributeClassObserver(int numValues, int numClasses) {
+        this.numValues = numValues;
+        this.numClasses = numClasses;
+        this.counts = new double[numValues * numClasses];
+        this.classTotals = new double[numClasses];
+    }
+
+    @Override
+    public void observeAttributeClass(double attVal, int classVal, double weight) {
+        if (Utils.isMissingValue(attVal)) {
+            this.missingWeightObserved += weight;
+        } else {
+            this.counts[(int) attVal * this.numClasses + classVal] += weight;
+            this.classTotals[classVal] += weight;
+        }
+        this.totalWeightObserved += weight;
+    }
+
+    @Override
+    public AttributeClassObserver copy() {
+        DenseNominalAttributeClassObserver copy = new DenseNominalAttributeClassObserver(
+                this.numValues, this.numClasses);
+        System.arraycopy(this.counts, 0, copy.counts, 0, this.counts.length);
+        System.arraycopy(this.classTotals, 0, copy.classTotals, 0, this.classTotals.length);
+        copy.totalWeightObserved = this.totalWeightObserved;
+        copy.missingWeightObserved = this.missingWeightObserved;
+        return copy;
+    }
+
+    @Override
+    public void merge(AttributeClassObserver other) {
+        DenseNominalAttributeClassObserver denseOther = cast(other);
+        for (int c = 0; c < this.counts.length; c++) {
+            this.counts[c] += denseOther.counts[c];
+        }
+        for (int j = 0; j < this.numClasses; j++) {
+            this.classTotals[j] += denseOther.classTotals[j];
+        }
+        this.totalWeightObserved += denseOther.totalWeightObserved;
+        this.missingWeightObserved += denseOther.missingWeightObserved;
+    }
+
+    @Override
+    public void subtract(AttributeClassObserver other) {
+        DenseNominalAttributeClassObserver denseOther = cast(other);
+        // a class is unobserved again only if its total is exactly 0
+        for (int c = 0; c < this.counts.length; c++) {
+            this.counts[c] = remaining(this.counts[c], denseOther.counts[c]);
+        }
+        for (int j = 0; j < this.numClasses; j++) {
+            this.classTotals[j] = remaining(this.classTotals[j], denseOther.classTotals[j]);
+        }
+        this.totalWeightObserved -= denseOther.totalWeightObserved;
+        this.missingWeightObserved -= denseOther.missingWeightObserved;
+    }
+
+    private static double remaining(double weight, double removed) {
+        double remaining = weight - removed;
+        return remaining > NominalAttributeClassObserver.SUBTRACT_TOLERANCE * weight ? remaining : 0.0;
+    }
+
+    private DenseNominalAttributeClassObserver cast(AttributeClassObserver other) {
+        if (!(other instanceof DenseNominalAttributeClassObserver)) {
+            throw new IllegalArgumentException("cannot combine "
+                    + other.getClass().getName() + " with DenseNominalAttributeClassObserver");
+        }
+        DenseNominalAttributeClassObserver denseOther = (DenseNominalAttributeClassObserver) other;
+        if (denseOther.numValues != this.numValues || denseOther.numClasses != this.numClasses) {
+            throw new IllegalArgumentException("cannot combine observers of "
+                    + denseOther.numValues + "x" + denseOther.numClasses + " and "
+                    + this.numValues + "x" + this.numClasses + " cells");
+        }
+        return denseOther;
+    }
+
+    @Override
+    public double probabilityOfAttributeValueGivenClass(double attVal,
+            int classVal) {
+        double classTotal = this.classTotals[classVal];
+        if (classTotal == 0.0) {
+            return 0.0; // class not observed, same as NominalAttributeClassObserver
+        }
+        int attValInt = (int) attVal;
+        double count = (attValInt >= 0 && attValInt < this.numValues) ? this.counts[attValInt
+                * this.numClasses + classVal]
+                : 0.0;
+        return (count + 1.0) / (classTotal + this.numValues);
+    }
+
+    /**
+     * Gets the observed weight of an attribute value and a class
+     */
+    public double getWeight(int attVal, int classVal) {
+        return this.counts[attVal * this.numClasses + classVal];
+    }
+
+    /**
+     * Replaces the observed weight of an attribute value and a class,
+     * the total of the class is updated
+     */
+    public void setWeight(int attVal, int classVal, double weight) {
+        int cell = attVal * this.numClasses + classVal;
+        this.classTotals[classVal] += weight - this.counts[cell];
+        this.counts[cell] = weight;
+    }
+
+    /**
+     * Replaces all the statistics of this observer
+     *
+     * @param counts weights of (v,j) at v*numClasses+j
+     * @param classTotals total weight of each class
+     */
+    public void setState(double[] counts, double[] classTotals,
+            double totalWeight, double missingWeight) {
+        System.arraycopy(counts, 0, this.counts, 0, this.counts.length);
+        System.arraycopy(classTotals, 0, this.classTotals, 0, this.classTotals.length);
+        this.totalWeightObserved = totalWeight;
+        this.missingWeightObserved = missingWeight;
+    }
+
+    /**
+     * Gets the weights of (v,j) at v*numClasses+j, must not be changed
+     */
+    public double[] getCountsRef() {
+        return this.counts;
+    }
+
+    /**
+     * Replaces the total and missing observed weights
+     */
+    public void setObservedWeights(double totalWeight, double missingWeight) {
+        this.totalWeightObserved = totalWeight;
+        this.missingWeightObserved = missingWeight;
+    }
+
+    /**
+     * Gets the total observed weight of a class (missing values excluded)
+     */
+    public double getClassTotal(int classVal) {
+        return this.classTotals[classVal];
+    }
+
+    public int getNumValues() {
+        return this.numValues;
+    }
+
+    public int getNumClasses() {
+        return this.numClasses;
+    }
+
+    public double totalWeightOfClassObservations() {
+        return this.totalWeightObserved;
+    }
+
+    public double weightOfObservedMissingValues() {
+        return this.missingWeightObserved;
+    }
+}
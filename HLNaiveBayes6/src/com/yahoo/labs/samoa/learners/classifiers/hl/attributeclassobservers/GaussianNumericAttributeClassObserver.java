@@ -56,13 +56,34 @@ public class GaussianNumericAttributeClassObserver
     public IntOption numBinsOption = new IntOption("numBins", 'n',
             "The number of bins.", 10, 1, Integer.MAX_VALUE);
 
+    // scoring constants of each class, at classVal*CACHE_SIZE:
+    //   mean, 1/(2*variance), log( 1/(stdDev*sqrt(2PI)) )
+    // a class is recomputed only after it has new observations
+    private static final int CACHE_MEAN = 0;
+    private static final int CACHE_HALF_INV_VAR = 1;
+    private static final int CACHE_LOG_NORM = 2;
+    private static final int CACHE_SIZE = 3;
+
+    protected transient double[] logDensityCache;
+
+    protected transient boolean[] logDensityCacheValid;
+
+    // state of the estimator of a class, see getEstimatorState:
+    //   weightSum, mean, varianceSum, min value, max value
+    public static final int STATE_WEIGHT = 0;
+    public static final int STATE_MEAN = 1;
+    public static final int STATE_VARIANCE_SUM = 2;
+    public static final int STATE_MIN = 3;
+    public static final int STATE_MAX = 4;
+    public static final int STATE_SIZE = 5;
+
     @Override
     public void observeAttributeClass(double attVal, int classVal, double weight) {
         if (Utils.isMissingValue(attVal)) {
         } else {
             GaussianEstimator valDist = this.attValDistPerClass.get(classVal);
             if (valDist == null) {
-                valDist = new GaussianEstimator();
+                valDist = new SettableGaussianEstimator();
                 this.attValDistPerClass.set(classVal, valDist);
                 this.minValueObservedPerClass.setValue(classVal, attVal);
                 this.maxValueObservedPerClass.setValue(classVal, attVal);
@@ -75,14 +96,255 @@ public class GaussianNumericAttributeClassObserver
                 }
             }
             valDist.addObservation(attVal, weight);
+            if (this.logDensityCacheValid != null
+                    && classVal < this.logDensityCacheValid.length) {
+                this.logDensityCacheValid[classVal] = false;
+            }
+        }
+    }
+
+    @Override
+    public AttributeClassObserver copy() {
+        GaussianNumericAttributeClassObserver copy = new GaussianNumericAttributeClassObserver();
+        copy.minValueObservedPerClass = new DoubleVector(this.minValueObservedPerClass);
+        copy.maxValueObservedPerClass = new DoubleVector(this.maxValueObservedPerClass);
+        for (int i = 0; i < this.attValDistPerClass.size(); i++) {
+            GaussianEstimator valDist = this.attValDistPerClass.get(i);
+            if (valDist != null) {
+                copy.attValDistPerClass.set(i, new SettableGaussianEstimator(valDist));
+            }
+        }
+        copy.numBinsOption.setValue(this.numBinsOption.getValue());
+        return copy;
+    }
+
+    /**
+     * Combines the estimators of each class with the parallel mean/variance
+     * update of GaussianEstimator.addObservations
+     */
+    @Override
+    public void merge(AttributeClassObserver other) {
+        GaussianNumericAttributeClassObserver gaussianOther = cast(other);
+        for (int i = 0; i < gaussianOther.attValDistPerClass.size(); i++) {
+            GaussianEstimator otherDist = gaussianOther.attValDistPerClass.get(i);
+            if (otherDist == null) {
+                continue;
+            }
+            GaussianEstimator valDist = this.attValDistPerClass.get(i);
+            double otherMin = gaussianOther.minValueObservedPerClass.getValue(i);
+            double otherMax = gaussianOther.maxValueObservedPerClass.getValue(i);
+            if (valDist == null) {
+                this.attValDistPerClass.set(i, new SettableGaussianEstimator(otherDist));
+                this.minValueObservedPerClass.setValue(i, otherMin);
+                this.maxValueObservedPerClass.setValue(i, otherMax);
+            } else {
+                valDist.addObservations(otherDist);
+                if (otherMin < this.minValueObservedPerClass.getValue(i)) {
+                    this.minValueObservedPerClass.setValue(i, otherMin);
+                }
+                if (otherMax > this.maxValueObservedPerClass.getValue(i)) {
+                    this.maxValueObservedPerClass.setValue(i, otherMax);
+                }
+            }
+            invalidateCache(i);
+        }
+    }
+
+    /**
+     * Removes the observations of each class with SettableGaussianEstimator.subtractObservations.
+     * The min and max values observed cannot be removed, they are kept as bounds
+     */
+    @Override
+    public void subtract(AttributeClassObserver other) {
+        GaussianNumericAttributeClassObserver gaussianOther = cast(other);
+        for (int i = 0; i < gaussianOther.attValDistPerClass.size(); i++) {
+            GaussianEstimator otherDist = gaussianOther.attValDistPerClass.get(i);
+            GaussianEstimator valDist = this.attValDistPerClass.get(i);
+            if (otherDist == null || valDist == null) {
+                continue;
+            }
+            SettableGaussianEstimator estimator = valDist instanceof SettableGaussianEstimator
+                    ? (SettableGaussianEstimator) valDist
+                    : new SettableGaussianEstimator(valDist);
+            estimator.subtractObservations(otherDist);
+            // a class without observations is observed again from its next value
+            this.attValDistPerClass.set(i,
+                    estimator.getTotalWeightObserved() > 0.0 ? estimator : null);
+            invalidateCache(i);
+        }
+    }
+
+    private static GaussianNumericAttributeClassObserver cast(AttributeClassObserver other) {
+        if (!(other instanceof GaussianNumericAttributeClassObserver)) {
+            throw new IllegalArgumentException("cannot combine "
+                    + other.getClass().getName() + " with GaussianNumericAttributeClassObserver");
+        }
+        return (GaussianNumericAttributeClassObserver) other;
+    }
+
+    private void invalidateCache(int classVal) {
+        if (this.logDensityCacheValid != null
+                && classVal < this.logDensityCacheValid.length) {
+            this.logDensityCacheValid[classVal] = false;
         }
     }
 
     @Override
     public double probabilityOfAttributeValueGivenClass(double attVal,
             int classVal) {
-        GaussianEstimator obs = this.attValDistPerClass.get(classVal);
-        return obs != null ? obs.probabilityDensity(attVal) : 0.0;
+        return Math.exp(logProbabilityDensityOfAttributeValueGivenClass(attVal, classVal));
+    }
+
+    /**
+     * Gets the log of the probability density of an attribute value given a class.
+     * Uses the cached constants of the class instead of recomputing the
+     * mean, variance, sqrt and normalizing constant of the estimator.
+     *
+     * @param attVal the attribute value
+     * @param classVal the class
+     * @return log density, -Infinity if the class is not observed
+     */
+    public double logProbabilityDensityOfAttributeValueGivenClass(double attVal,
+            int classVal) {
+        int base = cachedConstants(classVal);
+        double diff = attVal - this.logDensityCache[base + CACHE_MEAN];
+        if (diff == 0.0) {
+            return this.logDensityCache[base + CACHE_LOG_NORM];
+        }
+        return this.logDensityCache[base + CACHE_LOG_NORM]
+                - diff * diff * this.logDensityCache[base + CACHE_HALF_INV_VAR];
+    }
+
+    /**
+     * Gets the mean of the attribute values observed for a class
+     */
+    public double getMeanOfClass(int classVal) {
+        int base = cachedConstants(classVal);
+        return this.logDensityCache[base + CACHE_MEAN];
+    }
+
+    /**
+     * Gets 1/(2*variance) of the attribute values observed for a class,
+     * Infinity if the variance is 0
+     */
+    public double getHalfInverseVarianceOfClass(int classVal) {
+        int base = cachedConstants(classVal);
+        return this.logDensityCache[base + CACHE_HALF_INV_VAR];
+    }
+
+    /**
+     * Gets log( 1/(stdDev*sqrt(2PI)) ) of a class, the log density at the mean.
+     * 0 if the variance is 0, -Infinity if the class is not observed
+     */
+    public double getLogNormalizerOfClass(int classVal) {
+        int base = cachedConstants(classVal);
+        return this.logDensityCache[base + CACHE_LOG_NORM];
+    }
+
+    /**
+     * Makes sure the cached constants of a class are up to date.
+     * May replace logDensityCache, so callers read the array only after it returns
+     *
+     * @param classVal the class
+     * @return offset of the constants of the class in logDensityCache
+     */
+    private int cachedConstants(int classVal) {
+        if (this.logDensityCacheValid == null
+                || classVal >= this.logDensityCacheValid.length) {
+            int n = Math.max(classVal + 1, this.attValDistPerClass.size());
+            double[] cache = new double[n * CACHE_SIZE];
+            boolean[] valid = new boolean[n];
+            if (this.logDensityCacheValid != null) {
+                System.arraycopy(this.logDensityCache, 0, cache, 0, this.logDensityCache.length);
+                System.arraycopy(this.logDensityCacheValid, 0, valid, 0, this.logDensityCacheValid.length);
+            }
+            this.logDensityCache = cache;
+            this.logDensityCacheValid = valid;
+        }
+
+        int base = classVal * CACHE_SIZE;
+        if (!this.logDensityCacheValid[classVal]) {
+            // same cases as GaussianEstimator.probabilityDensity
+            GaussianEstimator obs = this.attValDistPerClass.get(classVal);
+            if (obs == null || obs.getTotalWeightObserved() <= 0.0) {
+                this.logDensityCache[base + CACHE_MEAN] = 0.0;
+                this.logDensityCache[base + CACHE_HALF_INV_VAR] = 0.0;
+                this.logDensityCache[base + CACHE_LOG_NORM] = Double.NEGATIVE_INFINITY;
+            } else {
+                double stdDev = obs.getStdDev();
+                this.logDensityCache[base + CACHE_MEAN] = obs.getMean();
+                if (stdDev > 0.0) {
+                    this.logDensityCache[base + CACHE_HALF_INV_VAR] = 1.0 / (2.0 * stdDev * stdDev);
+                    this.logDensityCache[base + CACHE_LOG_NORM] = -Math.log(stdDev
+                            * GaussianEstimator.NORMAL_CONSTANT);
+                } else {
+                    // density is 1 at the mean, 0 elsewhere
+                    this.logDensityCache[base + CACHE_HALF_INV_VAR] = Double.POSITIVE_INFINITY;
+                    this.logDensityCache[base + CACHE_LOG_NORM] = 0.0;
+                }
+            }
+            this.logDensityCacheValid[classVal] = true;
+        }
+        return base;
+    }
+
+    /**
+     * Gets the state of the estimator of a class into state[offset ~ offset+STATE_SIZE-1]
+     *
+     * @param classVal the class
+     * @return false if no value was observed for the class, state is not written
+     */
+    public boolean getEstimatorState(int classVal, double[] state, int offset) {
+        GaussianEstimator valDist = this.attValDistPerClass.get(classVal);
+        if (valDist == null) {
+            return false;
+        }
+        SettableGaussianEstimator estimator = valDist instanceof SettableGaussianEstimator
+                ? (SettableGaussianEstimator) valDist
+                : new SettableGaussianEstimator(valDist);
+        state[offset + STATE_WEIGHT] = estimator.getTotalWeightObserved();
+        state[offset + STATE_MEAN] = estimator.getMean();
+        state[offset + STATE_VARIANCE_SUM] = estimator.getVarianceSum();
+        state[offset + STATE_MIN] = this.minValueObservedPerClass.getValue(classVal);
+        state[offset + STATE_MAX] = this.maxValueObservedPerClass.getValue(classVal);
+        return true;
+    }
+
+    /**
+     * Replaces the state of the estimator of a class by state[offset ~ offset+STATE_SIZE-1],
+     * as read by getEstimatorState
+     *
+     * @param classVal the class
+     */
+    public void setEstimatorState(int classVal, double[] state, int offset) {
+        SettableGaussianEstimator estimator = new SettableGaussianEstimator();
+        estimator.setState(state[offset + STATE_WEIGHT], state[offset + STATE_MEAN],
+                state[offset + STATE_VARIANCE_SUM]);
+        this.attValDistPerClass.set(classVal, estimator);
+        this.minValueObservedPerClass.setValue(classVal, state[offset + STATE_MIN]);
+        this.maxValueObservedPerClass.setValue(classVal, state[offset + STATE_MAX]);
+        if (this.logDensityCacheValid != null
+                && classVal < this.logDensityCacheValid.length) {
+            this.logDensityCacheValid[classVal] = false;
+        }
+    }
+
+    /**
+     * Gets the number of class slots of this observer,
+     * classes from this number on are not observed
+     */
+    public int getNumClassesObserved() {
+        return this.attValDistPerClass.size();
+    }
+
+    /**
+     * Gets the gaussian estimator of the attribute values observed for a class
+     *
+     * @param classVal the class
+     * @return the estimator, or null if no value was observed for the class
+     */
+    public GaussianEstimator getEstimatorOfClass(int classVal) {
+        return this.attValDistPerClass.get(classVal);
     }
 
 
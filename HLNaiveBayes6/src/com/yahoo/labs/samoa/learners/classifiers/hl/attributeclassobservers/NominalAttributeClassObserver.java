@@ -23,6 +23,8 @@
  */
 package com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers;
 
+import java.util.Arrays;
+
 import com.yahoo.labs.samoa.moa.core.AutoExpandVector;
 import com.yahoo.labs.samoa.moa.core.DoubleVector;
 import com.yahoo.labs.samoa.moa.core.Utils;
@@ -66,6 +68,78 @@ public class NominalAttributeClassObserver implements
         this.totalWeightObserved += weight;
     }
 
+    @Override
+    public AttributeClassObserver copy() {
+        NominalAttributeClassObserver copy = new NominalAttributeClassObserver();
+        copy.totalWeightObserved = this.totalWeightObserved;
+        copy.missingWeightObserved = this.missingWeightObserved;
+        for (int i = 0; i < this.attValDistPerClass.size(); i++) {
+            DoubleVector valDist = this.attValDistPerClass.get(i);
+            copy.attValDistPerClass.set(i, valDist == null ? null : new DoubleVector(valDist));
+        }
+        return copy;
+    }
+
+    @Override
+    public void merge(AttributeClassObserver other) {
+        NominalAttributeClassObserver nominalOther = cast(other);
+        for (int i = 0; i < nominalOther.attValDistPerClass.size(); i++) {
+            DoubleVector otherDist = nominalOther.attValDistPerClass.get(i);
+            if (otherDist == null) {
+                continue;
+            }
+            DoubleVector valDist = this.attValDistPerClass.get(i);
+            if (valDist == null) {
+                this.attValDistPerClass.set(i, new DoubleVector(otherDist));
+            } else {
+                valDist.addValues(otherDist);
+            }
+        }
+        this.totalWeightObserved += nominalOther.totalWeightObserved;
+        this.missingWeightObserved += nominalOther.missingWeightObserved;
+    }
+
+    @Override
+    public void subtract(AttributeClassObserver other) {
+        NominalAttributeClassObserver nominalOther = cast(other);
+        for (int i = 0; i < nominalOther.attValDistPerClass.size(); i++) {
+            DoubleVector otherDist = nominalOther.attValDistPerClass.get(i);
+            if (otherDist == null) {
+                continue;
+            }
+            DoubleVector valDist = this.attValDistPerClass.get(i);
+            if (valDist == null) {
+                continue;
+            }
+            // the number of values is part of the probability, so the values
+            // only observed by other are removed, and the class if none is left
+            double[] dist = valDist.getArrayCopy();
+            int numValues = 0;
+            for (int v = 0; v < dist.length; v++) {
+                double remaining = dist[v] - otherDist.getValue(v);
+                dist[v] = remaining > SUBTRACT_TOLERANCE * dist[v] ? remaining : 0.0;
+                if (dist[v] != 0.0) {
+                    numValues = v + 1;
+                }
+            }
+            this.attValDistPerClass.set(i,
+                    numValues > 0 ? new DoubleVector(Arrays.copyOf(dist, numValues)) : null);
+        }
+        this.totalWeightObserved -= nominalOther.totalWeightObserved;
+        this.missingWeightObserved -= nominalOther.missingWeightObserved;
+    }
+
+    // relative weight left by subtract that is only rounding error
+    static final double SUBTRACT_TOLERANCE = 1e-12;
+
+    private static NominalAttributeClassObserver cast(AttributeClassObserver other) {
+        if (!(other instanceof NominalAttributeClassObserver)) {
+            throw new IllegalArgumentException("cannot combine "
+                    + other.getClass().getName() + " with NominalAttributeClassObserver");
+        }
+        return (NominalAttributeClassObserver) other;
+    }
+
     @Override
     public double probabilityOfAttributeValueGivenClass(double attVal,
             int classVal) {
@@ -82,6 +156,34 @@ public class NominalAttributeClassObserver implements
         return this.missingWeightObserved;
     }
 
+    /**
+     * Gets the observed weight of an attribute value and a class
+     */
+    public double getWeight(int attVal, int classVal) {
+        DoubleVector valDist = this.attValDistPerClass.get(classVal);
+        return valDist != null ? valDist.getValue(attVal) : 0.0;
+    }
+
+    /**
+     * Replaces the observed weight of an attribute value and a class
+     */
+    public void setWeight(int attVal, int classVal, double weight) {
+        DoubleVector valDist = this.attValDistPerClass.get(classVal);
+        if (valDist == null) {
+            valDist = new DoubleVector();
+            this.attValDistPerClass.set(classVal, valDist);
+        }
+        valDist.setValue(attVal, weight);
+    }
+
+    /**
+     * Replaces the total and missing observed weights
+     */
+    public void setObservedWeights(double totalWeight, double missingWeight) {
+        this.totalWeightObserved = totalWeight;
+        this.missingWeightObserved = missingWeight;
+    }
+
   
 
     public int getMaxAttValsObserved() {
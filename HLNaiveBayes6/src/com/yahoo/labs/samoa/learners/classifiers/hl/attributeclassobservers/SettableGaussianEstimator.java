@@ -0,0 +1,74 @@
+package com.yahoo.labs.samoa.learners.classifiers.hl.attributeclassobservers;
+
+import com.yahoo.labs.samoa.moa.core.GaussianEstimator;
+
+/**
+ * GaussianEstimator whose state (weightSum, mean, varianceSum) can be read
+ * and written, so the state of an estimator can be sent to another processor
+ * and set there, instead of sending the whole observer.
+ *
+ * @author hl
+ */
+public class SettableGaussianEstimator extends GaussianEstimator {
+
+    private static final long serialVersionUID = 2718003475125610894L;
+
+    public SettableGaussianEstimator() {
+    }
+
+    /**
+     * Copy of an estimator
+     */
+    public SettableGaussianEstimator(GaussianEstimator estimator) {
+        addObservations(estimator); // into an empty estimator, same as a copy
+    }
+
+    /**
+     * Gets the sum of the squared differences to the mean, weighted
+     */
+    public double getVarianceSum() {
+        return this.varianceSum;
+    }
+
+    /**
+     * Removes the observations of an estimator from this one, the inverse of addObservations:
+     *   w = w1-w2
+     *   mean = mean1 + (w2/w)*(mean1-mean2)
+     *   varianceSum = varianceSum1 - varianceSum2 - w*w2/w1*(mean2-mean)^2
+     * The estimator is empty if the remaining weight is not positive
+     *
+     * @param obs estimator of a subset of the observations of this one
+     */
+    public void subtractObservations(GaussianEstimator obs) {
+        SettableGaussianEstimator other = obs instanceof SettableGaussianEstimator
+                ? (SettableGaussianEstimator) obs
+                : new SettableGaussianEstimator(obs);
+        if (other.weightSum <= 0.0) {
+            return;
+        }
+        double w = this.weightSum - other.weightSum;
+        if (w <= 1e-12 * this.weightSum) {
+            setState(0.0, 0.0, 0.0);
+            return;
+        }
+        double mean = this.mean + (other.weightSum / w) * (this.mean - other.mean);
+        double diff = other.mean - mean;
+        double varianceSum = this.varianceSum - other.varianceSum
+                - w * other.weightSum / this.weightSum * diff * diff;
+        // a remaining variance sum at the rounding error of the subtraction is 0,
+        // e.g. a single observation left, whose variance must be exactly 0
+        if (varianceSum <= 1e-10 * this.varianceSum) {
+            varianceSum = 0.0;
+        }
+        setState(w, mean, varianceSum);
+    }
+
+    /**
+     * Replaces the state of this estimator
+     */
+    public void setState(double weightSum, double mean, double varianceSum) {
+        this.weightSum = weightSum;
+        this.mean = mean;
+        this.varianceSum = varianceSum;
+    }
+}
@@ -33,6 +33,7 @@ import com.github.javacliparser.StringOption;
 import com.yahoo.labs.samoa.evaluation.BasicClassificationPerformanceEvaluator;
 import com.yahoo.labs.samoa.evaluation.ClassificationPerformanceEvaluator;
 import com.yahoo.labs.samoa.evaluation.EvaluatorProcessor;
+import com.yahoo.labs.samoa.evaluation.hl.HLResultsEvaluatorProcessor;
 import com.yahoo.labs.samoa.learners.Learner;
 import com.yahoo.labs.samoa.learners.classifiers.trees.VerticalHoeffdingTree;
 import com.yahoo.labs.samoa.moa.streams.InstanceStream;
@@ -113,6 +114,8 @@ public class HLTrainTestEvaluation implements Task, Configurable {
 
     private EvaluatorProcessor evaluator;
 
+    private HLResultsEvaluatorProcessor resultsEvaluator;
+
     // private ProcessingItem evaluatorPi;
 
     private Stream evaluatorPiInputStream;
@@ -180,8 +183,10 @@ public class HLTrainTestEvaluation implements Task, Configurable {
 
         // evaluatorPi = builder.createPi(evaluator);
         // evaluatorPi.connectInputShuffleStream(evaluatorPiInputStream);
-        builder.addProcessor(evaluator);
-        builder.connectInputShuffleStream(evaluatorPiInputStream, evaluator);
+        // the adapter unpacks the batched results of NBModel, other results are passed through
+        resultsEvaluator = new HLResultsEvaluatorProcessor(evaluator);
+        builder.addProcessor(resultsEvaluator);
+        builder.connectInputShuffleStream(evaluatorPiInputStream, resultsEvaluator);
 
         logger.debug("Sucessfully instantiating EvaluatorProcessor");
 